@@ -0,0 +1,70 @@
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+// Shared account registry keyed by account number, used by every page.
+// Accounts can also be searched by holder name through a NameIndex.
+class AccountRegistry {
+    private final ConcurrentHashMap<String, BankAccount> accounts;
+    private final NameIndex names = new NameIndex();
+    // Set once recovery has bulk-indexed the names; accounts restored after that (on a replica) are indexed straight away
+    private volatile boolean namesIndexed;
+
+    public AccountRegistry() {
+        this.accounts = new ConcurrentHashMap<>();
+    }
+
+    // Method to register a new account, returns false if the account number is already taken
+    public boolean register(BankAccount account) {
+        if (accounts.putIfAbsent(account.getAccountNumber(), account) != null) {
+            return false;
+        }
+        account.indexName(names);
+        return true;
+    }
+
+    // Method to drop an account just registered whose creation could not be journaled
+    public void unregister(BankAccount account) {
+        if (accounts.remove(account.getAccountNumber(), account)) {
+            names.remove(account, account.getName());
+        }
+    }
+
+    // Method to register an account recovered at startup, leaving its name for indexNames
+    public boolean restore(BankAccount account) {
+        if (accounts.putIfAbsent(account.getAccountNumber(), account) != null) {
+            return false;
+        }
+        if (namesIndexed) {
+            account.indexName(names);
+        }
+        return true;
+    }
+
+    // Method to index the names of all restored accounts in one go, once recovery is done
+    public void indexNames() {
+        names.addAll(accounts.values(), accounts::get);
+        namesIndexed = true;
+    }
+
+    // Method to find account by account number
+    public BankAccount findAccount(String accountNumber) {
+        if (accountNumber == null) {
+            return null;
+        }
+        return accounts.get(accountNumber);
+    }
+
+    // Method to find accounts by holder name prefix, see NameIndex.search
+    public int searchByName(String prefix, int limit, Predicate<BankAccount> visitor) {
+        return names.search(prefix, limit, visitor);
+    }
+
+    public Collection<BankAccount> getAccounts() {
+        return accounts.values();
+    }
+
+    public int size() {
+        return accounts.size();
+    }
+}
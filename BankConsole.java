@@ -0,0 +1,256 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+
+// Headless front end: reads one command per line and runs it through the BankService
+class BankConsole {
+    private static final int STATEMENT_PAGE_SIZE = 50;
+    private static final int SEARCH_LIMIT = 50;
+
+    private final BankService service;
+    private final PrintStream out;
+
+    public BankConsole(BankService service, PrintStream out) {
+        this.service = service;
+        this.out = out;
+    }
+
+    public void run(BufferedReader in) throws IOException {
+        out.println("Bank System running headless. Type 'help' for commands.");
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.equals("quit") || line.equals("exit")) {
+                break;
+            }
+            out.println(execute(line.split("\\s+")));
+        }
+    }
+
+    // Method to execute a single command and return the text to print
+    public String execute(String[] args) {
+        try {
+            switch (args[0]) {
+                case "create":
+                    // create <account> <pin> <balance> <name...>
+                    requireArgs(args, 5);
+                    return render(service.createAccount(joinFrom(args, 4), args[1], args[2], Money.parse(args[3])));
+                case "credit":
+                    requireArgs(args, 4);
+                    return render(service.credit(args[1], args[2], Money.parse(args[3]), args.length > 4 ? args[4] : null));
+                case "debit":
+                    requireArgs(args, 4);
+                    return render(service.debit(args[1], args[2], Money.parse(args[3]), args.length > 4 ? args[4] : null));
+                case "transfer":
+                    requireArgs(args, 5);
+                    return render(service.transfer(args[1], args[2], args[3], Money.parse(args[4]), args.length > 5 ? args[5] : null));
+                case "balance":
+                    requireArgs(args, 3);
+                    return render(service.checkBalance(args[1], args[2]));
+                case "pin":
+                    requireArgs(args, 4);
+                    return render(service.changePin(args[1], args[2], args[3]));
+                case "statement":
+                    requireArgs(args, 3);
+                    return renderStatement(service.statement(args[1], args[2]), BankServer.parsePage(args, 3));
+                case "search":
+                    // search <name prefix...>
+                    requireArgs(args, 2);
+                    return search(joinFrom(args, 1));
+                case "import":
+                    requireArgs(args, 3);
+                    if (service.isReadOnly()) {
+                        return "ERROR This is a read-only replica; import on the primary";
+                    }
+                    return importFile(args[1], args[2]);
+                case "export":
+                    // export <file>
+                    requireArgs(args, 2);
+                    return exportColumnar(args[1]);
+                case "snapshot":
+                    return "OK Snapshot of " + service.takeSnapshot() + " accounts written";
+                case "job":
+                    // job <interest|fee|cutoff> [run]
+                    requireArgs(args, 2);
+                    if (service.isReadOnly()) {
+                        return "ERROR This is a read-only replica; batch jobs run on the primary";
+                    }
+                    if (service.getJobs() == null) {
+                        return "ERROR Batch jobs need a data directory";
+                    }
+                    BatchJobs.Job job = BatchJobs.Job.forLabel(args[1]);
+                    long run = args.length > 2 ? Long.parseLong(args[2]) : BatchJobs.latestRun(job, LocalDate.now());
+                    return "OK " + service.getJobs().run(job, run);
+                case "metrics":
+                    return service.getMetrics().toPrometheus();
+                case "role":
+                    return "OK " + service.role();
+                case "promote":
+                    return "OK " + service.promote();
+                case "totals":
+                    // totals <yyyy-mm-dd|yyyy-mm> [account]
+                    requireArgs(args, 2);
+                    return totals(args[1], args.length > 2 ? args[2] : null);
+                case "events":
+                    // events <from seq> [count]
+                    requireArgs(args, 2);
+                    return events(Long.parseLong(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : STATEMENT_PAGE_SIZE);
+                case "fraud":
+                    // fraud [reload]
+                    return fraudRules(args.length > 1 && args[1].equals("reload"));
+                case "help":
+                    return "Commands:\n"
+                            + "  create <account> <pin> <balance> <name>\n"
+                            + "  credit <account> <pin> <amount> [idempotency key]\n"
+                            + "  debit <account> <pin> <amount> [idempotency key]\n"
+                            + "  transfer <from account> <pin> <to account> <amount> [idempotency key]\n"
+                            + "  balance <account> <pin>\n"
+                            + "  pin <account> <current pin> <new pin>\n"
+                            + "  statement <account> <pin> [page]\n"
+                            + "  search <name prefix>\n"
+                            + "  import <file> <report file>\n"
+                            + "  export <file>\n"
+                            + "  snapshot\n"
+                            + "  job <interest|fee|cutoff> [run]\n"
+                            + "  metrics\n"
+                            + "  role\n"
+                            + "  promote\n"
+                            + "  totals <yyyy-mm-dd|yyyy-mm> [account]\n"
+                            + "  events <from seq> [count]\n"
+                            + "  fraud [reload]\n"
+                            + "  quit";
+                default:
+                    return "Unknown command: " + args[0];
+            }
+        } catch (NumberFormatException e) {
+            return "Invalid amount: " + e.getMessage();
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        } catch (UncheckedIOException e) {
+            return "ERROR " + e.getMessage() + ": " + e.getCause().getMessage();
+        } catch (IOException e) {
+            return "ERROR " + e.getMessage();
+        }
+    }
+
+    private String search(String prefix) {
+        StringBuilder sb = new StringBuilder();
+        int found = service.searchByName(prefix, SEARCH_LIMIT, account -> {
+            sb.append('\n').append(account.getAccountNumber()).append("  ").append(account.getName());
+            return true;
+        });
+        return "OK " + found + (found == SEARCH_LIMIT ? "+" : "") + " accounts found" + sb;
+    }
+
+    private String totals(String period, String accountNumber) {
+        TransactionSummary.Totals totals = accountNumber == null ? service.bankTotals(period) : service.accountTotals(accountNumber, period);
+        if (totals == null) {
+            return "ERROR Account not found";
+        }
+        return "OK Totals for " + (accountNumber == null ? "the bank" : accountNumber) + " in " + totals.getPeriod() + "\n" + totals.format();
+    }
+
+    private String events(long fromSeq, int count) throws IOException {
+        EventFeed feed = service.getEventFeed();
+        if (feed == null) {
+            return "ERROR No journal, so no events";
+        }
+        StringBuilder sb = new StringBuilder();
+        int found;
+        try {
+            found = feed.subscribe(fromSeq).poll(count, 0, event -> sb.append('\n').append(event));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return "ERROR Interrupted";
+        }
+        return "OK " + found + " events, latest #" + feed.getPublished() + sb;
+    }
+
+    private String fraudRules(boolean reload) throws IOException {
+        FraudRules rules = service.getFraudRules();
+        if (rules.getFile() == null) {
+            return "ERROR No fraud rules file; start with -Dbank.fraud.rules=<file>";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("OK ").append(reload ? "Reloaded " + rules.reload() : rules.getRules().size()).append(" rules from ").append(rules.getFile());
+        for (String rule : rules.getRules()) {
+            sb.append("\n  ").append(rule);
+        }
+        return sb.toString();
+    }
+
+    private String importFile(String input, String report) throws IOException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        BatchImporter importer = new BatchImporter(service, Integer.getInteger("bank.import.batchSize", 50_000), threads);
+        try {
+            return "OK " + importer.importFile(Paths.get(input), Paths.get(report));
+        } finally {
+            importer.shutdown();
+        }
+    }
+
+    // Runs on replicas too, which is where a large export is best taken
+    private String exportColumnar(String file) throws IOException {
+        ColumnarExport export = ColumnarExport.fromSystemProperties(service.getLedger());
+        try {
+            return "OK " + export.export(service.getRegistry().getAccounts(), Paths.get(file));
+        } finally {
+            export.shutdown();
+        }
+    }
+
+    private String render(BankResult result) {
+        return (result.isOk() ? "OK " : "ERROR ") + result.getMessage();
+    }
+
+    private String renderStatement(BankResult result, int page) {
+        if (!result.isOk()) {
+            return render(result);
+        }
+        BankAccount account = result.getAccount();
+        StringBuilder sb = new StringBuilder();
+        sb.append("Account Number: ").append(account.getAccountNumber()).append('\n');
+        sb.append("Name: ").append(account.getName()).append('\n');
+        sb.append("Balance: $");
+        Money.appendTo(sb, account.getBalance());
+        sb.append('\n');
+        sb.append("Transactions (newest first), page ").append(page).append(":\n");
+        StatementCursor cursor = new StatementCursor(account.getTransactions(), Long.MIN_VALUE, Long.MAX_VALUE);
+        for (int i = 1; i < page && cursor.hasMore(); i++) {
+            cursor.nextPage(STATEMENT_PAGE_SIZE);
+        }
+        sb.append(service.statementPage(cursor, STATEMENT_PAGE_SIZE));
+        if (cursor.hasMore()) {
+            sb.append("(more: statement ").append(account.getAccountNumber()).append(" <pin> ").append(page + 1).append(')');
+        }
+        return sb.toString();
+    }
+
+    private static void requireArgs(String[] args, int count) {
+        if (args.length < count) {
+            throw new IllegalArgumentException("Missing arguments for '" + args[0] + "'. Type 'help' for usage.");
+        }
+    }
+
+    private static String joinFrom(String[] args, int start) {
+        StringBuilder sb = new StringBuilder(args[start]);
+        for (int i = start + 1; i < args.length; i++) {
+            sb.append(' ').append(args[i]);
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        BankService service = BankService.open(Runtime.getRuntime().availableProcessors());
+        System.out.println(service.getStartupReport());
+        new BankConsole(service, System.out).run(new BufferedReader(new InputStreamReader(System.in)));
+        service.shutdown();
+    }
+}
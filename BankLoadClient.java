@@ -0,0 +1,137 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load generator for the BankServer: opens many concurrent ATM sessions against one
+// server and drives a mix of balance checks (40%), credits and debits (25% each) and
+// transfers (10%) for a fixed time, then prints throughput and latency percentiles.
+//
+// Usage: BankLoadClient [host] [port] [connections] [seconds] [accounts]
+//   defaults: localhost 7070 1000 30 10000. Accounts LOAD<n> with PIN 1234 are created
+//   first if they do not exist yet; each one costs a full PIN hash on the server, so for
+//   quick runs start the server with a lower -Dbank.pin.iterations.
+class BankLoadClient {
+    private static final String PIN = "1234";
+    private static final int SETUP_CONNECTIONS = 32;
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+        int connections = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 30;
+        int accounts = args.length > 4 ? Integer.parseInt(args[4]) : 10_000;
+
+        createAccounts(host, port, accounts);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder errors = new LongAdder();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        CountDownLatch done = new CountDownLatch(connections);
+        ExecutorService sessions = BankServer.newConnectionExecutor();
+        long start = System.nanoTime();
+        for (int c = 0; c < connections; c++) {
+            sessions.execute(() -> {
+                try {
+                    runSession(host, port, accounts, deadline, latency, errors);
+                } catch (IOException e) {
+                    errors.increment();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+        sessions.shutdown();
+
+        LatencyHistogram.Snapshot snapshot = latency.snapshot();
+        System.out.printf("%d connections, %d requests in %.1f s: %.0f req/s, %d errors%n",
+                connections, snapshot.getCount(), elapsed / 1e9, snapshot.getCount() * 1e9 / elapsed, errors.sum());
+        System.out.printf("latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                snapshot.getValueAtQuantile(0.5) / 1e6, snapshot.getValueAtQuantile(0.99) / 1e6,
+                snapshot.getValueAtQuantile(0.999) / 1e6, snapshot.getMax() / 1e6);
+    }
+
+    // Method to create the load accounts over parallel connections, so the creates share journal flushes
+    private static void createAccounts(String host, int port, int accounts) throws Exception {
+        int setupConnections = Math.min(SETUP_CONNECTIONS, accounts);
+        CountDownLatch done = new CountDownLatch(setupConnections);
+        LongAdder failures = new LongAdder();
+        ExecutorService setup = BankServer.newConnectionExecutor();
+        for (int c = 0; c < setupConnections; c++) {
+            final int first = c;
+            setup.execute(() -> {
+                try (Socket socket = new Socket(host, port);
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                     Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                    for (int i = first; i < accounts; i += setupConnections) {
+                        out.write("CREATE LOAD" + i + " " + PIN + " 1000000 Load Test " + i + "\n");
+                        out.flush();
+                        // An account left over from an earlier run is fine
+                        if (in.readLine() == null) {
+                            throw new IOException("Server closed the connection");
+                        }
+                    }
+                } catch (IOException e) {
+                    failures.increment();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        setup.shutdown();
+        if (failures.sum() > 0) {
+            throw new IOException("Could not create the load accounts on " + host + ":" + port);
+        }
+    }
+
+    private static void runSession(String host, int port, int accounts, long deadline,
+                                   LatencyHistogram latency, LongAdder errors) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try (Socket socket = new Socket(host, port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            while (System.nanoTime() < deadline) {
+                String account = "LOAD" + random.nextInt(accounts);
+                int pick = random.nextInt(100);
+                String request;
+                if (pick < 40) {
+                    request = "BALANCE " + account + " " + PIN;
+                } else if (pick < 65) {
+                    request = "CREDIT " + account + " " + PIN + " 1.00";
+                } else if (pick < 90) {
+                    request = "DEBIT " + account + " " + PIN + " 1.00";
+                } else {
+                    request = "TRANSFER " + account + " " + PIN + " LOAD" + random.nextInt(accounts) + " 1.00";
+                }
+                long start = System.nanoTime();
+                out.write(request);
+                out.write('\n');
+                out.flush();
+                String reply = in.readLine();
+                latency.record(System.nanoTime() - start);
+                if (reply == null) {
+                    throw new IOException("Server closed the connection");
+                }
+                // A transfer that picked its own account is an expected rejection, not an error
+                if (reply.startsWith("ERROR") && !reply.startsWith("ERROR INVALID_TARGET")) {
+                    errors.increment();
+                }
+            }
+            out.write("QUIT\n");
+            out.flush();
+        }
+    }
+}
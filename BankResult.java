@@ -0,0 +1,64 @@
+// Outcome of a single bank operation, independent of how it is displayed
+class BankResult {
+    enum Status {
+        OK,
+        INVALID_CREDENTIALS,
+        INSUFFICIENT_BALANCE,
+        INVALID_AMOUNT,
+        DUPLICATE_ACCOUNT,
+        INVALID_TARGET,
+        INVALID_NAME,
+        ACCOUNT_LOCKED,
+        SESSION_EXPIRED,
+        READ_ONLY,
+        STALE,
+        INVALID_KEY,
+        BLOCKED,
+        ABORTED
+    }
+
+    private final Status status;
+    private final BankAccount account;
+    private final String message;
+    private final SessionStore.Session session;
+
+    private BankResult(Status status, BankAccount account, String message, SessionStore.Session session) {
+        this.status = status;
+        this.account = account;
+        this.message = message;
+        this.session = session;
+    }
+
+    public static BankResult ok(BankAccount account, String message) {
+        return new BankResult(Status.OK, account, message, null);
+    }
+
+    // Result of a login, carrying the new session
+    public static BankResult loggedIn(SessionStore.Session session, String message) {
+        return new BankResult(Status.OK, session.getAccount(), message, session);
+    }
+
+    public static BankResult error(Status status, String message) {
+        return new BankResult(status, null, message, null);
+    }
+
+    public boolean isOk() {
+        return status == Status.OK;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public BankAccount getAccount() {
+        return account;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public SessionStore.Session getSession() {
+        return session;
+    }
+}
@@ -0,0 +1,594 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Front end of a sharded cluster. Accounts are spread over N BankServer shards by a
+// consistent hash of the account number (see ShardRing); the router speaks the same line
+// protocol as a single BankServer and forwards each request to the shard owning its
+// account, over connections of its own to every shard.
+//
+// A transfer between accounts on different shards is a two-phase commit with the router
+// as coordinator. It prepares the outgoing leg (which checks the PIN and holds the funds)
+// and then the incoming leg; if both succeed it durably logs the commit decision, answers
+// the client and tells both shards to commit, otherwise it tells them to abort. Decisions
+// that cannot be delivered are retried in the background until the shard is back. On
+// startup the router asks every shard for the legs of its transfers still pending and
+// commits those it had logged as committed, aborting the rest.
+//
+// A shard that does not answer within the read timeout fails the request like one that is
+// down, so a prepare that timed out is aborted on a fresh connection; the shard remembers
+// the abort and refuses the prepare if it only arrives later. As a last resort the router
+// also looks for legs of its own transfers left pending while it runs, and aborts any that
+// stay pending for the pending timeout with no transfer running or committing for them.
+//
+// Idempotency keys are passed through to the shard for every request. For a transfer between
+// shards the key goes with the outgoing leg, and the paying shard keeps it durably once that
+// leg commits: a retry, through any router and after any restart, is answered by the shard
+// instead of being prepared again. Repeats this router has answered itself come from an
+// IdempotencyStore of its own, so one that arrives while the first is running waits for it.
+//
+// Properties: -Dbank.router.port (default 7070), -Dbank.router.shards (host:port,...),
+// -Dbank.cluster.secret (must match the shards'), -Dbank.router.id (default r1; every router
+// of a cluster needs its own), -Dbank.router.dataDir (default data/router-<id>),
+// -Dbank.ring.virtualNodes (default 256), -Dbank.router.shardTimeoutMillis (read timeout on
+// shard connections, default 10000) and -Dbank.router.pendingTimeoutSeconds (default 60).
+// The shard list is part of the ring: every router must list the same shards in the same order.
+//
+// For testing on one host, "BankRouter --local <n>" starts n shards as child processes on
+// ports from -Dbank.router.shardBasePort (default 7100), with data under
+// -Dbank.dataDir/shard-<i>, and routes to them.
+class BankRouter {
+    private static final long MAX_RETRY_MILLIS = 30_000;
+
+    private final ShardRing ring;
+    private final InetSocketAddress[] shards;
+    private final String secret;
+    private final String routerId;
+    private final String transactionPrefix;
+    private final AtomicLong transactionCounter = new AtomicLong();
+    // Commit decisions, so they survive a restart of the router while a shard still waits for them
+    private final Journal decisions;
+    // Sequence numbers of logged decisions not yet delivered to both shards; older ones can be dropped from the log
+    private final ConcurrentSkipListSet<Long> undelivered = new ConcurrentSkipListSet<>();
+    private final ScheduledExecutorService background;
+    private final int shardTimeoutMillis = Integer.getInteger("bank.router.shardTimeoutMillis", 10_000);
+    private final long pendingTimeoutMillis = Long.getLong("bank.router.pendingTimeoutSeconds", 60) * 1000;
+    // Transactions from their first prepare until their decision is logged or sent
+    private final Set<String> preparing = ConcurrentHashMap.newKeySet();
+    // Transactions whose commit is logged but not yet delivered to both legs
+    private final Set<String> committing = ConcurrentHashMap.newKeySet();
+    // Pending legs of this router's transfers found by the sweep, as "<transaction id> <account>", with when
+    // they were first found; only the background thread uses it
+    private final Map<String, Long> strandedLegs = new HashMap<>();
+    // Replies to keyed transfers between shards, with the shards' -Dbank.idempotency.* settings
+    private final IdempotencyStore<String> idempotency = new IdempotencyStore<>(
+            Long.getLong("bank.idempotency.windowSeconds", 600) * 1000, Integer.getInteger("bank.idempotency.maxKeys", 200_000),
+            reply -> reply.startsWith("OK"), message -> "ERROR INVALID_KEY " + message);
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    // Legs of earlier runs' transfers settled on startup
+    private final int recoveredLegs;
+    private volatile boolean running = true;
+
+    public BankRouter(InetSocketAddress[] shards, String secret, String routerId, Path dataDir, int virtualNodes, int port) throws IOException {
+        this.ring = new ShardRing(shards.length, virtualNodes);
+        this.shards = shards;
+        this.secret = secret;
+        this.routerId = routerId;
+        this.transactionPrefix = routerId + "-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+        this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "router-background");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Set<String> committed = new HashSet<>();
+        this.decisions = Journal.open(dataDir, 1, Long.getLong("bank.journal.windowMillis", 1), 4096, entry -> committed.add(entry.name));
+        this.recoveredLegs = recover(committed);
+        background.scheduleWithFixedDelay(this::trimDecisions, 60, 60, TimeUnit.SECONDS);
+        long sweepMillis = Math.max(1_000, pendingTimeoutMillis / 2);
+        background.scheduleWithFixedDelay(this::sweepPending, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(port), 4096);
+        this.connections = BankServer.newConnectionExecutor();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getRecoveredLegs() {
+        return recoveredLegs;
+    }
+
+    // Method to accept client connections until close() is called
+    public void serve() throws IOException {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (!running) {
+                    return;
+                }
+                throw e;
+            }
+            connections.execute(() -> handle(socket));
+        }
+    }
+
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        connections.shutdownNow();
+        background.shutdownNow();
+        decisions.close();
+    }
+
+    // Method to settle the legs of this router's transfers left pending by an earlier run,
+    // waiting for shards that are not up yet. Returns the number of legs settled.
+    private int recover(Set<String> committed) throws IOException {
+        int settled = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            try (ShardConnection connection = connectWithRetry(shard)) {
+                List<String> legs = connection.callLines("PENDING");
+                for (String leg : legs) {
+                    String[] parts = leg.split(" ");
+                    if (!parts[0].startsWith(routerId + "-")) {
+                        continue;
+                    }
+                    String reply = connection.call((committed.contains(parts[0]) ? "COMMIT " : "ABORT ") + parts[0] + " " + parts[1]);
+                    if (!reply.startsWith("OK")) {
+                        throw new IOException("Shard " + shard + " refused to settle " + leg + ": " + reply);
+                    }
+                    settled++;
+                }
+            }
+        }
+        // Nothing is pending any more, so no earlier decision is needed again
+        decisions.deleteSegmentsBefore(decisions.rotate());
+        return settled;
+    }
+
+    private ShardConnection connectWithRetry(int shard) throws IOException {
+        long delay = 100;
+        while (true) {
+            try {
+                return new ShardConnection(shards[shard], secret, shardTimeoutMillis);
+            } catch (IOException e) {
+                if (delay == 100) {
+                    System.err.println("Waiting for shard " + shard + " at " + shards[shard] + ": " + e.getMessage());
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for shard " + shard);
+                }
+                delay = Math.min(delay * 2, 5_000);
+            }
+        }
+    }
+
+    private void trimDecisions() {
+        try {
+            long next = decisions.rotate();
+            Long oldest = undelivered.isEmpty() ? null : undelivered.first();
+            decisions.deleteSegmentsBefore(oldest == null ? next : Math.min(oldest, next));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to trim the router's decision log: " + e.getMessage());
+        }
+    }
+
+    // Method to abort the legs of this router's transfers that have stayed pending for the pending
+    // timeout with nothing running for them, e.g. a prepare that reached its shard after the abort
+    // was given up on. Legs on a shard that cannot be reached are looked at again next time.
+    private void sweepPending() {
+        long now = System.currentTimeMillis();
+        for (int shard = 0; shard < shards.length; shard++) {
+            Set<String> found = new HashSet<>();
+            try (ShardConnection connection = new ShardConnection(shards[shard], secret, shardTimeoutMillis)) {
+                for (String leg : connection.callLines("PENDING")) {
+                    String[] parts = leg.split(" ");
+                    // Checked after listing, so a transfer that was running then is never taken for a stranded one
+                    if (!parts[0].startsWith(routerId + "-") || preparing.contains(parts[0]) || committing.contains(parts[0])) {
+                        continue;
+                    }
+                    String key = parts[0] + " " + parts[1];
+                    Long since = strandedLegs.putIfAbsent(key, now);
+                    if (since != null && now - since >= pendingTimeoutMillis) {
+                        String reply = connection.call("ABORT " + key);
+                        if (!reply.startsWith("OK")) {
+                            System.err.println("Shard " + shard + " refused to abort stranded leg " + leg + ": " + reply);
+                            found.add(key);
+                        }
+                    } else {
+                        found.add(key);
+                    }
+                }
+            } catch (IOException e) {
+                continue;
+            }
+            final int swept = shard;
+            strandedLegs.keySet().removeIf(key -> ring.shardFor(key.substring(key.indexOf(' ') + 1)) == swept && !found.contains(key));
+        }
+    }
+
+    private void handle(Socket socket) {
+        ShardConnection[] shardConnections = new ShardConnection[shards.length];
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setTcpNoDelay(true);
+            StringBuilder reply = new StringBuilder(256);
+            StringBuilder buffer = new StringBuilder(256);
+            while (true) {
+                String line;
+                try {
+                    line = BankServer.readLine(in, buffer);
+                } catch (ProtocolException e) {
+                    out.write("ERROR BAD_REQUEST " + e.getMessage() + "\n");
+                    break;
+                }
+                if (line == null) {
+                    break;
+                }
+                line = line.trim();
+                String[] args = line.split("\\s+");
+                if (args[0].equalsIgnoreCase("QUIT")) {
+                    break;
+                }
+                reply.setLength(0);
+                route(line, args, reply, shardConnections);
+                out.write(reply.toString());
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // The client went away; nothing to answer
+        } finally {
+            for (ShardConnection connection : shardConnections) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    // Method to forward one request to the shard owning its account and append the reply, newline included
+    void route(String line, String[] args, StringBuilder reply, ShardConnection[] shardConnections) {
+        String command = args[0].toUpperCase();
+        if (args.length < 2) {
+            reply.append("ERROR BAD_REQUEST Missing arguments for ").append(args[0]).append('\n');
+            return;
+        }
+        int shard = ring.shardFor(args[1]);
+        try {
+            switch (command) {
+                case "CREATE":
+                case "CREDIT":
+                case "DEBIT":
+                case "BALANCE":
+                case "PIN":
+                    reply.append(connection(shardConnections, shard).call(line)).append('\n');
+                    break;
+                case "STATEMENT":
+                    ShardConnection connection = connection(shardConnections, shard);
+                    String header = connection.call(line);
+                    reply.append(header).append('\n');
+                    if (header.startsWith("OK ")) {
+                        connection.readLines(Integer.parseInt(header.split(" ")[1]), reply);
+                    }
+                    break;
+                case "TRANSFER":
+                    if (args.length < 5) {
+                        reply.append("ERROR BAD_REQUEST Missing arguments for ").append(args[0]).append('\n');
+                    } else if (ring.shardFor(args[3]) == shard) {
+                        reply.append(connection(shardConnections, shard).call(line)).append('\n');
+                    } else {
+                        String key = BankServer.optionalArg(args, 5);
+                        reply.append(idempotency.execute(args[1], key, "TRANSFER " + args[3] + " " + args[4],
+                                () -> transferBetweenShards(args[1], args[2], args[3], args[4], key, shardConnections))).append('\n');
+                    }
+                    break;
+                default:
+                    reply.append("ERROR BAD_REQUEST Unknown command ").append(args[0]).append('\n');
+            }
+        } catch (IOException e) {
+            // The connection may be out of step with the shard now, so it is not reused
+            closeQuietly(shardConnections[shard]);
+            shardConnections[shard] = null;
+            reply.append("ERROR UNAVAILABLE Shard ").append(shard).append(" is unavailable: ").append(e.getMessage()).append('\n');
+        }
+    }
+
+    // Method to run a two-phase commit between the shards of the two accounts, returns the reply line
+    private String transferBetweenShards(String from, String pin, String to, String amount, String key, ShardConnection[] shardConnections) {
+        try {
+            if (Money.parse(amount) <= 0) {
+                return "ERROR INVALID_AMOUNT Amount must be a positive number.";
+            }
+        } catch (NumberFormatException e) {
+            return "ERROR INVALID_AMOUNT " + e.getMessage();
+        }
+        int fromShard = ring.shardFor(from);
+        int toShard = ring.shardFor(to);
+        String transactionId = transactionPrefix + transactionCounter.incrementAndGet();
+        preparing.add(transactionId);
+        try {
+            // Phase one: the outgoing leg first, as it checks the PIN and the funds
+            String prepared = prepare(shardConnections, fromShard, "PREPARE_OUT " + transactionId + " " + from + " " + pin + " " + amount
+                    + (key == null ? "" : " " + to + " " + key));
+            if (prepared.startsWith("OK") && !prepared.equals("OK " + BankService.PREPARED)) {
+                // A retry of a keyed transfer the paying shard already committed; nothing was prepared
+                return prepared;
+            }
+            if (prepared.startsWith("OK")) {
+                prepared = prepare(shardConnections, toShard, "PREPARE_IN " + transactionId + " " + to + " " + amount);
+            }
+            if (!prepared.startsWith("OK")) {
+                // Either leg may have been prepared even if its reply was lost
+                decide(shardConnections, fromShard, "ABORT " + transactionId + " " + from, null);
+                decide(shardConnections, toShard, "ABORT " + transactionId + " " + to, null);
+                return prepared;
+            }
+
+            // The transfer is committed once the decision is on disk; delivering it can be retried
+            committing.add(transactionId);
+            long seq = decisions.appendCommitTransfer(System.currentTimeMillis(), "", transactionId, null);
+            undelivered.add(seq);
+            decisions.awaitDurable(seq);
+            AtomicInteger legsLeft = new AtomicInteger(2);
+            Runnable delivered = () -> {
+                if (legsLeft.decrementAndGet() == 0) {
+                    undelivered.remove(seq);
+                    committing.remove(transactionId);
+                }
+            };
+            decide(shardConnections, fromShard, "COMMIT " + transactionId + " " + from, delivered);
+            decide(shardConnections, toShard, "COMMIT " + transactionId + " " + to, delivered);
+            return "OK Amount transferred successfully!";
+        } finally {
+            preparing.remove(transactionId);
+        }
+    }
+
+    private String prepare(ShardConnection[] shardConnections, int shard, String request) {
+        try {
+            return connection(shardConnections, shard).call(request);
+        } catch (IOException e) {
+            closeQuietly(shardConnections[shard]);
+            shardConnections[shard] = null;
+            return "ERROR UNAVAILABLE Shard " + shard + " is unavailable: " + e.getMessage();
+        }
+    }
+
+    // Method to send a decision, handing it to the background retries if the shard cannot take it now
+    private void decide(ShardConnection[] shardConnections, int shard, String request, Runnable delivered) {
+        try {
+            String reply = connection(shardConnections, shard).call(request);
+            if (reply.startsWith("OK")) {
+                if (delivered != null) {
+                    delivered.run();
+                }
+                return;
+            }
+            System.err.println("Shard " + shard + " refused " + request + ": " + reply);
+        } catch (IOException e) {
+            closeQuietly(shardConnections[shard]);
+            shardConnections[shard] = null;
+        }
+        retryDecision(shard, request, delivered, 100);
+    }
+
+    private void retryDecision(int shard, String request, Runnable delivered, long delayMillis) {
+        background.schedule(() -> {
+            try (ShardConnection connection = new ShardConnection(shards[shard], secret, shardTimeoutMillis)) {
+                if (connection.call(request).startsWith("OK")) {
+                    if (delivered != null) {
+                        delivered.run();
+                    }
+                    return;
+                }
+            } catch (IOException e) {
+                // Still down; try again later
+            }
+            retryDecision(shard, request, delivered, Math.min(delayMillis * 2, MAX_RETRY_MILLIS));
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private ShardConnection connection(ShardConnection[] shardConnections, int shard) throws IOException {
+        if (shardConnections[shard] == null) {
+            shardConnections[shard] = new ShardConnection(shards[shard], secret, shardTimeoutMillis);
+        }
+        return shardConnections[shard];
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing more to do with it
+            }
+        }
+    }
+
+    // A connection to one shard, identified as a cluster peer; one request at a time. A read that
+    // takes longer than timeoutMillis fails with an IOException, after which the connection is dropped.
+    static class ShardConnection implements Closeable {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final Writer out;
+
+        ShardConnection(InetSocketAddress address, String secret, int timeoutMillis) throws IOException {
+            this.socket = new Socket();
+            try {
+                socket.connect(address, 5_000);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(timeoutMillis);
+                this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                if (secret != null) {
+                    String reply = call("CLUSTER " + secret);
+                    if (!reply.startsWith("OK")) {
+                        throw new IOException(reply);
+                    }
+                }
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        // Method to send one request and return the first line of its reply
+        String call(String request) throws IOException {
+            out.write(request);
+            out.write('\n');
+            out.flush();
+            String line = in.readLine();
+            if (line == null) {
+                throw new EOFException("Shard closed the connection");
+            }
+            return line;
+        }
+
+        // Method to send a request answered by "OK <n>" and n lines, returning the lines
+        List<String> callLines(String request) throws IOException {
+            String header = call(request);
+            if (!header.startsWith("OK ")) {
+                throw new IOException(request + " failed: " + header);
+            }
+            StringBuilder lines = new StringBuilder();
+            readLines(Integer.parseInt(header.split(" ")[1]), lines);
+            List<String> result = new ArrayList<>();
+            for (String line : lines.toString().split("\n")) {
+                if (!line.isEmpty()) {
+                    result.add(line);
+                }
+            }
+            return result;
+        }
+
+        void readLines(int count, StringBuilder into) throws IOException {
+            for (int i = 0; i < count; i++) {
+                String line = in.readLine();
+                if (line == null) {
+                    throw new EOFException("Shard closed the connection");
+                }
+                into.append(line).append('\n');
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    // Method to start shard servers as child processes of this JVM, passing on its bank.* settings
+    private static List<Process> startLocalShards(int count, int basePort, String secret, Path dataDir) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            List<String> command = new ArrayList<>();
+            command.add(java);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            for (String name : System.getProperties().stringPropertyNames()) {
+                if (name.startsWith("bank.") && !name.startsWith("bank.router.") && !name.equals("bank.dataDir")
+                        && !name.equals("bank.server.port") && !name.equals("bank.cluster.secret") && !name.equals("bank.metrics.port")) {
+                    command.add("-D" + name + "=" + System.getProperty(name));
+                }
+            }
+            command.add("-Dbank.dataDir=" + dataDir.resolve("shard-" + i));
+            command.add("-Dbank.server.port=" + (basePort + i));
+            command.add("-Dbank.cluster.secret=" + secret);
+            command.add("BankServer");
+            processes.add(new ProcessBuilder(command).inheritIO().start());
+        }
+        return processes;
+    }
+
+    // Router mode: BankRouter [--local <shards>], see the class comment for the properties
+    public static void main(String[] args) throws IOException {
+        int port = Integer.getInteger("bank.router.port", 7070);
+        String routerId = System.getProperty("bank.router.id", "r1");
+        Path dataDir = Paths.get(System.getProperty("bank.dataDir", "data"));
+        Path routerDir = Paths.get(System.getProperty("bank.router.dataDir", dataDir.resolve("router-" + routerId).toString()));
+        String secret = System.getProperty("bank.cluster.secret");
+        InetSocketAddress[] shards;
+
+        if (args.length > 1 && args[0].equals("--local")) {
+            int count = Integer.parseInt(args[1]);
+            int basePort = Integer.getInteger("bank.router.shardBasePort", 7100);
+            if (secret == null) {
+                byte[] random = new byte[16];
+                new SecureRandom().nextBytes(random);
+                StringBuilder hex = new StringBuilder();
+                for (byte b : random) {
+                    hex.append(String.format("%02x", b));
+                }
+                secret = hex.toString();
+            }
+            List<Process> processes = startLocalShards(count, basePort, secret, dataDir);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                for (Process process : processes) {
+                    process.destroy();
+                }
+            }));
+            shards = new InetSocketAddress[count];
+            for (int i = 0; i < count; i++) {
+                shards[i] = new InetSocketAddress("localhost", basePort + i);
+            }
+        } else {
+            String list = System.getProperty("bank.router.shards");
+            if (list == null || list.isEmpty()) {
+                System.err.println("Usage: BankRouter [--local <shards>], or set -Dbank.router.shards=host:port,...");
+                return;
+            }
+            String[] addresses = list.split(",");
+            shards = new InetSocketAddress[addresses.length];
+            for (int i = 0; i < addresses.length; i++) {
+                String address = addresses[i].trim();
+                int colon = address.lastIndexOf(':');
+                shards[i] = new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+            }
+        }
+
+        BankRouter router = new BankRouter(shards, secret, routerId, routerDir, Integer.getInteger("bank.ring.virtualNodes", 256), port);
+        System.out.println("Bank router " + routerId + " listening on port " + router.getPort() + " for " + shards.length
+                + " shards, settled " + router.getRecoveredLegs() + " pending transfer legs");
+        router.serve();
+    }
+}
@@ -0,0 +1,417 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Network front end for remote tellers and ATMs. Each connection is served by its own
+// thread, blocking on the socket and on the journal like any other caller of the
+// BankService; on Java 21+ those are virtual threads, so idle ATM sessions cost a few
+// KB each, and on older runtimes they come from a cached pool of platform threads.
+//
+// Protocol: one request per line, words separated by spaces, amounts in dollars.
+//   CREATE <account> <pin> <balance> <name...>   CREDIT <account> <pin> <amount> [key]
+//   DEBIT <account> <pin> <amount> [key]         BALANCE <account> <pin>
+//   TRANSFER <from> <pin> <to> <amount> [key]    PIN <account> <current pin> <new pin>
+//   STATEMENT <account> <pin> [page]             ROLE
+//   QUIT
+// Each reply is one line, "OK <message>" or "ERROR <status> <message>". A request line may be
+// at most 4096 characters and a name at most 100; a longer line is answered "ERROR BAD_REQUEST"
+// and the connection closed. A request the server failed to carry out (e.g. the journal could
+// not be written) is answered "ERROR UNAVAILABLE" and logged. BALANCE answers
+// "OK <balance>"; STATEMENT answers "OK <n> <more>" followed by n transaction lines,
+// <more> being 1 if another page follows. ROLE answers "OK PRIMARY ..." or "OK REPLICA
+// ..." with how far behind the replica is. A client that may retry a CREDIT, DEBIT or
+// TRANSFER sends an idempotency key of its choosing (up to 64 characters) with it: a
+// repeat with the same key is answered with the first reply instead of being applied
+// again. Requests may be pipelined; replies are flushed whenever the client has nothing
+// more buffered. A debit or transfer refused by a fraud rule answers "ERROR BLOCKED <why>".
+//
+// A read replica (-Dbank.replica.of) answers BALANCE and STATEMENT from the journal its
+// primary ships it, "ERROR STALE" while it lags too far behind, and "ERROR READ_ONLY" to
+// every change.
+//
+// As a shard behind a BankRouter, the server also takes part in transfers between shards.
+// Those commands are only accepted on a connection that has sent the cluster secret
+// (-Dbank.cluster.secret; without it they are refused):
+//   CLUSTER <secret>                              PREPARE_OUT <txid> <from> <pin> <amount> [<to> <key>]
+//   PREPARE_IN <txid> <to> <amount>               COMMIT <txid> <account>
+//   ABORT <txid> <account>                        PENDING
+//   PROMOTE                                       EVENTS [from seq]
+// A prepare answers "OK Transfer prepared."; a PREPARE_OUT with a key the shard already
+// committed a transfer for answers that transfer's reply instead, and prepares nothing.
+// PENDING answers "OK <n>" followed by n lines "<txid> <account> <amount>". PROMOTE turns
+// a read replica into the primary once its old primary is gone.
+//
+// EVENTS turns the connection into a change feed for downstream systems (see EventFeed):
+// it answers "OK <first seq>", then sends "EVENT <seq> <type> <timestamp> <account>
+// <amount> [detail]" for every account event from that sequence on (from the next one
+// when none is given), and "HEARTBEAT <latest seq>" after a second without any. A client
+// that reconnects asks for the sequence after the last event it processed; one that asks
+// for events dropped after a snapshot is answered "ERROR TOO_OLD".
+class BankServer {
+    static final int STATEMENT_PAGE_SIZE = 50;
+    static final int MAX_LINE_LENGTH = 4096;
+    private static final int EVENT_BATCH = 1024;
+    private static final long EVENT_HEARTBEAT_MILLIS = 1000;
+
+    private final BankService service;
+    private final byte[] clusterSecret;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private volatile boolean running = true;
+
+    public BankServer(BankService service, int port) throws IOException {
+        this.service = service;
+        String secret = System.getProperty("bank.cluster.secret");
+        this.clusterSecret = secret == null || secret.isEmpty() ? null : secret.getBytes(StandardCharsets.UTF_8);
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(port), 4096);
+        this.connections = newConnectionExecutor();
+    }
+
+    // Method to create one virtual thread per task where the runtime has them, a cached thread pool otherwise
+    static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "bank-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Method to accept connections until close() is called
+    public void serve() throws IOException {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (!running) {
+                    return;
+                }
+                throw e;
+            }
+            connections.execute(() -> handle(socket));
+        }
+    }
+
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            s.setTcpNoDelay(true);
+            StringBuilder reply = new StringBuilder(256);
+            StringBuilder buffer = new StringBuilder(256);
+            boolean peer = false;
+            while (true) {
+                String line;
+                try {
+                    line = readLine(in, buffer);
+                } catch (ProtocolException e) {
+                    out.write("ERROR BAD_REQUEST " + e.getMessage() + "\n");
+                    break;
+                }
+                if (line == null) {
+                    break;
+                }
+                String[] args = line.trim().split("\\s+");
+                if (args[0].equalsIgnoreCase("QUIT")) {
+                    break;
+                }
+                reply.setLength(0);
+                if (args[0].equalsIgnoreCase("CLUSTER")) {
+                    peer = args.length > 1 && clusterSecret != null
+                            && MessageDigest.isEqual(clusterSecret, args[1].getBytes(StandardCharsets.UTF_8));
+                    reply.append(peer ? "OK Cluster peer\n" : "ERROR INVALID_CREDENTIALS Wrong cluster secret\n");
+                } else if (peer && args[0].equalsIgnoreCase("EVENTS")) {
+                    streamEvents(args, out);
+                    break;
+                } else if (!peer || !executeClusterCommand(args, reply)) {
+                    execute(args, reply);
+                }
+                out.write(reply.toString());
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // The client went away; nothing to answer
+        }
+    }
+
+    // Method to read one request line without its terminator, null at the end of the stream. A line
+    // over MAX_LINE_LENGTH characters throws ProtocolException once that many have been read, so a
+    // client cannot make the server buffer an unbounded line.
+    static String readLine(BufferedReader in, StringBuilder line) throws IOException {
+        line.setLength(0);
+        while (true) {
+            int c = in.read();
+            if (c < 0) {
+                return line.length() == 0 ? null : line.toString();
+            }
+            if (c == '\n') {
+                break;
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new ProtocolException("Request longer than " + MAX_LINE_LENGTH + " characters");
+            }
+            line.append((char) c);
+        }
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            line.setLength(end - 1);
+        }
+        return line.toString();
+    }
+
+    // Method to answer a request the service failed on, e.g. because the journal could not be written,
+    // instead of dropping the connection without a reply
+    static void appendFailure(StringBuilder reply, String[] args, RuntimeException e) {
+        System.err.println("Request " + args[0] + " failed: " + e);
+        reply.append("ERROR UNAVAILABLE ").append(args[0].toUpperCase()).append(" could not be carried out\n");
+    }
+
+    // Method to run one request and append its reply, newline included
+    void execute(String[] args, StringBuilder reply) {
+        try {
+            switch (args[0].toUpperCase()) {
+                case "CREATE":
+                    requireArgs(args, 5);
+                    appendResult(reply, service.createAccount(joinFrom(args, 4), args[1], args[2], Money.parse(args[3])));
+                    break;
+                case "CREDIT":
+                    requireArgs(args, 4);
+                    appendResult(reply, service.credit(args[1], args[2], Money.parse(args[3]), optionalArg(args, 4)));
+                    break;
+                case "DEBIT":
+                    requireArgs(args, 4);
+                    appendResult(reply, service.debit(args[1], args[2], Money.parse(args[3]), optionalArg(args, 4)));
+                    break;
+                case "TRANSFER":
+                    requireArgs(args, 5);
+                    appendResult(reply, service.transfer(args[1], args[2], args[3], Money.parse(args[4]), optionalArg(args, 5)));
+                    break;
+                case "BALANCE":
+                    requireArgs(args, 3);
+                    BankResult result = service.checkBalance(args[1], args[2]);
+                    if (result.isOk()) {
+                        reply.append("OK ");
+                        Money.appendTo(reply, result.getAccount().getBalance());
+                        reply.append('\n');
+                    } else {
+                        appendResult(reply, result);
+                    }
+                    break;
+                case "PIN":
+                    requireArgs(args, 4);
+                    appendResult(reply, service.changePin(args[1], args[2], args[3]));
+                    break;
+                case "STATEMENT":
+                    requireArgs(args, 3);
+                    appendStatement(reply, service.statement(args[1], args[2]), parsePage(args, 3));
+                    break;
+                case "ROLE":
+                    reply.append("OK ").append(service.role()).append('\n');
+                    break;
+                default:
+                    reply.append("ERROR BAD_REQUEST Unknown command ").append(args[0]).append('\n');
+            }
+        } catch (NumberFormatException e) {
+            reply.append("ERROR INVALID_AMOUNT ").append(e.getMessage()).append('\n');
+        } catch (IllegalArgumentException e) {
+            reply.append("ERROR BAD_REQUEST ").append(e.getMessage()).append('\n');
+        } catch (RuntimeException e) {
+            appendFailure(reply, args, e);
+        }
+    }
+
+    // Method to run one two-phase commit command from a router, returns false if args is not one
+    private boolean executeClusterCommand(String[] args, StringBuilder reply) {
+        try {
+            switch (args[0].toUpperCase()) {
+                case "PREPARE_OUT":
+                    requireArgs(args, 5);
+                    appendResult(reply, service.prepareTransferOut(args[1], args[2], args[3], Money.parse(args[4]),
+                            optionalArg(args, 5), optionalArg(args, 6)));
+                    return true;
+                case "PREPARE_IN":
+                    requireArgs(args, 4);
+                    appendResult(reply, service.prepareTransferIn(args[1], args[2], Money.parse(args[3])));
+                    return true;
+                case "COMMIT":
+                    requireArgs(args, 3);
+                    appendResult(reply, service.commitTransfer(args[1], args[2]));
+                    return true;
+                case "ABORT":
+                    requireArgs(args, 3);
+                    appendResult(reply, service.abortTransfer(args[1], args[2]));
+                    return true;
+                case "PENDING":
+                    List<String> legs = service.pendingTransfers();
+                    reply.append("OK ").append(legs.size()).append('\n');
+                    for (String leg : legs) {
+                        reply.append(leg).append('\n');
+                    }
+                    return true;
+                case "PROMOTE":
+                    reply.append("OK ").append(service.promote()).append('\n');
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (IOException e) {
+            reply.append("ERROR PROMOTE_FAILED ").append(e.getMessage()).append('\n');
+        } catch (NumberFormatException e) {
+            reply.append("ERROR INVALID_AMOUNT ").append(e.getMessage()).append('\n');
+        } catch (IllegalArgumentException e) {
+            reply.append("ERROR BAD_REQUEST ").append(e.getMessage()).append('\n');
+        } catch (RuntimeException e) {
+            appendFailure(reply, args, e);
+        }
+        return true;
+    }
+
+    // Method to send the change feed from the requested sequence until the client goes away
+    private void streamEvents(String[] args, Writer out) throws IOException {
+        EventFeed feed = service.getEventFeed();
+        if (feed == null) {
+            out.write("ERROR BAD_REQUEST This server keeps no journal\n");
+            return;
+        }
+        EventFeed.Subscription subscription;
+        try {
+            subscription = feed.subscribe(args.length > 1 ? Long.parseLong(args[1]) : 0);
+        } catch (IOException e) {
+            out.write("ERROR TOO_OLD " + e.getMessage() + "\n");
+            return;
+        } catch (IllegalArgumentException e) {
+            out.write("ERROR BAD_REQUEST " + e.getMessage() + "\n");
+            return;
+        }
+        out.write("OK " + subscription.getNext() + "\n");
+        out.flush();
+        StringBuilder lines = new StringBuilder(64 * EVENT_BATCH);
+        while (running) {
+            lines.setLength(0);
+            int sent;
+            try {
+                sent = subscription.poll(EVENT_BATCH, EVENT_HEARTBEAT_MILLIS, event -> {
+                    lines.append("EVENT ");
+                    event.appendTo(lines);
+                    lines.append('\n');
+                });
+            } catch (IOException e) {
+                out.write(lines + "ERROR TOO_OLD " + e.getMessage() + "\n");
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (sent == 0) {
+                lines.append("HEARTBEAT ").append(feed.getPublished()).append('\n');
+            }
+            out.write(lines.toString());
+            out.flush();
+        }
+    }
+
+    private void appendStatement(StringBuilder reply, BankResult result, int page) {
+        if (!result.isOk()) {
+            appendResult(reply, result);
+            return;
+        }
+        StatementCursor cursor = new StatementCursor(result.getAccount().getTransactions(), Long.MIN_VALUE, Long.MAX_VALUE);
+        for (int i = 1; i < page && cursor.hasMore(); i++) {
+            cursor.skipPage(STATEMENT_PAGE_SIZE);
+        }
+        String lines = service.statementPage(cursor, STATEMENT_PAGE_SIZE);
+        int count = 0;
+        for (int i = 0; i < lines.length(); i++) {
+            if (lines.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        reply.append("OK ").append(count).append(' ').append(cursor.hasMore() ? 1 : 0).append('\n').append(lines);
+    }
+
+    private static void appendResult(StringBuilder reply, BankResult result) {
+        if (result.isOk()) {
+            reply.append("OK ");
+        } else {
+            reply.append("ERROR ").append(result.getStatus()).append(' ');
+        }
+        reply.append(result.getMessage()).append('\n');
+    }
+
+    private static void requireArgs(String[] args, int count) {
+        if (args.length < count) {
+            throw new IllegalArgumentException("Missing arguments for " + args[0]);
+        }
+    }
+
+    static String optionalArg(String[] args, int index) {
+        return args.length > index ? args[index] : null;
+    }
+
+    // Method to read an optional statement page number, counted from 1; a bad one is a bad request, not a bad amount
+    static int parsePage(String[] args, int index) {
+        if (args.length <= index) {
+            return 1;
+        }
+        try {
+            int page = Integer.parseInt(args[index]);
+            if (page >= 1) {
+                return page;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Page must be a whole number from 1, got " + args[index]);
+    }
+
+    private static String joinFrom(String[] args, int start) {
+        StringBuilder sb = new StringBuilder(args[start]);
+        for (int i = start + 1; i < args.length; i++) {
+            sb.append(' ').append(args[i]);
+        }
+        return sb.toString();
+    }
+
+    // Server mode: BankServer [port], port also from -Dbank.server.port (default 7070)
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("bank.server.port", 7070);
+        BankService service = BankService.open(Runtime.getRuntime().availableProcessors());
+        System.out.println(service.getStartupReport());
+        BankServer server = new BankServer(service, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(service::shutdown));
+        System.out.println("Bank server listening on port " + server.getPort());
+        server.serve();
+    }
+}
@@ -0,0 +1,1137 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// UI-independent transaction engine; every method is safe to call from any thread.
+// Each change is applied and journaled under the account's monitor, so the journal
+// order matches the order changes were applied, and the caller only gets its result
+// once the journal batch holding the change is on disk.
+//
+// A service can also run as a read replica of another one, applying the journal records
+// the primary ships to it (see ReplicationServer and ReplicaClient). A replica refuses
+// every change, and refuses reads too while it is further behind than allowed, until it
+// is promoted to take over from a primary that has gone away.
+class BankService {
+    private static final long INSUFFICIENT = -1;
+    private static final long OVERFLOW = -2;
+    // Returned by the batch job operations when they leave an account unchanged
+    static final long NOT_POSTED = -3;
+    // Basis points per unit times days per year
+    private static final BigInteger DAILY_INTEREST_DIVISOR = BigInteger.valueOf(10_000L * 365);
+    private static final String CREDITED = "Amount credited successfully!";
+    private static final String DEBITED = "Amount debited successfully!";
+    private static final String TRANSFERRED = "Amount transferred successfully!";
+    // Answer to a leg prepared for BankRouter, which tells it apart from a keyed repeat's answer
+    static final String PREPARED = "Transfer prepared.";
+    // Longest account holder name accepted when an account is created
+    static final int MAX_NAME_LENGTH = 100;
+
+    private final AccountRegistry registry;
+    private final Journal journal;
+    private final SnapshotStore snapshots;
+    private final TransactionLedger ledger;
+    private final ExecutorService executor;
+    private final Object snapshotLock = new Object();
+    // Transfer references when there is no journal sequence to use
+    private final AtomicLong transferReferences = new AtomicLong();
+    private final Metrics metrics;
+    private final PinAuthenticator authenticator = PinAuthenticator.fromSystemProperties();
+    // Screens debits and transfers; no rules unless -Dbank.fraud.rules is set
+    private final FraudRules fraudRules = FraudRules.fromSystemProperties();
+    // Idle timeout from -Dbank.session.idleSeconds (default 600), capacity from -Dbank.session.maxSessions (100000)
+    private final SessionStore sessions = new SessionStore(Long.getLong("bank.session.idleSeconds", 600) * 1000,
+            Integer.getInteger("bank.session.maxSessions", 100_000));
+    private ScheduledExecutorService snapshotScheduler;
+    // Null for a service without a data directory
+    private final BatchJobs jobs;
+    // Results of recent credits, debits and transfers by the client's idempotency key
+    private final IdempotencyStore<BankResult> idempotency;
+    private long jobCheckSeconds;
+    // What open() recovered and started, for the entry point to show
+    private final List<String> startupReport = new ArrayList<>();
+    // Set while following a primary
+    private volatile ReplicaClient replica;
+    private int replicationPort = -1;
+    private ReplicationServer replication;
+    // Feed of every durable journal record, null without a journal
+    private EventFeed events;
+
+    // In-memory only service with no journal and no batch jobs, for tools and benchmarks
+    public BankService(AccountRegistry registry, int threads) {
+        this(registry, null, null, TransactionLedger.inMemory(), newIdempotencyStore(), null, threads);
+    }
+
+    // The idempotency store holds the keys recovered with the registry; batch jobs keep their
+    // checkpoints in jobsDirectory, and there are none without one
+    public BankService(AccountRegistry registry, Journal journal, SnapshotStore snapshots, TransactionLedger ledger,
+            IdempotencyStore<BankResult> idempotency, Path jobsDirectory, int threads) {
+        this.registry = registry;
+        this.journal = journal;
+        this.snapshots = snapshots;
+        this.ledger = ledger;
+        this.idempotency = idempotency;
+        this.metrics = new Metrics(registry::size, idempotency::getRepeats);
+        // The jobs only hold on to the service until they are started
+        this.jobs = jobsDirectory == null ? null : BatchJobs.fromSystemProperties(this, jobsDirectory);
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "bank-service-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // Method to recover the accounts from the latest snapshot plus the journal after it, and start
+    // the service. Configured with -Dbank.dataDir, -Dbank.journal.windowMillis, -Dbank.journal.maxBatch
+    // -Dbank.snapshot.intervalSeconds (0 turns periodic snapshots off), -Dbank.ledger.segmentMB,
+    // -Dbank.ledger.hotSegments (full ledger segments kept hot, older ones are compacted after a
+    // snapshot; default 2, 0 turns compaction off),
+    // -Dbank.metrics.port (serves /metrics on localhost when set, 0 picks a free port),
+    // -Dbank.jobs.checkSeconds (how often batch jobs are checked for due runs, 0 turns them off),
+    // -Dbank.replication.port (ships the journal to replicas when set), -Dbank.replica.of
+    // (host:port of a primary's replication port to follow as a read replica; an empty data
+    // directory is first seeded with a snapshot from it), -Dbank.idempotency.windowSeconds
+    // and -Dbank.idempotency.maxKeys (see newIdempotencyStore), the -Dbank.fraud.* rules
+    // settings (see FraudRules.fromSystemProperties) and -Dbank.events.ringSize (see EventFeed).
+    public static BankService open(int threads) throws IOException {
+        Path dataDir = Paths.get(System.getProperty("bank.dataDir", "data"));
+        long windowMillis = Long.getLong("bank.journal.windowMillis", 1);
+        int maxBatch = Integer.getInteger("bank.journal.maxBatch", 4096);
+        long snapshotSeconds = Long.getLong("bank.snapshot.intervalSeconds", 300);
+        int ledgerSegmentMB = Integer.getInteger("bank.ledger.segmentMB", 64);
+        if (ledgerSegmentMB < 1 || ledgerSegmentMB > 2047) {
+            // A segment is mapped as one buffer, which holds less than 2 GB
+            throw new IllegalArgumentException("-Dbank.ledger.segmentMB must be 1 to 2047, got " + ledgerSegmentMB);
+        }
+        int ledgerSegmentBytes = ledgerSegmentMB << 20;
+        int hotSegments = Integer.getInteger("bank.ledger.hotSegments", 2);
+        int metricsPort = Integer.getInteger("bank.metrics.port", -1);
+        long jobCheckSeconds = Long.getLong("bank.jobs.checkSeconds", 60);
+        int replicationPort = Integer.getInteger("bank.replication.port", -1);
+        String primary = System.getProperty("bank.replica.of");
+        String seeded = null;
+        if (primary != null) {
+            seeded = ReplicaClient.bootstrapIfEmpty(primary, dataDir, ledgerSegmentBytes);
+        }
+
+        long start = System.nanoTime();
+        AccountRegistry registry = new AccountRegistry();
+        TransactionLedger ledger = TransactionLedger.open(dataDir, ledgerSegmentBytes, 0, hotSegments);
+        SnapshotStore snapshots = new SnapshotStore(dataDir);
+        IdempotencyStore<BankResult> idempotency = newIdempotencyStore();
+        long coveredSeq = snapshots.loadLatest(registry, ledger, idempotency);
+        long snapshotLoaded = System.nanoTime();
+
+        long[] replayed = new long[1];
+        Journal journal = Journal.open(dataDir, coveredSeq + 1, windowMillis, maxBatch, entry -> {
+            replay(registry, ledger, idempotency, entry);
+            replayed[0]++;
+        });
+        long journalReplayed = System.nanoTime();
+        registry.indexNames();
+        long end = System.nanoTime();
+
+        BankService service = new BankService(registry, journal, snapshots, ledger, idempotency, dataDir.resolve("jobs"), threads);
+        if (seeded != null) {
+            service.startupReport.add(seeded);
+        }
+        service.startupReport.add(String.format("Recovered %d accounts in %d ms (snapshot through #%d in %d ms, %d journal records in %d ms, name index in %d ms)",
+                registry.size(), TimeUnit.NANOSECONDS.toMillis(end - start), coveredSeq,
+                TimeUnit.NANOSECONDS.toMillis(snapshotLoaded - start), replayed[0],
+                TimeUnit.NANOSECONDS.toMillis(journalReplayed - snapshotLoaded), TimeUnit.NANOSECONDS.toMillis(end - journalReplayed)));
+        service.events = EventFeed.attach(journal);
+        if (snapshotSeconds > 0) {
+            service.scheduleSnapshots(snapshotSeconds);
+        }
+        service.jobCheckSeconds = jobCheckSeconds;
+        service.replicationPort = replicationPort;
+        if (primary != null) {
+            service.replica = ReplicaClient.fromSystemProperties(service, primary);
+            service.replica.start();
+            service.startupReport.add("Following " + primary + " as a read replica");
+        } else {
+            service.startPrimary();
+            if (service.replication != null) {
+                service.startupReport.add("Shipping the journal to replicas on port " + service.replication.getPort());
+            }
+        }
+        service.metrics.registerMBean();
+        if (metricsPort >= 0) {
+            service.startupReport.add("Metrics available at http://localhost:" + service.metrics.startHttpEndpoint(metricsPort) + "/metrics");
+        }
+        return service;
+    }
+
+    // Method to describe what open() recovered and started, one line each, for the entry point to print
+    public String getStartupReport() {
+        return String.join("\n", startupReport);
+    }
+
+    // Idempotency keys are kept for -Dbank.idempotency.windowSeconds (default 600), at most
+    // -Dbank.idempotency.maxKeys (default 200000) of them. Snapshots carry the keys still in
+    // the window, so a restart recovers them whatever the snapshot interval.
+    private static IdempotencyStore<BankResult> newIdempotencyStore() {
+        return new IdempotencyStore<>(Long.getLong("bank.idempotency.windowSeconds", 600) * 1000,
+                Integer.getInteger("bank.idempotency.maxKeys", 200_000), BankResult::isOk,
+                message -> BankResult.error(BankResult.Status.INVALID_KEY, message));
+    }
+
+    // Method to apply one recovered journal record to the registry. Records the snapshot
+    // already reflects (at or below the account's last journal sequence) are skipped. The
+    // idempotency keys of credits, debits and transfers go back into the store either way.
+    static void replay(AccountRegistry registry, TransactionLedger ledger, IdempotencyStore<BankResult> idempotency, Journal.Entry entry) {
+        if (entry.type == Journal.CREATE_ACCOUNT) {
+            BankAccount account = new BankAccount(entry.name, entry.accountNumber, entry.pin, entry.amount, ledger);
+            account.setLastJournalSeq(entry.seq);
+            registry.restore(account);
+            return;
+        }
+        if (!entry.pin.isEmpty() && (entry.type == Journal.CREDIT || entry.type == Journal.DEBIT || entry.type == Journal.TRANSFER
+                || entry.type == Journal.COMMIT_TRANSFER)) {
+            rememberKey(registry, idempotency, entry);
+        }
+        if (entry.type == Journal.TRANSFER) {
+            // Each leg is skipped on its own if the snapshot already holds that account's side
+            replayTransferLeg(registry, entry, entry.accountNumber, false);
+            replayTransferLeg(registry, entry, entry.name, true);
+            return;
+        }
+        BankAccount account = registry.findAccount(entry.accountNumber);
+        if (account == null) {
+            throw new IllegalStateException("Journal record " + entry.seq + " refers to unknown account " + entry.accountNumber);
+        }
+        if (entry.seq <= account.getLastJournalSeq()) {
+            return;
+        }
+        account.setLastJournalSeq(entry.seq);
+        switch (entry.type) {
+            case Journal.CREDIT:
+                account.credit(entry.amount, entry.timestamp);
+                break;
+            case Journal.DEBIT:
+                if (!account.tryDebit(entry.amount, entry.timestamp)) {
+                    throw new IllegalStateException("Journal record " + entry.seq + " overdraws account " + entry.accountNumber);
+                }
+                break;
+            case Journal.CHANGE_PIN:
+                account.setPinHash(entry.pin);
+                break;
+            case Journal.INTEREST:
+                account.accrueInterest(entry.amount, entry.timestamp, Long.parseLong(entry.name));
+                break;
+            case Journal.FEE:
+                if (!account.chargeFee(entry.amount, entry.timestamp, Long.parseLong(entry.name))) {
+                    throw new IllegalStateException("Journal record " + entry.seq + " overdraws account " + entry.accountNumber);
+                }
+                break;
+            case Journal.PREPARE_TRANSFER:
+                if (!account.prepareTransfer(entry.name, entry.amount, entry.pin.isEmpty() ? null : entry.pin)) {
+                    throw new IllegalStateException("Journal record " + entry.seq + " overdraws account " + entry.accountNumber);
+                }
+                break;
+            case Journal.COMMIT_TRANSFER:
+                account.commitTransfer(entry.name, entry.timestamp, entry.seq);
+                break;
+            case Journal.ABORT_TRANSFER:
+                account.abortTransfer(entry.name, entry.timestamp);
+                break;
+            default:
+                throw new IllegalStateException("Unknown journal record type " + entry.type);
+        }
+    }
+
+    private static void rememberKey(AccountRegistry registry, IdempotencyStore<BankResult> idempotency, Journal.Entry entry) {
+        BankAccount account = registry.findAccount(entry.accountNumber);
+        if (entry.type == Journal.CREDIT) {
+            idempotency.remember(entry.accountNumber, entry.pin, creditRequest(entry.amount), entry.timestamp, BankResult.ok(account, CREDITED));
+        } else if (entry.type == Journal.DEBIT) {
+            idempotency.remember(entry.accountNumber, entry.pin, debitRequest(entry.amount), entry.timestamp, BankResult.ok(account, DEBITED));
+        } else if (entry.type == Journal.COMMIT_TRANSFER) {
+            rememberTransferKey(idempotency, account, entry.pin, entry.timestamp);
+        } else {
+            idempotency.remember(entry.accountNumber, entry.pin, transferRequest(entry.name, entry.amount), entry.timestamp, BankResult.ok(account, TRANSFERRED));
+        }
+    }
+
+    // Method to keep the answer of a keyed transfer with another shard once its outgoing leg, prepared
+    // with "<key> <request>", has committed
+    private static void rememberTransferKey(IdempotencyStore<BankResult> idempotency, BankAccount account, String keyed, long timestamp) {
+        int space = keyed.indexOf(' ');
+        idempotency.remember(account.getAccountNumber(), keyed.substring(0, space), keyed.substring(space + 1), timestamp,
+                BankResult.ok(account, TRANSFERRED));
+    }
+
+    // What a keyed request asked for, so a key reused for something else is refused
+    private static String creditRequest(long amount) {
+        return "CREDIT " + amount;
+    }
+
+    private static String debitRequest(long amount) {
+        return "DEBIT " + amount;
+    }
+
+    private static String transferRequest(String toAccountNumber, long amount) {
+        return "TRANSFER " + toAccountNumber + " " + amount;
+    }
+
+    private static void replayTransferLeg(AccountRegistry registry, Journal.Entry entry, String accountNumber, boolean incoming) {
+        BankAccount account = registry.findAccount(accountNumber);
+        if (account == null) {
+            throw new IllegalStateException("Journal record " + entry.seq + " refers to unknown account " + accountNumber);
+        }
+        if (entry.seq <= account.getLastJournalSeq()) {
+            return;
+        }
+        account.setLastJournalSeq(entry.seq);
+        if (incoming) {
+            account.transferIn(entry.amount, entry.timestamp, entry.seq);
+        } else {
+            account.transferOut(entry.amount, entry.timestamp, entry.seq);
+        }
+    }
+
+    // Method to start what only the primary runs: the batch jobs and shipping the journal to replicas
+    private void startPrimary() throws IOException {
+        if (jobs != null && jobCheckSeconds > 0) {
+            jobs.start(jobCheckSeconds);
+        }
+        if (replicationPort >= 0) {
+            replication = new ReplicationServer(this, replicationPort);
+            replication.start();
+        }
+    }
+
+    // Method to apply a record shipped from the primary: journal it here under the primary's
+    // sequence number, then replay it as recovery would. Only the replica's follower calls this.
+    void applyReplicated(byte[] payload) {
+        Journal.Entry entry = Journal.decode(payload);
+        journal.appendReplicated(payload);
+        replay(registry, ledger, idempotency, entry);
+    }
+
+    // Method to stop following the primary and start taking changes, for when the primary has
+    // failed for good. Every record received before this is kept; the journal carries on from there.
+    public String promote() throws IOException {
+        ReplicaClient following = replica;
+        if (following == null) {
+            return "Already the primary";
+        }
+        following.stop();
+        replica = null;
+        startPrimary();
+        return "Promoted to primary at journal record #" + (journal.nextSeq() - 1)
+                + (replication == null ? "" : ", shipping the journal to replicas on port " + replication.getPort());
+    }
+
+    // True while following a primary; batch tools that post through applyCredit and friends check this first
+    public boolean isReadOnly() {
+        return replica != null;
+    }
+
+    // Method to describe whether this is the primary or a replica, and how far behind a replica is
+    public String role() {
+        ReplicaClient following = replica;
+        if (following == null) {
+            return "PRIMARY at #" + (journal == null ? 0 : journal.durableSeq())
+                    + (replication == null ? "" : ", " + replication.getFollowers() + " replica(s) following");
+        }
+        return "REPLICA of " + following.getPrimary() + " at #" + following.getAppliedSeq()
+                + ", " + following.getStaleMillis() + " ms stale";
+    }
+
+    // Method to take a snapshot and copy it, with the ledger records it points to, to the stream
+    // before a later snapshot can replace it; used to seed a new replica
+    void copySnapshotTo(DataOutputStream out) throws IOException {
+        synchronized (snapshotLock) {
+            takeSnapshot();
+            long highWaterMark = snapshots.copyLatestTo(out);
+            out.writeLong(highWaterMark);
+            ledger.copyTo(out, highWaterMark);
+        }
+    }
+
+    Journal getJournal() {
+        return journal;
+    }
+
+    TransactionLedger getLedger() {
+        return ledger;
+    }
+
+    public AccountRegistry getRegistry() {
+        return registry;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    // The batch jobs, null for a service without a data directory
+    public BatchJobs getJobs() {
+        return jobs;
+    }
+
+    // The change feed of account events, null for a service without a journal
+    public EventFeed getEventFeed() {
+        return events;
+    }
+
+    public FraudRules getFraudRules() {
+        return fraudRules;
+    }
+
+    private void scheduleSnapshots(long intervalSeconds) {
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                takeSnapshot();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Snapshot failed: " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    // Method to write a snapshot while operations keep running, then drop the journal segments it
+    // covers. Returns the number of accounts written.
+    public long takeSnapshot() throws IOException {
+        if (journal == null) {
+            throw new IllegalStateException("Snapshots need a journal");
+        }
+        synchronized (snapshotLock) {
+            long start = System.nanoTime();
+            long firstSeq = journal.rotate();
+            journal.awaitDurable(firstSeq - 1);
+            // Ledger segments to compact once this snapshot is in place; it marks the tails it writes
+            TransactionLedger.Compaction compaction = ledger.planCompaction();
+            // Listed after the wait, so every keyed change the snapshot covers is in the list
+            long count = snapshots.write(registry.getAccounts(), ledger, firstSeq - 1, compaction, idempotency.kept());
+            journal.deleteSegmentsBefore(firstSeq);
+            snapshots.deleteOlderThan(firstSeq - 1);
+            if (compaction != null) {
+                ledger.compactInBackground(compaction, registry.getAccounts(),
+                        segmentStart -> metrics.record(Metrics.Operation.LEDGER_COMPACTION, segmentStart));
+            }
+            metrics.record(Metrics.Operation.SNAPSHOT, start);
+            return count;
+        }
+    }
+
+    // Method to run an operation on the service pool instead of the caller's thread
+    public CompletableFuture<BankResult> submit(Supplier<BankResult> operation) {
+        return CompletableFuture.supplyAsync(operation, executor);
+    }
+
+    public BankResult createAccount(String name, String accountNumber, String pin, long balance) {
+        long start = System.nanoTime();
+        return metrics.record(Metrics.Operation.CREATE_ACCOUNT, start, performCreateAccount(name, accountNumber, pin, balance));
+    }
+
+    private BankResult performCreateAccount(String name, String accountNumber, String pin, long balance) {
+        BankResult refused = checkWritable();
+        if (refused != null) {
+            return refused;
+        }
+        if (balance < 0) {
+            return BankResult.error(BankResult.Status.INVALID_AMOUNT, "Invalid initial balance.");
+        }
+        if (name.length() > MAX_NAME_LENGTH) {
+            return BankResult.error(BankResult.Status.INVALID_NAME, "Names must be at most " + MAX_NAME_LENGTH + " characters.");
+        }
+        if (registry.findAccount(accountNumber) != null) {
+            return duplicateAccount();
+        }
+        // Hashing is the slow part, so it happens before the account is locked
+        String pinHash = authenticator.hash(pin);
+        BankAccount account = new BankAccount(name, accountNumber, pinHash, balance, ledger);
+        long seq = 0;
+        synchronized (account) {
+            if (!registry.register(account)) {
+                return duplicateAccount();
+            }
+            if (journal != null) {
+                // The number must be taken before the record is queued; if the journal refuses it,
+                // the account is dropped again while its monitor still keeps everyone else out
+                try {
+                    seq = journal.appendCreateAccount(System.currentTimeMillis(), accountNumber, name, pinHash, balance);
+                } catch (RuntimeException e) {
+                    registry.unregister(account);
+                    throw e;
+                }
+                account.setLastJournalSeq(seq);
+            }
+        }
+        authenticator.remember(accountNumber, pinHash, pin);
+        awaitDurable(seq);
+        return BankResult.ok(account, "Account created successfully!");
+    }
+
+    public BankResult credit(String accountNumber, String pin, long amount) {
+        return credit(accountNumber, pin, amount, null);
+    }
+
+    // Method to credit at most once per idempotency key: a repeat within the window gets the first result back
+    public BankResult credit(String accountNumber, String pin, long amount, String idempotencyKey) {
+        long start = System.nanoTime();
+        BankResult auth = authenticate(accountNumber, pin);
+        return metrics.record(Metrics.Operation.CREDIT, start, auth.isOk() ? performCredit(auth.getAccount(), amount, idempotencyKey) : auth);
+    }
+
+    public BankResult credit(SessionStore.Session session, long amount) {
+        return credit(session, amount, null);
+    }
+
+    public BankResult credit(SessionStore.Session session, long amount, String idempotencyKey) {
+        long start = System.nanoTime();
+        BankResult expired = checkSession(session);
+        return metrics.record(Metrics.Operation.CREDIT, start, expired == null ? performCredit(session.getAccount(), amount, idempotencyKey) : expired);
+    }
+
+    private BankResult performCredit(BankAccount account, long amount, String idempotencyKey) {
+        BankResult refused = checkWritable();
+        if (refused != null) {
+            return refused;
+        }
+        if (!isValidAmount(amount)) {
+            return invalidAmount();
+        }
+        return idempotency.execute(account.getAccountNumber(), idempotencyKey, creditRequest(amount), () -> {
+            long seq;
+            try {
+                seq = applyCredit(account, amount, idempotencyKey);
+            } catch (ArithmeticException e) {
+                return invalidAmount();
+            }
+            awaitDurable(seq);
+            return BankResult.ok(account, CREDITED);
+        });
+    }
+
+    public BankResult debit(String accountNumber, String pin, long amount) {
+        return debit(accountNumber, pin, amount, null);
+    }
+
+    // Method to debit at most once per idempotency key: a repeat within the window gets the first result back
+    public BankResult debit(String accountNumber, String pin, long amount, String idempotencyKey) {
+        long start = System.nanoTime();
+        BankResult auth = authenticate(accountNumber, pin);
+        return metrics.record(Metrics.Operation.DEBIT, start, auth.isOk() ? performDebit(auth.getAccount(), amount, idempotencyKey) : auth);
+    }
+
+    public BankResult debit(SessionStore.Session session, long amount) {
+        return debit(session, amount, null);
+    }
+
+    public BankResult debit(SessionStore.Session session, long amount, String idempotencyKey) {
+        long start = System.nanoTime();
+        BankResult expired = checkSession(session);
+        return metrics.record(Metrics.Operation.DEBIT, start, expired == null ? performDebit(session.getAccount(), amount, idempotencyKey) : expired);
+    }
+
+    private BankResult performDebit(BankAccount account, long amount, String idempotencyKey) {
+        BankResult refused = checkWritable();
+        if (refused != null) {
+            return refused;
+        }
+        if (!isValidAmount(amount)) {
+            return invalidAmount();
+        }
+        return idempotency.execute(account.getAccountNumber(), idempotencyKey, debitRequest(amount), () -> {
+            String blocked = fraudRules.screen(account, amount);
+            if (blocked != null) {
+                return blocked(blocked);
+            }
+            long seq = applyDebit(account, amount, idempotencyKey);
+            if (seq == INSUFFICIENT) {
+                return BankResult.error(BankResult.Status.INSUFFICIENT_BALANCE, "Insufficient balance.");
+            }
+            awaitDurable(seq);
+            return BankResult.ok(account, DEBITED);
+        });
+    }
+
+    // Method to credit a resolved account and journal it without waiting for the disk. Returns the
+    // journal sequence to hand to awaitDurable; throws ArithmeticException if the balance would overflow.
+    // The idempotency key, if any, is journaled with it. Like every change here, the record is queued
+    // before the account changes, so a record the journal refuses leaves the account as it was.
+    long applyCredit(BankAccount account, long amount, String idempotencyKey) {
+        synchronized (account) {
+            long timestamp = System.currentTimeMillis();
+            if (amount > account.getCreditHeadroom()) {
+                throw new ArithmeticException("long overflow");
+            }
+            long seq = 0;
+            if (journal != null) {
+                seq = journal.appendCredit(timestamp, account.getAccountNumber(), amount, idempotencyKey);
+                account.setLastJournalSeq(seq);
+            }
+            account.credit(amount, timestamp);
+            return seq;
+        }
+    }
+
+    // Method to debit a resolved account and journal it without waiting for the disk. Returns the
+    // journal sequence to hand to awaitDurable, or INSUFFICIENT if funds are insufficient.
+    long applyDebit(BankAccount account, long amount, String idempotencyKey) {
+        synchronized (account) {
+            long timestamp = System.currentTimeMillis();
+            if (account.getAvailableBalance() < amount) {
+                return INSUFFICIENT;
+            }
+            long seq = 0;
+            if (journal != null) {
+                seq = journal.appendDebit(timestamp, account.getAccountNumber(), amount, idempotencyKey);
+                account.setLastJournalSeq(seq);
+            }
+            account.tryDebit(amount, timestamp);
+            return seq;
+        }
+    }
+
+    // Method to post a day's interest at the given annual rate (in basis points) for a batch job run, and
+    // journal it without waiting for the disk. The interest is worked out from the balance under the
+    // account's monitor. Returns the journal sequence (0 without a journal), or NOT_POSTED.
+    long applyInterest(BankAccount account, long annualBasisPoints, long run) {
+        synchronized (account) {
+            long balance = account.getBalance();
+            long amount = balance <= Long.MAX_VALUE / Math.max(1, annualBasisPoints)
+                    ? balance * annualBasisPoints / DAILY_INTEREST_DIVISOR.longValue()
+                    : BigInteger.valueOf(balance).multiply(BigInteger.valueOf(annualBasisPoints)).divide(DAILY_INTEREST_DIVISOR).longValue();
+            long timestamp = System.currentTimeMillis();
+            if (amount <= 0 || run <= account.getLastInterestRun()) {
+                return NOT_POSTED;
+            }
+            if (amount > account.getCreditHeadroom()) {
+                throw new ArithmeticException("long overflow");
+            }
+            long seq = 0;
+            if (journal != null) {
+                seq = journal.appendInterest(timestamp, account.getAccountNumber(), amount, run);
+                account.setLastJournalSeq(seq);
+            }
+            account.accrueInterest(amount, timestamp, run);
+            return seq;
+        }
+    }
+
+    // Method to charge a batch job's fee, capped at the balance, and journal it without waiting
+    // for the disk. Returns the journal sequence (0 without a journal), or NOT_POSTED.
+    long applyFee(BankAccount account, long fee, long run) {
+        synchronized (account) {
+            long timestamp = System.currentTimeMillis();
+            long amount = Math.min(fee, account.getAvailableBalance());
+            if (amount <= 0 || run <= account.getLastFeeRun()) {
+                return NOT_POSTED;
+            }
+            long seq = 0;
+            if (journal != null) {
+                seq = journal.appendFee(timestamp, account.getAccountNumber(), amount, run);
+                account.setLastJournalSeq(seq);
+            }
+            account.chargeFee(amount, timestamp, run);
+            return seq;
+        }
+    }
+
+    // Method to move money between two accounts as one atomic, journaled step
+    public BankResult transfer(String fromAccountNumber, String pin, String toAccountNumber, long amount) {
+        return transfer(fromAccountNumber, pin, toAccountNumber, amount, null);
+    }
+
+    // Method to transfer at most once per idempotency key: a repeat within the window gets the first result back
+    public BankResult transfer(String fromAccountNumber, String pin, String toAccountNumber, long amount, String idempotencyKey) {
+        long start = System.nanoTime();
+        BankResult auth = authenticate(fromAccountNumber, pin);
+        return metrics.record(Metrics.Operation.TRANSFER, start,
+                auth.isOk() ? performTransfer(auth.getAccount(), toAccountNumber, amount, idempotencyKey) : auth);
+    }
+
+    public BankResult transfer(SessionStore.Session session, String toAccountNumber, long amount) {
+        return transfer(session, toAccountNumber, amount, null);
+    }
+
+    public BankResult transfer(SessionStore.Session session, String toAccountNumber, long amount, String idempotencyKey) {
+        long start = System.nanoTime();
+        BankResult expired = checkSession(session);
+        return metrics.record(Metrics.Operation.TRANSFER, start,
+                expired == null ? performTransfer(session.getAccount(), toAccountNumber, amount, idempotencyKey) : expired);
+    }
+
+    private BankResult performTransfer(BankAccount from, String toAccountNumber, long amount, String idempotencyKey) {
+        BankResult refused = checkWritable();
+        if (refused != null) {
+            return refused;
+        }
+        BankAccount to = registry.findAccount(toAccountNumber);
+        if (to == null) {
+            return BankResult.error(BankResult.Status.INVALID_TARGET, "Target account not found.");
+        }
+        if (to == from) {
+            return BankResult.error(BankResult.Status.INVALID_TARGET, "Cannot transfer to the same account.");
+        }
+        if (!isValidAmount(amount)) {
+            return invalidAmount();
+        }
+        return idempotency.execute(from.getAccountNumber(), idempotencyKey, transferRequest(toAccountNumber, amount), () -> {
+            String blocked = fraudRules.screen(from, amount);
+            if (blocked != null) {
+                return blocked(blocked);
+            }
+            long seq = applyTransfer(from, to, amount, idempotencyKey);
+            if (seq == INSUFFICIENT) {
+                return BankResult.error(BankResult.Status.INSUFFICIENT_BALANCE, "Insufficient balance.");
+            }
+            if (seq == OVERFLOW) {
+                return invalidAmount();
+            }
+            awaitDurable(seq);
+            return BankResult.ok(from, TRANSFERRED);
+        });
+    }
+
+    // Method to apply and journal a transfer without waiting for the disk. Both monitors are
+    // taken in account number order, so two transfers over the same pair in opposite directions
+    // cannot deadlock. Returns the journal sequence, INSUFFICIENT or OVERFLOW.
+    long applyTransfer(BankAccount from, BankAccount to, long amount, String idempotencyKey) {
+        boolean fromFirst = from.getAccountNumber().compareTo(to.getAccountNumber()) < 0;
+        BankAccount first = fromFirst ? from : to;
+        BankAccount second = fromFirst ? to : from;
+        synchronized (first) {
+            synchronized (second) {
+                if (from.getAvailableBalance() < amount) {
+                    return INSUFFICIENT;
+                }
+                if (amount > to.getCreditHeadroom()) {
+                    return OVERFLOW;
+                }
+                long timestamp = System.currentTimeMillis();
+                long seq = 0;
+                long reference;
+                if (journal != null) {
+                    seq = journal.appendTransfer(timestamp, from.getAccountNumber(), to.getAccountNumber(), amount, idempotencyKey);
+                    from.setLastJournalSeq(seq);
+                    to.setLastJournalSeq(seq);
+                    reference = seq;
+                } else {
+                    reference = transferReferences.incrementAndGet();
+                }
+                from.transferOut(amount, timestamp, reference);
+                to.transferIn(amount, timestamp, reference);
+                return seq;
+            }
+        }
+    }
+
+    // Two-phase commit participant for transfers between accounts on different shards, driven by
+    // BankRouter. Both legs are prepared first: the outgoing one authenticates and holds the funds,
+    // the incoming one checks that the account exists. Once the router has durably decided, each
+    // leg is committed or aborted; deciding a leg that is no longer pending does nothing, so
+    // decisions can be resent after a failure. Each step is durable before it is answered.
+    // An abort is journaled even for a leg that was never prepared, and a prepare arriving after
+    // it is refused: a router that timed out waiting for a prepare aborts on another connection,
+    // and the prepare may still be on its way. Such a late prepare cannot outlive the shard
+    // process it was sent to, so aborted legs are not kept in snapshots.
+    //
+    // The router passes the target account and the client's idempotency key, if any, with the
+    // outgoing leg. The key is kept here like that of a transfer within the shard once the leg
+    // commits, so a retry is answered with the first reply instead of PREPARED whichever router
+    // it comes through; one that arrives while the first leg is still undecided is refused.
+    public BankResult prepareTransferOut(String transactionId, String accountNumber, String pin, long amount,
+                                         String toAccountNumber, String idempotencyKey) {
+        long start = System.nanoTime();
+        BankResult auth = authenticate(accountNumber, pin);
+        if (!auth.isOk()) {
+            return metrics.record(Metrics.Operation.TRANSFER_PREPARE, start, auth);
+        }
+        if (idempotencyKey != null && (idempotencyKey.isEmpty() || idempotencyKey.length() > IdempotencyStore.MAX_KEY_LENGTH)) {
+            return metrics.record(Metrics.Operation.TRANSFER_PREPARE, start, BankResult.error(BankResult.Status.INVALID_KEY,
+                    "Idempotency keys must be 1 to " + IdempotencyStore.MAX_KEY_LENGTH + " characters."));
+        }
+        String keyed = idempotencyKey == null ? null : idempotencyKey + " " + transferRequest(toAccountNumber, amount);
+        return metrics.record(Metrics.Operation.TRANSFER_PREPARE, start, performPrepare(auth.getAccount(), transactionId, -amount, keyed));
+    }
+
+    public BankResult prepareTransferIn(String transactionId, String accountNumber, long amount) {
+        long start = System.nanoTime();
+        BankAccount account = registry.findAccount(accountNumber);
+        if (account == null) {
+            return metrics.record(Metrics.Operation.TRANSFER_PREPARE, start,
+                    BankResult.error(BankResult.Status.INVALID_TARGET, "Target account not found."));
+        }
+        return metrics.record(Metrics.Operation.TRANSFER_PREPARE, start, performPrepare(account, transactionId, amount, null));
+    }
+
+    // keyed is "<key> <request>" for a keyed outgoing leg, null otherwise
+    private BankResult performPrepare(BankAccount account, String transactionId, long amount, String keyed) {
+        BankResult refused = checkWritable();
+        if (refused != null) {
+            return refused;
+        }
+        if (!isValidAmount(Math.abs(amount))) {
+            return invalidAmount();
+        }
+        BankResult repeat = keyedRepeat(account, transactionId, keyed);
+        if (repeat != null) {
+            return repeat;
+        }
+        if (amount < 0) {
+            String blocked = fraudRules.screen(account, -amount);
+            if (blocked != null) {
+                return blocked(blocked);
+            }
+        }
+        long seq;
+        synchronized (account) {
+            if (account.isAbortedTransfer(transactionId)) {
+                return BankResult.error(BankResult.Status.ABORTED, "Transfer " + transactionId + " was already aborted.");
+            }
+            // Checked again under the monitor, where the first leg cannot commit in between
+            repeat = keyedRepeat(account, transactionId, keyed);
+            if (repeat != null) {
+                return repeat;
+            }
+            if (!account.canPrepareTransfer(transactionId, amount)) {
+                return amount < 0 ? BankResult.error(BankResult.Status.INSUFFICIENT_BALANCE, "Insufficient balance.") : invalidAmount();
+            }
+            seq = 0;
+            if (journal != null) {
+                seq = journal.appendPrepareTransfer(System.currentTimeMillis(), account.getAccountNumber(), transactionId, amount, keyed);
+                account.setLastJournalSeq(seq);
+            }
+            account.prepareTransfer(transactionId, amount, keyed);
+        }
+        awaitDurable(seq);
+        return BankResult.ok(account, PREPARED);
+    }
+
+    // Method to answer a keyed outgoing leg whose key was already used: with the kept reply if its
+    // transfer committed, refused if it is still undecided or was for something else. Null otherwise.
+    private BankResult keyedRepeat(BankAccount account, String transactionId, String keyed) {
+        if (keyed == null) {
+            return null;
+        }
+        int space = keyed.indexOf(' ');
+        String key = keyed.substring(0, space);
+        if (account.isTransferKeyPending(key, transactionId)) {
+            return BankResult.error(BankResult.Status.INVALID_KEY, "Idempotency key " + key + " is in use by a transfer still being decided.");
+        }
+        return idempotency.lookup(account.getAccountNumber(), key, keyed.substring(space + 1));
+    }
+
+    public BankResult commitTransfer(String transactionId, String accountNumber) {
+        return decideTransfer(transactionId, accountNumber, true);
+    }
+
+    public BankResult abortTransfer(String transactionId, String accountNumber) {
+        return decideTransfer(transactionId, accountNumber, false);
+    }
+
+    private BankResult decideTransfer(String transactionId, String accountNumber, boolean commit) {
+        long start = System.nanoTime();
+        BankResult refused = checkWritable();
+        if (refused != null) {
+            return metrics.record(Metrics.Operation.TRANSFER_DECIDE, start, refused);
+        }
+        BankAccount account = registry.findAccount(accountNumber);
+        if (account == null) {
+            return metrics.record(Metrics.Operation.TRANSFER_DECIDE, start,
+                    BankResult.error(BankResult.Status.INVALID_TARGET, "Account not found."));
+        }
+        long seq = 0;
+        synchronized (account) {
+            long timestamp = System.currentTimeMillis();
+            // A commit only matters for a pending leg; an abort also matters until it is remembered
+            boolean changes = commit ? account.isPendingTransfer(transactionId) : !account.isAbortedTransfer(transactionId);
+            String keyed = commit ? account.getTransferKey(transactionId) : null;
+            if (journal != null && changes) {
+                seq = commit ? journal.appendCommitTransfer(timestamp, accountNumber, transactionId, keyed)
+                        : journal.appendAbortTransfer(timestamp, accountNumber, transactionId);
+                account.setLastJournalSeq(seq);
+            }
+            long reference = seq > 0 ? seq : transferReferences.incrementAndGet();
+            if (commit) {
+                if (account.commitTransfer(transactionId, timestamp, reference) && keyed != null) {
+                    rememberTransferKey(idempotency, account, keyed, timestamp);
+                }
+            } else if (changes) {
+                account.abortTransfer(transactionId, timestamp);
+            }
+        }
+        awaitDurable(seq);
+        return metrics.record(Metrics.Operation.TRANSFER_DECIDE, start, BankResult.ok(account, commit ? "Transfer committed." : "Transfer aborted."));
+    }
+
+    // Method to list every undecided transfer leg as "<transaction id> <account> <amount>", for a router recovering its transfers
+    public List<String> pendingTransfers() {
+        List<String> legs = new ArrayList<>();
+        for (BankAccount account : registry.getAccounts()) {
+            for (Map.Entry<String, Long> leg : account.getPendingTransfers().entrySet()) {
+                legs.add(leg.getKey() + " " + account.getAccountNumber() + " " + Money.format(leg.getValue()));
+            }
+        }
+        return legs;
+    }
+
+    public BankResult checkBalance(String accountNumber, String pin) {
+        long start = System.nanoTime();
+        BankResult auth = authenticate(accountNumber, pin);
+        return metrics.record(Metrics.Operation.BALANCE, start, auth.isOk() ? performCheckBalance(auth.getAccount()) : auth);
+    }
+
+    public BankResult checkBalance(SessionStore.Session session) {
+        long start = System.nanoTime();
+        BankResult expired = checkSession(session);
+        return metrics.record(Metrics.Operation.BALANCE, start, expired == null ? performCheckBalance(session.getAccount()) : expired);
+    }
+
+    private BankResult performCheckBalance(BankAccount account) {
+        BankResult stale = checkFresh();
+        if (stale != null) {
+            return stale;
+        }
+        return BankResult.ok(account, "Balance: $" + Money.format(account.getBalance()));
+    }
+
+    public BankResult changePin(String accountNumber, String currentPin, String newPin) {
+        long start = System.nanoTime();
+        return metrics.record(Metrics.Operation.CHANGE_PIN, start, performChangePin(accountNumber, currentPin, newPin));
+    }
+
+    // Changing the PIN asks for the current one even within a session
+    public BankResult changePin(SessionStore.Session session, String currentPin, String newPin) {
+        long start = System.nanoTime();
+        BankResult expired = checkSession(session);
+        return metrics.record(Metrics.Operation.CHANGE_PIN, start,
+                expired == null ? performChangePin(session.getAccount().getAccountNumber(), currentPin, newPin) : expired);
+    }
+
+    private BankResult performChangePin(String accountNumber, String currentPin, String newPin) {
+        BankResult refused = checkWritable();
+        if (refused != null) {
+            return refused;
+        }
+        BankResult auth = authenticate(accountNumber, currentPin);
+        if (auth.getStatus() == BankResult.Status.INVALID_CREDENTIALS) {
+            return BankResult.error(BankResult.Status.INVALID_CREDENTIALS, "Invalid account number or current PIN. Please try again.");
+        }
+        if (!auth.isOk()) {
+            return auth;
+        }
+        BankAccount account = auth.getAccount();
+        awaitDurable(storePin(account, newPin));
+        return BankResult.ok(account, "PIN changed successfully!");
+    }
+
+    // The statement itself is rendered by the caller from the returned account, one page at a time through statementPage
+    public BankResult statement(String accountNumber, String pin) {
+        long start = System.nanoTime();
+        BankResult auth = authenticate(accountNumber, pin);
+        return metrics.record(Metrics.Operation.STATEMENT, start, auth.isOk() ? performStatement(auth.getAccount()) : auth);
+    }
+
+    public BankResult statement(SessionStore.Session session) {
+        long start = System.nanoTime();
+        BankResult expired = checkSession(session);
+        return metrics.record(Metrics.Operation.STATEMENT, start, expired == null ? performStatement(session.getAccount()) : expired);
+    }
+
+    private BankResult performStatement(BankAccount account) {
+        BankResult stale = checkFresh();
+        if (stale != null) {
+            return stale;
+        }
+        return BankResult.ok(account, "Statement for " + account.getAccountNumber());
+    }
+
+    // Method to check the PIN once and open a session; the result carries the session
+    public BankResult login(String accountNumber, String pin) {
+        long start = System.nanoTime();
+        BankResult auth = authenticate(accountNumber, pin);
+        if (!auth.isOk()) {
+            return metrics.record(Metrics.Operation.LOGIN, start, auth);
+        }
+        SessionStore.Session session = sessions.open(auth.getAccount());
+        return metrics.record(Metrics.Operation.LOGIN, start, BankResult.loggedIn(session, "Welcome, " + session.getAccount().getName() + "!"));
+    }
+
+    // Method to resolve a session token handed out by login, returns null if it is unknown or expired
+    public SessionStore.Session findSession(String token) {
+        return sessions.find(token);
+    }
+
+    public void logout(SessionStore.Session session) {
+        sessions.close(session);
+    }
+
+    // Method to find accounts by holder name prefix, handing each to the visitor as soon as it is
+    // found so callers can show results while the search goes on. Returns the number found.
+    public int searchByName(String prefix, int limit, Predicate<BankAccount> visitor) {
+        long start = System.nanoTime();
+        int found = registry.searchByName(prefix, limit, visitor);
+        metrics.record(Metrics.Operation.NAME_SEARCH, start);
+        return found;
+    }
+
+    // Method to get the bank-wide totals per transaction type for a day (yyyy-mm-dd) or a month (yyyy-mm)
+    public TransactionSummary.Totals bankTotals(String period) {
+        long start = System.nanoTime();
+        TransactionSummary.Totals totals = ledger.getTotals().totals(period);
+        metrics.record(Metrics.Operation.SUMMARY, start);
+        return totals;
+    }
+
+    // Method to get one account's totals per transaction type for a day or a month, null if there is no
+    // such account. The first report on an account walks its history once; later ones are lookups.
+    public TransactionSummary.Totals accountTotals(String accountNumber, String period) {
+        long start = System.nanoTime();
+        BankAccount account = registry.findAccount(accountNumber);
+        TransactionSummary.Totals totals = account == null ? null : account.getTotals(period);
+        metrics.record(Metrics.Operation.SUMMARY, start);
+        return totals;
+    }
+
+    // Method to render the next page of a statement, timed as a passbook page
+    public String statementPage(StatementCursor cursor, int pageSize) {
+        long start = System.nanoTime();
+        String page = cursor.nextPage(pageSize);
+        metrics.record(Metrics.Operation.PASSBOOK_PAGE, start);
+        return page;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+        metrics.shutdown();
+        if (jobs != null) {
+            jobs.shutdown();
+        }
+        fraudRules.shutdown();
+        ReplicaClient following = replica;
+        if (following != null) {
+            following.stop();
+        }
+        if (replication != null) {
+            replication.close();
+        }
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+        }
+        ledger.shutdown();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close journal: " + e.getMessage());
+            }
+        }
+    }
+
+    void awaitDurable(long seq) {
+        if (journal != null && seq > 0) {
+            journal.awaitDurable(seq);
+        }
+    }
+
+    // Method to find the account and validate its PIN; the result carries the account when both checks pass
+    private BankResult authenticate(String accountNumber, String pin) {
+        BankAccount account = registry.findAccount(accountNumber);
+        if (account == null) {
+            return invalidCredentials();
+        }
+        switch (authenticator.verify(account, pin)) {
+            case OK:
+                if (PinAuthenticator.isLegacy(account.getPinHash()) && replica == null) {
+                    // Plaintext PIN from before hashing; replace it now that we know it
+                    awaitDurable(storePin(account, pin));
+                }
+                return BankResult.ok(account, null);
+            case LOCKED:
+                return BankResult.error(BankResult.Status.ACCOUNT_LOCKED, "Too many failed PIN attempts. Please try again later.");
+            default:
+                fraudRules.recordFailedPin(account);
+                return invalidCredentials();
+        }
+    }
+
+    // Method to hash, set and journal a new PIN, returns the journal sequence to wait for
+    private long storePin(BankAccount account, String pin) {
+        String pinHash = authenticator.hash(pin);
+        long seq = 0;
+        synchronized (account) {
+            if (journal != null) {
+                seq = journal.appendChangePin(System.currentTimeMillis(), account.getAccountNumber(), pinHash);
+                account.setLastJournalSeq(seq);
+            }
+            account.setPinHash(pinHash);
+        }
+        authenticator.remember(account.getAccountNumber(), pinHash, pin);
+        return seq;
+    }
+
+    private static boolean isValidAmount(long amount) {
+        return amount > 0;
+    }
+
+    private static BankResult invalidCredentials() {
+        return BankResult.error(BankResult.Status.INVALID_CREDENTIALS, "Invalid account number or PIN. Please try again.");
+    }
+
+    // Returns null while the session is live, otherwise the error to answer with
+    private BankResult checkSession(SessionStore.Session session) {
+        if (sessions.touch(session)) {
+            return null;
+        }
+        return BankResult.error(BankResult.Status.SESSION_EXPIRED, "Your session has expired. Please log in again.");
+    }
+
+    // Returns null on the primary, otherwise the error to answer a change with
+    private BankResult checkWritable() {
+        ReplicaClient following = replica;
+        if (following == null) {
+            return null;
+        }
+        return BankResult.error(BankResult.Status.READ_ONLY, "This is a read-only replica of " + following.getPrimary() + ". Please use the primary.");
+    }
+
+    // Returns null unless this is a replica too far behind its primary to answer reads
+    private BankResult checkFresh() {
+        ReplicaClient following = replica;
+        if (following == null || following.isFresh()) {
+            return null;
+        }
+        return BankResult.error(BankResult.Status.STALE, "This replica is " + following.getStaleMillis() + " ms behind its primary. Please try again later.");
+    }
+
+    private static BankResult duplicateAccount() {
+        return BankResult.error(BankResult.Status.DUPLICATE_ACCOUNT, "Account number already exists. Please choose another.");
+    }
+
+    private static BankResult blocked(String reason) {
+        return BankResult.error(BankResult.Status.BLOCKED, "Blocked by a fraud rule: " + reason);
+    }
+
+    private static BankResult invalidAmount() {
+        return BankResult.error(BankResult.Status.INVALID_AMOUNT, "Amount must be a positive number.");
+    }
+}
@@ -1,675 +1,1601 @@
-import javax.swing.*;
-import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
-import java.util.ArrayList;
-import java.util.Date;
-
-class BankAccount {
-    private String name;
-    private String accountNumber;
-    private String pin;
-    private double balance;
-    private ArrayList<Transaction> transactions;
-
-    public BankAccount(String name, String accountNumber, String pin, double balance) {
-        this.name = name;
-        this.accountNumber = accountNumber;
-        this.pin = pin;
-        this.balance = balance;
-        this.transactions = new ArrayList<>();
-    }
-
-    // Getters and setters
-    public String getName() {
-        return name;
-    }
-
-    public void setName(String name) {
-        this.name = name;
-    }
-
-    public String getAccountNumber() {
-        return accountNumber;
-    }
-
-    public void setAccountNumber(String accountNumber) {
-        this.accountNumber = accountNumber;
-    }
-
-    public String getPin() {
-        return pin;
-    }
-
-    public void setPin(String pin) {
-        this.pin = pin;
-    }
-
-    public double getBalance() {
-        return balance;
-    }
-
-    public void setBalance(double balance) {
-        this.balance = balance;
-    }
-
-    public ArrayList<Transaction> getTransactions() {
-        return transactions;
-    }
-
-    // Method to add transaction
-    public void addTransaction(String type, double amount) {
-        Transaction transaction = new Transaction(type, amount);
-        transactions.add(transaction);
-    }
-}
-
-class Transaction {
-    private String type;
-    private double amount;
-    private Date timestamp;
-
-    public Transaction(String type, double amount) {
-        this.type = type;
-        this.amount = amount;
-        this.timestamp = new Date();
-    }
-
-    @Override
-    public String toString() {
-        return timestamp + " - " + type + ": $" + amount;
-    }
-}
-
-public class BankSystem extends JFrame {
-    private CardLayout cardLayout;
-    private JPanel cardPanel;
-    private CreateAccountPage createAccountPage;
-    private BankMenuPage bankMenuPage;
-    private CreditPage creditPage;
-    private DebitPage debitPage;
-    private CheckBalancePage checkBalancePage;
-    private ChangePasswordPage changePasswordPage;
-    private PrintPassbookPage printPassbookPage;
-
-    private ArrayList<BankAccount> accounts;
-
-    public BankSystem() {
-        setTitle("Bank System");
-        setSize(400, 300);
-        setDefaultCloseOperation(EXIT_ON_CLOSE);
-        setLocationRelativeTo(null);
-
-        cardLayout = new CardLayout();
-        cardPanel = new JPanel(cardLayout);
-        accounts = new ArrayList<>();
-
-        createAccountPage = new CreateAccountPage(this);
-        bankMenuPage = new BankMenuPage(this);
-        creditPage = new CreditPage(this);
-        debitPage = new DebitPage(this);
-        checkBalancePage = new CheckBalancePage(this);
-        changePasswordPage = new ChangePasswordPage(this);
-        printPassbookPage = new PrintPassbookPage(this);
-
-        cardPanel.add(createAccountPage, "CREATE_ACCOUNT");
-        cardPanel.add(bankMenuPage, "BANK_MENU");
-        cardPanel.add(creditPage, "CREDIT");
-        cardPanel.add(debitPage, "DEBIT");
-        cardPanel.add(checkBalancePage, "CHECK_BALANCE");
-        cardPanel.add(changePasswordPage, "CHANGE_PASSWORD");
-        cardPanel.add(printPassbookPage, "PRINT_PASSBOOK");
-
-        add(cardPanel);
-
-        showCreateAccountPage();
-    }
-
-    public void showCreateAccountPage() {
-        cardLayout.show(cardPanel, "CREATE_ACCOUNT");
-    }
-
-    public void showBankMenuPage() {
-        cardLayout.show(cardPanel, "BANK_MENU");
-    }
-
-    public void showCreditPage() {
-        cardLayout.show(cardPanel, "CREDIT");
-    }
-
-    public void showDebitPage() {
-        cardLayout.show(cardPanel, "DEBIT");
-    }
-
-    public void showCheckBalancePage() {
-        cardLayout.show(cardPanel, "CHECK_BALANCE");
-    }
-
-    public void showChangePasswordPage() {
-        cardLayout.show(cardPanel, "CHANGE_PASSWORD");
-    }
-
-    public void showPrintPassbookPage() {
-        cardLayout.show(cardPanel, "PRINT_PASSBOOK");
-    }
-
-    public ArrayList<BankAccount> getAccounts() {
-        return accounts;
-    }
-
-    public static void main(String[] args) {
-        SwingUtilities.invokeLater(new Runnable() {
-            public void run() {
-                BankSystem bankSystem = new BankSystem();
-                bankSystem.setVisible(true);
-            }
-        });
-    }
-}
-
-class CreateAccountPage extends JPanel {
-    private JLabel nameLabel, accountLabel, pinLabel, balanceLabel;
-    private JTextField nameField, accountField, pinField, balanceField;
-    private JButton createButton;
-    private BankSystem bankSystem;
-
-    public CreateAccountPage(BankSystem bankSystem) {
-        this.bankSystem = bankSystem;
-
-        // Initialize components
-        nameLabel = new JLabel("Name:");
-        nameField = new JTextField(20);
-        accountLabel = new JLabel("Account Number:");
-        accountField = new JTextField(20);
-        pinLabel = new JLabel("PIN:");
-        pinField = new JTextField(20);
-        balanceLabel = new JLabel("Initial Balance:");
-        balanceField = new JTextField(20);
-        createButton = new JButton("Create Account");
-
-        // Layout setup
-        setLayout(new GridLayout(5, 2, 5, 10));
-        add(nameLabel);
-        add(nameField);
-        add(accountLabel);
-        add(accountField);
-        add(pinLabel);
-        add(pinField);
-        add(balanceLabel);
-        add(balanceField);
-        add(new JLabel());
-        add(createButton);
-        // Action listener for createButton
-        createButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                // Retrieve input values
-                String name = nameField.getText();
-                String accountNumber = accountField.getText();
-                String pin = pinField.getText();
-                double balance = Double.parseDouble(balanceField.getText());
-
-                // Create a new bank account
-                BankAccount newAccount = new BankAccount(name, accountNumber, pin, balance);
-                bankSystem.getAccounts().add(newAccount);
-
-                // Display a confirmation message
-                JOptionPane.showMessageDialog(null, "Account created successfully!");
-
-                // Show the bank menu page
-                bankSystem.showBankMenuPage();
-            }
-        });
-    }
-}
-
-class BankMenuPage extends JPanel {
-    private JButton creditButton, debitButton, checkBalanceButton, printPassbookButton, changePinButton, exitButton;
-    private BankSystem bankSystem;
-
-    public BankMenuPage(BankSystem bankSystem) {
-        this.bankSystem = bankSystem;
-
-        // Initialize components
-        creditButton = new JButton("Credit");
-        debitButton = new JButton("Debit");
-        checkBalanceButton = new JButton("Check Balance");
-        printPassbookButton = new JButton("Print Passbook");
-        changePinButton = new JButton("Change Password");
-        exitButton = new JButton("Exit");
-
-        // Layout setup
-        setLayout(new GridLayout(6, 1, 10, 10));
-        add(creditButton);
-        add(debitButton);
-        add(checkBalanceButton);
-        add(printPassbookButton);
-        add(changePinButton);
-        add(exitButton);
-
-        // Action listeners for buttons
-        creditButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                bankSystem.showCreditPage();
-            }
-        });
-
-        debitButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                bankSystem.showDebitPage();
-            }
-        });
-
-        checkBalanceButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                bankSystem.showCheckBalancePage();
-            }
-        });
-
-        printPassbookButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                bankSystem.showPrintPassbookPage();
-            }
-        });
-
-        changePinButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                bankSystem.showChangePasswordPage();
-            }
-        });
-
-        exitButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                System.exit(0);
-               // bankSystem.showCreateAccountPage();
-            }
-        });
-    }
-}
-
-class CreditPage extends JPanel {
-    private JLabel accountLabel, amountLabel, pinLabel;
-    private JTextField accountField, amountField, pinField;
-    private JButton creditButton;
-    private BankSystem bankSystem;
-
-    public CreditPage(BankSystem bankSystem) {
-        this.bankSystem = bankSystem;
-
-        // Initialize components
-        accountLabel = new JLabel("Account Number:");
-        accountField = new JTextField(20);
-        amountLabel = new JLabel("Amount:");
-        amountField = new JTextField(20);
-        pinLabel = new JLabel("PIN:");
-        pinField = new JTextField(20);
-        creditButton = new JButton("Credit");
-
-        // Layout setup
-        setLayout(new GridLayout(4, 2, 5, 10));
-        add(accountLabel);
-        add(accountField);
-        add(amountLabel);
-        add(amountField);
-        add(pinLabel);
-        add(pinField);
-        add(new JLabel());
-        add(creditButton);
-
-        // Action listener for creditButton
-        creditButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                // Retrieve input values
-                String accountNumber = accountField.getText();
-                double amount = Double.parseDouble(amountField.getText());
-                String pin = pinField.getText();
-
-                // Find the account
-                BankAccount account = findAccount(accountNumber);
-
-                // Validate PIN
-                if (account != null && account.getPin().equals(pin)) {
-                    // Add amount to account balance
-                    double newBalance = account.getBalance() + amount;
-                    account.setBalance(newBalance);
-
-                    // Add transaction
-                    account.addTransaction("Credit", amount);
-
-                    // Display a confirmation message
-                    JOptionPane.showMessageDialog(null, "Amount credited successfully!");
-
-                    // Show the bank menu page
-                    bankSystem.showBankMenuPage();
-                } else {
-                    // Display an error message
-                    JOptionPane.showMessageDialog(null, "Invalid account number or PIN. Please try again.");
-                }
-            }
-        });
-    }
-
-    // Method to find account by account number
-    private BankAccount findAccount(String accountNumber) {
-        for (BankAccount acc : bankSystem.getAccounts()) {
-            if (acc.getAccountNumber().equals(accountNumber)) {
-                return acc;
-            }
-        }
-        return null;
-    }
-}
-
-class DebitPage extends JPanel {
-    private JLabel accountLabel, amountLabel, pinLabel;
-    private JTextField accountField, amountField, pinField;
-    private JButton debitButton;
-    private BankSystem bankSystem;
-
-    public DebitPage(BankSystem bankSystem) {
-        this.bankSystem = bankSystem;
-
-        // Initialize components
-        accountLabel = new JLabel("Account Number:");
-        accountField = new JTextField(20);
-        amountLabel = new JLabel("Amount:");
-        amountField = new JTextField(20);
-        pinLabel = new JLabel("PIN:");
-        pinField = new JTextField(20);
-        debitButton = new JButton("Debit");
-
-        // Layout setup
-        setLayout(new GridLayout(4, 2, 5, 10));
-        add(accountLabel);
-        add(accountField);
-        add(amountLabel);
-        add(amountField);
-        add(pinLabel);
-        add(pinField);
-        add(new JLabel());
-        add(debitButton);
-
-        // Action listener for debitButton
-        debitButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                // Retrieve input values
-                String accountNumber = accountField.getText();
-                double amount = Double.parseDouble(amountField.getText());
-                String pin = pinField.getText();
-
-                // Find the account
-                BankAccount account = findAccount(accountNumber);
-
-                // Validate PIN
-                if (account != null && account.getPin().equals(pin)) {
-                    // Check if the account has sufficient balance
-                    if (account.getBalance() >= amount) {
-                        // Subtract amount from account balance
-                        double newBalance = account.getBalance() - amount;
-                        account.setBalance(newBalance);
-
-                        // Add transaction
-                        account.addTransaction("Debit", amount);
-
-                        // Display a confirmation message
-                        JOptionPane.showMessageDialog(null, "Amount debited successfully!");
-
-                        // Show the bank menu page
-                        bankSystem.showBankMenuPage();
-                    } else {
-                        // Display an error message if insufficient balance
-                        JOptionPane.showMessageDialog(null, "Insufficient balance.");
-                    }
-                } else {
-                    // Display an error message for invalid account number or PIN
-                    JOptionPane.showMessageDialog(null, "Invalid account number or PIN. Please try again.");
-                }
-            }
-        });
-    }
-
-    // Method to find account by account number
-    private BankAccount findAccount(String accountNumber) {
-        for (BankAccount acc : bankSystem.getAccounts()) {
-            if (acc.getAccountNumber().equals(accountNumber)) {
-                return acc;
-            }
-        }
-        return null;
-    }
-}
-
-class CheckBalancePage extends JPanel {
-    private JLabel accountLabel, pinLabel, balanceLabel;
-    private JTextField accountField, pinField;
-    private JButton checkBalanceButton, backButton;
-    private BankSystem bankSystem;
-
-    public CheckBalancePage(BankSystem bankSystem) {
-        this.bankSystem = bankSystem;
-
-        // Initialize components
-        accountLabel = new JLabel("Account Number:");
-        accountField = new JTextField(20);
-        pinLabel = new JLabel("PIN:");
-        pinField = new JTextField(20);
-        balanceLabel = new JLabel();
-        checkBalanceButton = new JButton("Check Balance");
-        backButton = new JButton("Back to Menu");
-
-        // Layout setup
-        setLayout(new GridLayout(5, 2, 5, 10));
-        add(accountLabel);
-        add(accountField);
-        add(pinLabel);
-        add(pinField);
-        add(new JLabel());
-        add(checkBalanceButton);
-        add(new JLabel());
-        add(balanceLabel);
-        add(new JLabel());
-        add(backButton);
-
-        // Action listener for checkBalanceButton
-        checkBalanceButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                // Retrieve input values
-                String accountNumber = accountField.getText();
-                String pin = pinField.getText();
-
-                // Find the account
-                BankAccount account = findAccount(accountNumber);
-
-                // Validate PIN
-                if (account != null && account.getPin().equals(pin)) {
-                    // Display account balance
-                    balanceLabel.setText("Balance: $" + account.getBalance());
-
-                    // Clear input fields
-                    accountField.setText("");
-                    pinField.setText("");
-                } else {
-                    // Display an error message
-                    JOptionPane.showMessageDialog(null, "Invalid account number or PIN. Please try again.");
-                }
-            }
-        });
-
-        // Action listener for backButton
-        backButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                bankSystem.showBankMenuPage();
-            }
-        });
-    }
-
-    // Method to find account by account number
-    private BankAccount findAccount(String accountNumber) {
-        for (BankAccount acc : bankSystem.getAccounts()) {
-            if (acc.getAccountNumber().equals(accountNumber)) {
-                return acc;
-            }
-        }
-        return null;
-    }
-}
-
-class ChangePasswordPage extends JPanel {
-    private JLabel accountLabel, currentPinLabel, newPinLabel;
-    private JTextField accountField, currentPinField, newPinField;
-    private JButton changePinButton;
-    private BankSystem bankSystem;
-
-    public ChangePasswordPage(BankSystem bankSystem) {
-        this.bankSystem = bankSystem;
-
-        // Initialize components
-        accountLabel = new JLabel("Account Number:");
-        accountField = new JTextField(20);
-        currentPinLabel = new JLabel("Current PIN:");
-        currentPinField = new JTextField(20);
-        newPinLabel = new JLabel("New PIN:");
-        newPinField = new JTextField(20);
-        changePinButton = new JButton("Change PIN");
-
-        // Layout setup
-        setLayout(new GridLayout(4, 2, 5, 10));
-        add(accountLabel);
-        add(accountField);
-        add(currentPinLabel);
-        add(currentPinField);
-        add(newPinLabel);
-        add(newPinField);
-        add(new JLabel());
-        add(changePinButton);
-
-        // Action listener for changePinButton
-        changePinButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                // Retrieve input values
-                String accountNumber = accountField.getText();
-                String currentPin = currentPinField.getText();
-                String newPin = newPinField.getText();
-
-                // Find the account
-                BankAccount account = findAccount(accountNumber);
-
-                // Validate current PIN
-                if (account != null && account.getPin().equals(currentPin)) {
-                    // Change PIN
-                    account.setPin(newPin);
-
-                    // Display a confirmation message
-                    JOptionPane.showMessageDialog(null, "PIN changed successfully!");
-
-                    // Clear input fields
-                    accountField.setText("");
-                    currentPinField.setText("");
-                    newPinField.setText("");
-
-                    // Show the bank menu page
-                    bankSystem.showBankMenuPage();
-                } else {
-                    // Display an error message for invalid current PIN
-                    JOptionPane.showMessageDialog(null, "Invalid account number or current PIN. Please try again.");
-                }
-            }
-        });
-    }
-
-    // Method to find account by account number
-    private BankAccount findAccount(String accountNumber) {
-        for (BankAccount acc : bankSystem.getAccounts()) {
-            if (acc.getAccountNumber().equals(accountNumber)) {
-                return acc;
-            }
-        }
-        return null;
-    }
-}
-
-class PrintPassbookPage extends JPanel {
-    private JTextField accountField, pinField;
-    private JButton printButton, backButton;
-    private JTextArea passbookTextArea;
-    private BankSystem bankSystem;
-
-    public PrintPassbookPage(BankSystem bankSystem) {
-        this.bankSystem = bankSystem;
-
-        // Initialize components
-        accountField = new JTextField(20);
-        pinField = new JTextField(20);
-        printButton = new JButton("Print");
-        backButton = new JButton("Back to Menu");
-        passbookTextArea = new JTextArea(10, 30);
-        passbookTextArea.setEditable(false);
-
-        // Layout setup
-        setLayout(new BorderLayout());
-        JPanel topPanel = new JPanel(new GridLayout(2, 2, 5, 5));
-        topPanel.add(new JLabel("Account Number:"));
-        topPanel.add(accountField);
-        topPanel.add(new JLabel("PIN:"));
-        topPanel.add(pinField);
-        add(topPanel, BorderLayout.NORTH);
-        add(new JScrollPane(passbookTextArea), BorderLayout.CENTER);
-        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
-        buttonPanel.add(printButton);
-        buttonPanel.add(backButton);
-        add(buttonPanel, BorderLayout.SOUTH);
-
-        // Action listeners
-        printButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                String accountNumber = accountField.getText();
-                String pin = pinField.getText();
-                printPassbook(accountNumber, pin);
-            }
-        });
-
-        backButton.addActionListener(new ActionListener() {
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                bankSystem.showBankMenuPage();
-            }
-        });
-    }
-
-    private void printPassbook(String accountNumber, String pin) {
-        BankAccount account = findAccount(accountNumber);
-        if (account != null && account.getPin().equals(pin)) {
-            passbookTextArea.setText(""); // Clear previous content
-            passbookTextArea.append("Account Number: " + account.getAccountNumber() + "\n");
-            passbookTextArea.append("Name: " + account.getName() + "\n");
-            passbookTextArea.append("Initial Balance: $" + account.getBalance() + "\n\n");
-            passbookTextArea.append("Transactions:\n");
-            for (Transaction transaction : account.getTransactions()) {
-                passbookTextArea.append(transaction.toString() + "\n");
-            }
-        } else {
-            JOptionPane.showMessageDialog(null, "Invalid account number or PIN. Please try again.");
-        }
-    }
-
-    private BankAccount findAccount(String accountNumber) {
-        for (BankAccount acc : bankSystem.getAccounts()) {
-            if (acc.getAccountNumber().equals(accountNumber)) {
-                return acc;
-            }
-        }
-        return null;
-    }
-}
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+// Balance and history changes are serialized on the account's own monitor, so
+// threads working on different accounts never contend; reads are lock-free.
+// History lives off-heap in the TransactionLedger; the account only keeps its newest record.
+class BankAccount {
+    // How long an aborted transfer leg is remembered, see abortTransfer
+    static final long ABORTED_TRANSFER_MILLIS = 3_600_000;
+
+    private volatile String name;
+    private final String accountNumber;
+    // Salted hash of the PIN, see PinAuthenticator
+    private volatile String pinHash;
+    private volatile long balance;
+    private final TransactionLedger ledger;
+    private volatile long ledgerTail = TransactionLedger.NONE;
+    private volatile int transactionCount;
+    // Sequence number of the last journal record applied to this account
+    private long lastJournalSeq;
+    // Last interest and fee job runs posted, so a resumed job skips accounts it already did
+    private long lastInterestRun;
+    private long lastFeeRun;
+    // Name index of the registry holding this account, kept in step with the name under the monitor
+    private NameIndex nameIndex;
+    // Legs of transfers with another shard that are prepared but not yet decided, by transaction id.
+    // Outgoing legs are negative; their funds are held back from debits until the decision.
+    private HashMap<String, Long> pendingTransfers;
+    // Idempotency keys of the keyed outgoing legs among them, as "<key> <request>", by transaction id
+    private HashMap<String, String> transferKeys;
+    // Transaction ids of legs aborted here, with when they were aborted, so a late prepare is refused
+    private HashMap<String, Long> abortedTransfers;
+    private volatile long held;
+    // Sum of the prepared incoming legs, kept free above the balance so committing them cannot overflow it
+    private volatile long incoming;
+    // Recent debits and wrong PINs for the fraud rules, made on first use
+    private volatile FraudRules.Activity activity;
+    // Totals per day and month, built from the history the first time they are asked for
+    private TransactionSummary summary;
+
+    public BankAccount(String name, String accountNumber, String pinHash, long balance, TransactionLedger ledger) {
+        this.name = name;
+        this.accountNumber = accountNumber;
+        this.pinHash = pinHash;
+        this.balance = balance;
+        this.ledger = ledger;
+    }
+
+    // Getters and setters
+    public String getName() {
+        return name;
+    }
+
+    public synchronized void setName(String name) {
+        if (nameIndex != null) {
+            nameIndex.rename(this, this.name, name);
+        }
+        this.name = name;
+    }
+
+    // Method to add this account to a name index, which then follows every rename
+    public synchronized void indexName(NameIndex nameIndex) {
+        this.nameIndex = nameIndex;
+        nameIndex.add(this, name);
+    }
+
+    // Method to have a name index follow renames from now on, returns the name for it to index now
+    public synchronized String followName(NameIndex nameIndex) {
+        this.nameIndex = nameIndex;
+        return name;
+    }
+
+    public String getAccountNumber() {
+        return accountNumber;
+    }
+
+    public String getPinHash() {
+        return pinHash;
+    }
+
+    public void setPinHash(String pinHash) {
+        this.pinHash = pinHash;
+    }
+
+    // Balance in minor units, see Money
+    public long getBalance() {
+        return balance;
+    }
+
+    public synchronized void setBalance(long balance) {
+        this.balance = balance;
+    }
+
+    // Balance less the funds held for prepared outgoing transfers, which is what may be spent
+    public long getAvailableBalance() {
+        return balance - held;
+    }
+
+    // Largest amount that may still be added to the balance, leaving room for the prepared incoming legs;
+    // read under the monitor by whoever is about to add to the balance
+    public long getCreditHeadroom() {
+        return Long.MAX_VALUE - balance - incoming;
+    }
+
+    // Callers hold the account's monitor so the sequence number stays in step with the change it records
+    public long getLastJournalSeq() {
+        return lastJournalSeq;
+    }
+
+    public void setLastJournalSeq(long lastJournalSeq) {
+        this.lastJournalSeq = lastJournalSeq;
+    }
+
+    // Read and written under the monitor, like the journal sequence
+    public long getLastInterestRun() {
+        return lastInterestRun;
+    }
+
+    public void setLastInterestRun(long lastInterestRun) {
+        this.lastInterestRun = lastInterestRun;
+    }
+
+    public long getLastFeeRun() {
+        return lastFeeRun;
+    }
+
+    public void setLastFeeRun(long lastFeeRun) {
+        this.lastFeeRun = lastFeeRun;
+    }
+
+    // Returns the history as of this call, newest first; transactions added later are not included
+    public Iterable<Transaction> getTransactions() {
+        final long tail = ledgerTail;
+        return () -> ledger.iterator(tail);
+    }
+
+    // As above, but long histories may skip whole compacted blocks after skipAfterMillis; callers filter by time
+    public Iterable<Transaction> getTransactions(long skipAfterMillis) {
+        final long tail = ledgerTail;
+        return () -> ledger.iterator(tail, skipAfterMillis);
+    }
+
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+
+    // Offset of the newest ledger record, read under the monitor together with getTransactionCount
+    public long getLedgerTail() {
+        return ledgerTail;
+    }
+
+    // Method to point a restored account at history already in the ledger
+    public synchronized void restoreHistory(long ledgerTail, int transactionCount) {
+        this.ledgerTail = ledgerTail;
+        this.transactionCount = transactionCount;
+    }
+
+    // Method to add transaction
+    public synchronized void addTransaction(String type, long amount) {
+        addTransaction(type, amount, System.currentTimeMillis());
+    }
+
+    public synchronized void addTransaction(String type, long amount, long timestamp) {
+        addTransaction(type, amount, timestamp, 0);
+    }
+
+    public synchronized void addTransaction(String type, long amount, long timestamp, long reference) {
+        byte code = TransactionLedger.typeCode(type);
+        ledgerTail = ledger.append(ledgerTail, code, amount, timestamp * 1_000_000L, reference);
+        transactionCount++;
+        if (summary != null) {
+            summary.record(code, amount, timestamp);
+        }
+    }
+
+    // Method to get the totals per transaction type of a day (yyyy-mm-dd) or month (yyyy-mm). The
+    // first call walks the whole history outside the monitor, so writers are not held up meanwhile,
+    // then catches up under it on the transactions added during the walk.
+    public TransactionSummary.Totals getTotals(String period) {
+        long tail;
+        int count;
+        synchronized (this) {
+            if (summary != null) {
+                return summary.totals(period);
+            }
+            tail = ledgerTail;
+            count = transactionCount;
+        }
+        TransactionSummary built = new TransactionSummary();
+        ledger.forEach(tail, (type, amount, epochNanos, reference) -> built.record(type, amount, epochNanos / 1_000_000L));
+        synchronized (this) {
+            if (summary == null) {
+                Iterator<Transaction> added = ledger.iterator(ledgerTail);
+                for (int i = count; i < transactionCount; i++) {
+                    Transaction transaction = added.next();
+                    built.record(TransactionLedger.typeCode(transaction.getType()), transaction.getAmount(), transaction.getTimestamp());
+                }
+                summary = built;
+            }
+            return summary.totals(period);
+        }
+    }
+
+    // Method to atomically add to the balance and record the credit, returns the new balance
+    public synchronized long credit(long amount) {
+        return credit(amount, System.currentTimeMillis());
+    }
+
+    public synchronized long credit(long amount, long timestamp) {
+        balance = Math.addExact(balance, amount);
+        addTransaction("Credit", amount, timestamp);
+        return balance;
+    }
+
+    // Method to atomically check and debit the balance, returns false if funds are insufficient
+    public synchronized boolean tryDebit(long amount) {
+        return tryDebit(amount, System.currentTimeMillis());
+    }
+
+    public synchronized boolean tryDebit(long amount, long timestamp) {
+        if (getAvailableBalance() < amount) {
+            return false;
+        }
+        balance = balance - amount;
+        addTransaction("Debit", amount, timestamp);
+        return true;
+    }
+
+    // Method to post interest for a job run, returns false if that run already posted here
+    public synchronized boolean accrueInterest(long amount, long timestamp, long run) {
+        if (run <= lastInterestRun) {
+            return false;
+        }
+        balance = Math.addExact(balance, amount);
+        addTransaction("Interest", amount, timestamp, run);
+        lastInterestRun = run;
+        return true;
+    }
+
+    // Method to charge a fee for a job run, returns false if that run already charged here or funds are insufficient
+    public synchronized boolean chargeFee(long amount, long timestamp, long run) {
+        if (run <= lastFeeRun || getAvailableBalance() < amount) {
+            return false;
+        }
+        balance = balance - amount;
+        addTransaction("Fee", amount, timestamp, run);
+        lastFeeRun = run;
+        return true;
+    }
+
+    // Transfer legs: the caller has already checked funds and holds both accounts' monitors,
+    // taken in account number order, so the pair changes together
+    public synchronized void transferOut(long amount, long timestamp, long reference) {
+        balance = balance - amount;
+        addTransaction("Transfer Out", amount, timestamp, reference);
+    }
+
+    public synchronized void transferIn(long amount, long timestamp, long reference) {
+        balance = Math.addExact(balance, amount);
+        addTransaction("Transfer In", amount, timestamp, reference);
+    }
+
+    // Method to prepare one leg of a transfer with another shard: an outgoing leg (negative amount)
+    // holds its funds back, an incoming one keeps room for its amount above the balance, so neither
+    // can fail once it is committed. key is the idempotency key
+    // and request of a keyed outgoing leg, null otherwise. Preparing the same leg again succeeds;
+    // returns false if funds are insufficient, the balance could overflow or the leg was aborted.
+    public synchronized boolean prepareTransfer(String transactionId, long amount, String key) {
+        if (!canPrepareTransfer(transactionId, amount)) {
+            return false;
+        }
+        if (isPendingTransfer(transactionId)) {
+            return true;
+        }
+        if (pendingTransfers == null) {
+            pendingTransfers = new HashMap<>();
+        }
+        pendingTransfers.put(transactionId, amount);
+        if (amount < 0) {
+            held -= amount;
+        } else {
+            incoming += amount;
+        }
+        if (key != null) {
+            if (transferKeys == null) {
+                transferKeys = new HashMap<>();
+            }
+            transferKeys.put(transactionId, key);
+        }
+        return true;
+    }
+
+    // Method to tell whether prepareTransfer would succeed, without preparing anything
+    public synchronized boolean canPrepareTransfer(String transactionId, long amount) {
+        if (isAbortedTransfer(transactionId)) {
+            return false;
+        }
+        Long pending = pendingTransfers == null ? null : pendingTransfers.get(transactionId);
+        if (pending != null) {
+            return pending == amount;
+        }
+        return amount < 0 ? getAvailableBalance() >= -amount : amount <= getCreditHeadroom();
+    }
+
+    // Method to apply a prepared leg, returns false if it is not pending (never prepared or already decided)
+    public synchronized boolean commitTransfer(String transactionId, long timestamp, long reference) {
+        Long amount = removePendingTransfer(transactionId);
+        if (amount == null) {
+            return false;
+        }
+        if (amount < 0) {
+            transferOut(-amount, timestamp, reference);
+        } else {
+            transferIn(amount, timestamp, reference);
+        }
+        return true;
+    }
+
+    // Method to drop a prepared leg, releasing any funds it held, and refuse to prepare it from now
+    // on: its prepare may still be on its way from a router that gave up waiting for the reply. Legs
+    // aborted more than ABORTED_TRANSFER_MILLIS before timestamp are forgotten. Returns false if it
+    // was not pending.
+    public synchronized boolean abortTransfer(String transactionId, long timestamp) {
+        if (abortedTransfers == null) {
+            abortedTransfers = new HashMap<>();
+        }
+        abortedTransfers.values().removeIf(aborted -> aborted < timestamp - ABORTED_TRANSFER_MILLIS);
+        abortedTransfers.put(transactionId, timestamp);
+        return removePendingTransfer(transactionId) != null;
+    }
+
+    public synchronized boolean isPendingTransfer(String transactionId) {
+        return pendingTransfers != null && pendingTransfers.containsKey(transactionId);
+    }
+
+    public synchronized boolean isAbortedTransfer(String transactionId) {
+        return abortedTransfers != null && abortedTransfers.containsKey(transactionId);
+    }
+
+    // Returns the "<key> <request>" of a pending keyed leg, null if it has none or is not pending
+    public synchronized String getTransferKey(String transactionId) {
+        return transferKeys == null ? null : transferKeys.get(transactionId);
+    }
+
+    // Method to tell whether a pending leg of another transaction was prepared with the idempotency key
+    public synchronized boolean isTransferKeyPending(String key, String transactionId) {
+        if (transferKeys != null) {
+            for (Map.Entry<String, String> leg : transferKeys.entrySet()) {
+                if (!leg.getKey().equals(transactionId) && leg.getValue().startsWith(key + " ")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Method to get the account's activity for the fraud rules, making it the first time
+    public FraudRules.Activity getActivity() {
+        FraudRules.Activity current = activity;
+        if (current == null) {
+            synchronized (this) {
+                if (activity == null) {
+                    activity = new FraudRules.Activity();
+                }
+                current = activity;
+            }
+        }
+        return current;
+    }
+
+    // Returns a copy of the undecided legs, by transaction id
+    public synchronized Map<String, Long> getPendingTransfers() {
+        return pendingTransfers == null ? Collections.emptyMap() : new HashMap<>(pendingTransfers);
+    }
+
+    // Returns a copy of the keys of the keyed legs, by transaction id
+    public synchronized Map<String, String> getTransferKeys() {
+        return transferKeys == null ? Collections.emptyMap() : new HashMap<>(transferKeys);
+    }
+
+    private Long removePendingTransfer(String transactionId) {
+        Long amount = pendingTransfers == null ? null : pendingTransfers.remove(transactionId);
+        if (amount != null && amount < 0) {
+            held += amount;
+        } else if (amount != null) {
+            incoming -= amount;
+        }
+        if (pendingTransfers != null && pendingTransfers.isEmpty()) {
+            pendingTransfers = null;
+        }
+        if (transferKeys != null && transferKeys.remove(transactionId) != null && transferKeys.isEmpty()) {
+            transferKeys = null;
+        }
+        return amount;
+    }
+}
+
+class Transaction {
+    private String type;
+    private long amount;
+    private Date timestamp;
+    // Links the two legs of a transfer, 0 otherwise
+    private long reference;
+
+    public Transaction(String type, long amount) {
+        this(type, amount, System.currentTimeMillis());
+    }
+
+    public Transaction(String type, long amount, long timestamp) {
+        this(type, amount, timestamp, 0);
+    }
+
+    public Transaction(String type, long amount, long timestamp, long reference) {
+        this.type = type;
+        this.amount = amount;
+        this.timestamp = new Date(timestamp);
+        this.reference = reference;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public long getTimestamp() {
+        return timestamp.getTime();
+    }
+
+    public long getReference() {
+        return reference;
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + " - " + type + ": $" + Money.format(amount) + (reference != 0 ? " #" + reference : "");
+    }
+}
+
+public class BankSystem extends JFrame {
+    private CardLayout cardLayout;
+    private JPanel cardPanel;
+    private LoginPage loginPage;
+    private CreateAccountPage createAccountPage;
+    private SearchPage searchPage;
+    private BankMenuPage bankMenuPage;
+    private CreditPage creditPage;
+    private DebitPage debitPage;
+    private TransferPage transferPage;
+    private CheckBalancePage checkBalancePage;
+    private ChangePasswordPage changePasswordPage;
+    private PrintPassbookPage printPassbookPage;
+    private ReportsPage reportsPage;
+
+    private BankService service;
+    // Session of the customer using the window; only touched on the EDT
+    private SessionStore.Session session;
+
+    public BankSystem(BankService service) {
+        setTitle("Bank System");
+        setSize(400, 360);
+        setDefaultCloseOperation(EXIT_ON_CLOSE);
+        setLocationRelativeTo(null);
+
+        cardLayout = new CardLayout();
+        cardPanel = new JPanel(cardLayout);
+        this.service = service;
+
+        loginPage = new LoginPage(this);
+        createAccountPage = new CreateAccountPage(this);
+        searchPage = new SearchPage(this);
+        bankMenuPage = new BankMenuPage(this);
+        creditPage = new CreditPage(this);
+        debitPage = new DebitPage(this);
+        transferPage = new TransferPage(this);
+        checkBalancePage = new CheckBalancePage(this);
+        changePasswordPage = new ChangePasswordPage(this);
+        printPassbookPage = new PrintPassbookPage(this);
+        reportsPage = new ReportsPage(this);
+
+        cardPanel.add(loginPage, "LOGIN");
+        cardPanel.add(createAccountPage, "CREATE_ACCOUNT");
+        cardPanel.add(searchPage, "SEARCH");
+        cardPanel.add(bankMenuPage, "BANK_MENU");
+        cardPanel.add(creditPage, "CREDIT");
+        cardPanel.add(debitPage, "DEBIT");
+        cardPanel.add(transferPage, "TRANSFER");
+        cardPanel.add(checkBalancePage, "CHECK_BALANCE");
+        cardPanel.add(changePasswordPage, "CHANGE_PASSWORD");
+        cardPanel.add(printPassbookPage, "PRINT_PASSBOOK");
+        cardPanel.add(reportsPage, "REPORTS");
+
+        add(cardPanel);
+
+        showLoginPage();
+    }
+
+    public void showLoginPage() {
+        cardLayout.show(cardPanel, "LOGIN");
+    }
+
+    // Method to go back to the login page with the account number filled in
+    public void showLoginPage(String accountNumber) {
+        loginPage.setAccountNumber(accountNumber);
+        showLoginPage();
+    }
+
+    public void showCreateAccountPage() {
+        cardLayout.show(cardPanel, "CREATE_ACCOUNT");
+    }
+
+    public void showSearchPage() {
+        cardLayout.show(cardPanel, "SEARCH");
+    }
+
+    public void showBankMenuPage() {
+        bankMenuPage.showSession(session);
+        cardLayout.show(cardPanel, "BANK_MENU");
+    }
+
+    public void showCreditPage() {
+        cardLayout.show(cardPanel, "CREDIT");
+    }
+
+    public void showDebitPage() {
+        cardLayout.show(cardPanel, "DEBIT");
+    }
+
+    public void showTransferPage() {
+        cardLayout.show(cardPanel, "TRANSFER");
+    }
+
+    public void showCheckBalancePage() {
+        cardLayout.show(cardPanel, "CHECK_BALANCE");
+    }
+
+    public void showChangePasswordPage() {
+        cardLayout.show(cardPanel, "CHANGE_PASSWORD");
+    }
+
+    public void showPrintPassbookPage() {
+        cardLayout.show(cardPanel, "PRINT_PASSBOOK");
+    }
+
+    public void showReportsPage() {
+        cardLayout.show(cardPanel, "REPORTS");
+    }
+
+    public BankService getService() {
+        return service;
+    }
+
+    public SessionStore.Session getSession() {
+        return session;
+    }
+
+    // Method to start working on a new session, or end the current one with null
+    public void setSession(SessionStore.Session session) {
+        if (this.session != null && session == null) {
+            service.logout(this.session);
+        }
+        this.session = session;
+        // Nothing from the previous customer may stay on screen
+        checkBalancePage.clear();
+        printPassbookPage.clear();
+    }
+
+    // Method to run an operation on the service pool and handle its result back on the EDT
+    public void submit(final JButton button, Supplier<BankResult> operation, final Consumer<BankResult> onResult) {
+        button.setEnabled(false);
+        service.submit(operation).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            button.setEnabled(true);
+            if (error != null) {
+                JOptionPane.showMessageDialog(null, "Operation failed: " + error.getMessage());
+            } else if (result.getStatus() == BankResult.Status.SESSION_EXPIRED) {
+                JOptionPane.showMessageDialog(null, result.getMessage());
+                setSession(null);
+                showLoginPage();
+            } else {
+                onResult.accept(result);
+            }
+        }));
+    }
+
+    public static void main(String[] args) throws Exception {
+        for (String arg : args) {
+            if (arg.equals("--headless")) {
+                BankConsole.main(args);
+                return;
+            }
+            if (arg.equals("--server")) {
+                BankServer.main(new String[0]);
+                return;
+            }
+            if (arg.equals("--router")) {
+                BankRouter.main(Arrays.copyOfRange(args, Arrays.asList(args).indexOf(arg) + 1, args.length));
+                return;
+            }
+        }
+
+        final BankService service = BankService.open(Runtime.getRuntime().availableProcessors());
+        System.out.println(service.getStartupReport());
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                BankSystem bankSystem = new BankSystem(service);
+                bankSystem.setVisible(true);
+            }
+        });
+    }
+}
+
+class LoginPage extends JPanel {
+    private JLabel accountLabel, pinLabel;
+    private JTextField accountField, pinField;
+    private JButton loginButton, createAccountButton, searchButton, reportsButton;
+    private BankSystem bankSystem;
+
+    public LoginPage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        accountLabel = new JLabel("Account Number:");
+        accountField = new JTextField(20);
+        pinLabel = new JLabel("PIN:");
+        pinField = new JTextField(20);
+        loginButton = new JButton("Login");
+        createAccountButton = new JButton("Create Account");
+        searchButton = new JButton("Find Account");
+        reportsButton = new JButton("Reports");
+
+        // Layout setup
+        setLayout(new GridLayout(6, 2, 5, 10));
+        add(accountLabel);
+        add(accountField);
+        add(pinLabel);
+        add(pinField);
+        add(new JLabel());
+        add(loginButton);
+        add(new JLabel());
+        add(createAccountButton);
+        add(new JLabel());
+        add(searchButton);
+        add(new JLabel());
+        add(reportsButton);
+
+        // Action listener for loginButton
+        loginButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Retrieve input values
+                String accountNumber = accountField.getText();
+                String pin = pinField.getText();
+
+                // Check the PIN once; the session is used for everything after this
+                bankSystem.submit(loginButton, () -> bankSystem.getService().login(accountNumber, pin), result -> {
+                    if (result.isOk()) {
+                        accountField.setText("");
+                        pinField.setText("");
+                        bankSystem.setSession(result.getSession());
+                        bankSystem.showBankMenuPage();
+                    } else {
+                        JOptionPane.showMessageDialog(null, result.getMessage());
+                    }
+                });
+            }
+        });
+
+        createAccountButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showCreateAccountPage();
+            }
+        });
+
+        searchButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showSearchPage();
+            }
+        });
+
+        reportsButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showReportsPage();
+            }
+        });
+    }
+
+    public void setAccountNumber(String accountNumber) {
+        accountField.setText(accountNumber);
+        pinField.setText("");
+    }
+}
+
+class CreateAccountPage extends JPanel {
+    private JLabel nameLabel, accountLabel, pinLabel, balanceLabel;
+    private JTextField nameField, accountField, pinField, balanceField;
+    private JButton createButton, backButton;
+    private BankSystem bankSystem;
+
+    public CreateAccountPage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        nameLabel = new JLabel("Name:");
+        nameField = new JTextField(20);
+        accountLabel = new JLabel("Account Number:");
+        accountField = new JTextField(20);
+        pinLabel = new JLabel("PIN:");
+        pinField = new JTextField(20);
+        balanceLabel = new JLabel("Initial Balance:");
+        balanceField = new JTextField(20);
+        createButton = new JButton("Create Account");
+        backButton = new JButton("Back to Login");
+
+        // Layout setup
+        setLayout(new GridLayout(6, 2, 5, 10));
+        add(nameLabel);
+        add(nameField);
+        add(accountLabel);
+        add(accountField);
+        add(pinLabel);
+        add(pinField);
+        add(balanceLabel);
+        add(balanceField);
+        add(new JLabel());
+        add(createButton);
+        add(new JLabel());
+        add(backButton);
+        // Action listener for createButton
+        createButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Retrieve input values
+                String name = nameField.getText();
+                String accountNumber = accountField.getText();
+                String pin = pinField.getText();
+                long balance;
+                try {
+                    balance = Money.parse(balanceField.getText());
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(null, "Invalid initial balance.");
+                    return;
+                }
+
+                // Create a new bank account and log straight into it
+                bankSystem.submit(createButton, () -> {
+                    BankResult created = bankSystem.getService().createAccount(name, accountNumber, pin, balance);
+                    return created.isOk() ? bankSystem.getService().login(accountNumber, pin) : created;
+                }, result -> {
+                    // Display a confirmation or error message
+                    JOptionPane.showMessageDialog(null, result.isOk() ? "Account created successfully!" : result.getMessage());
+
+                    // Show the bank menu page
+                    if (result.isOk()) {
+                        bankSystem.setSession(result.getSession());
+                        bankSystem.showBankMenuPage();
+                    }
+                });
+            }
+        });
+
+        backButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showLoginPage();
+            }
+        });
+    }
+}
+
+class SearchPage extends JPanel {
+    private static final int LIMIT = 500;
+    private static final int BATCH = 50;
+
+    private JTextField nameField;
+    private JLabel statusLabel;
+    private DefaultListModel<String> resultModel;
+    private JList<String> resultList;
+    private JButton useButton, backButton;
+    private BankSystem bankSystem;
+
+    // Account numbers of the rows in resultModel
+    private ArrayList<String> accountNumbers = new ArrayList<>();
+    // Bumped by every new search; results of an older search are dropped and its walk stops
+    private final AtomicInteger generation = new AtomicInteger();
+
+    public SearchPage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        nameField = new JTextField(20);
+        statusLabel = new JLabel(" ");
+        resultModel = new DefaultListModel<>();
+        resultList = new JList<>(resultModel);
+        resultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        useButton = new JButton("Log In to Account");
+        backButton = new JButton("Back to Login");
+
+        // Layout setup
+        setLayout(new BorderLayout());
+        JPanel topPanel = new JPanel(new GridLayout(1, 2, 5, 5));
+        topPanel.add(new JLabel("Name or name prefix:"));
+        topPanel.add(nameField);
+        add(topPanel, BorderLayout.NORTH);
+        add(new JScrollPane(resultList), BorderLayout.CENTER);
+        JPanel bottomPanel = new JPanel(new GridLayout(2, 1, 5, 5));
+        bottomPanel.add(statusLabel);
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        buttonPanel.add(useButton);
+        buttonPanel.add(backButton);
+        bottomPanel.add(buttonPanel);
+        add(bottomPanel, BorderLayout.SOUTH);
+
+        // Search again on every change to the name
+        nameField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                search();
+            }
+        });
+
+        useButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                int row = resultList.getSelectedIndex();
+                if (row < 0) {
+                    JOptionPane.showMessageDialog(null, "Select an account first.");
+                    return;
+                }
+                bankSystem.showLoginPage(accountNumbers.get(row));
+            }
+        });
+
+        backButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showLoginPage();
+            }
+        });
+    }
+
+    // Method to run the search on the service pool, adding matches to the list a batch at a time as they are found
+    private void search() {
+        final int current = generation.incrementAndGet();
+        final String prefix = nameField.getText();
+        resultModel.clear();
+        accountNumbers.clear();
+        if (prefix.trim().isEmpty()) {
+            statusLabel.setText(" ");
+            return;
+        }
+        statusLabel.setText("Searching...");
+
+        bankSystem.getService().submit(() -> {
+            final ArrayList<BankAccount> batch = new ArrayList<>(BATCH);
+            int found = bankSystem.getService().searchByName(prefix, LIMIT, account -> {
+                batch.add(account);
+                if (batch.size() == BATCH) {
+                    addResults(current, new ArrayList<>(batch));
+                    batch.clear();
+                }
+                return generation.get() == current;
+            });
+            addResults(current, batch);
+            return BankResult.ok(null, found == LIMIT ? "Showing the first " + LIMIT + " matches." : found + " matching accounts.");
+        }).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+            if (generation.get() == current) {
+                statusLabel.setText(error != null ? "Search failed: " + error.getMessage() : result.getMessage());
+            }
+        }));
+    }
+
+    private void addResults(final int searched, final List<BankAccount> accounts) {
+        SwingUtilities.invokeLater(() -> {
+            if (generation.get() != searched) {
+                return;
+            }
+            for (BankAccount account : accounts) {
+                accountNumbers.add(account.getAccountNumber());
+                resultModel.addElement(account.getAccountNumber() + "  " + account.getName());
+            }
+        });
+    }
+}
+
+class BankMenuPage extends JPanel {
+    private JLabel welcomeLabel;
+    private JButton creditButton, debitButton, transferButton, checkBalanceButton, printPassbookButton, changePinButton, logoutButton, exitButton;
+    private BankSystem bankSystem;
+
+    public BankMenuPage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        welcomeLabel = new JLabel("", SwingConstants.CENTER);
+        creditButton = new JButton("Credit");
+        debitButton = new JButton("Debit");
+        transferButton = new JButton("Transfer");
+        checkBalanceButton = new JButton("Check Balance");
+        printPassbookButton = new JButton("Print Passbook");
+        changePinButton = new JButton("Change Password");
+        logoutButton = new JButton("Logout");
+        exitButton = new JButton("Exit");
+
+        // Layout setup
+        setLayout(new GridLayout(9, 1, 5, 5));
+        add(welcomeLabel);
+        add(creditButton);
+        add(debitButton);
+        add(transferButton);
+        add(checkBalanceButton);
+        add(printPassbookButton);
+        add(changePinButton);
+        add(logoutButton);
+        add(exitButton);
+
+        // Action listeners for buttons
+        creditButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showCreditPage();
+            }
+        });
+
+        debitButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showDebitPage();
+            }
+        });
+
+        transferButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showTransferPage();
+            }
+        });
+
+        checkBalanceButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showCheckBalancePage();
+            }
+        });
+
+        printPassbookButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showPrintPassbookPage();
+            }
+        });
+
+        changePinButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showChangePasswordPage();
+            }
+        });
+
+        logoutButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.setSession(null);
+                bankSystem.showLoginPage();
+            }
+        });
+
+        exitButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                System.exit(0);
+               // bankSystem.showCreateAccountPage();
+            }
+        });
+    }
+
+    // Method to show whose session the menu is working on
+    public void showSession(SessionStore.Session session) {
+        if (session != null) {
+            BankAccount account = session.getAccount();
+            welcomeLabel.setText("Logged in as " + account.getName() + " (" + account.getAccountNumber() + ")");
+        }
+    }
+}
+
+class CreditPage extends JPanel {
+    private JLabel amountLabel;
+    private JTextField amountField;
+    private JButton creditButton, backButton;
+    private BankSystem bankSystem;
+    // Sent with the credit so a retry after a failure or a double click is not applied twice;
+    // a new one is made whenever the amount changes
+    private String idempotencyKey;
+    private String keyedAmount;
+
+    public CreditPage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        amountLabel = new JLabel("Amount:");
+        amountField = new JTextField(20);
+        creditButton = new JButton("Credit");
+        backButton = new JButton("Back to Menu");
+
+        // Layout setup
+        setLayout(new GridLayout(3, 2, 5, 10));
+        add(amountLabel);
+        add(amountField);
+        add(new JLabel());
+        add(creditButton);
+        add(new JLabel());
+        add(backButton);
+
+        // Action listener for creditButton
+        creditButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Retrieve input values
+                SessionStore.Session session = bankSystem.getSession();
+                long amount;
+                try {
+                    amount = Money.parse(amountField.getText());
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(null, "Amount must be a positive number.");
+                    return;
+                }
+
+                if (!amountField.getText().equals(keyedAmount)) {
+                    idempotencyKey = UUID.randomUUID().toString();
+                    keyedAmount = amountField.getText();
+                }
+                String key = idempotencyKey;
+
+                // Credit the session's account on the service pool
+                bankSystem.submit(creditButton, () -> bankSystem.getService().credit(session, amount, key), result -> {
+                    // Display a confirmation or error message
+                    JOptionPane.showMessageDialog(null, result.getMessage());
+
+                    // Show the bank menu page
+                    if (result.isOk()) {
+                        keyedAmount = null;
+                        amountField.setText("");
+                        bankSystem.showBankMenuPage();
+                    }
+                });
+            }
+        });
+
+        backButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showBankMenuPage();
+            }
+        });
+    }
+}
+
+class DebitPage extends JPanel {
+    private JLabel amountLabel;
+    private JTextField amountField;
+    private JButton debitButton, backButton;
+    private BankSystem bankSystem;
+    // Sent with the debit so a retry is not applied twice, see CreditPage
+    private String idempotencyKey;
+    private String keyedAmount;
+
+    public DebitPage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        amountLabel = new JLabel("Amount:");
+        amountField = new JTextField(20);
+        debitButton = new JButton("Debit");
+        backButton = new JButton("Back to Menu");
+
+        // Layout setup
+        setLayout(new GridLayout(3, 2, 5, 10));
+        add(amountLabel);
+        add(amountField);
+        add(new JLabel());
+        add(debitButton);
+        add(new JLabel());
+        add(backButton);
+
+        // Action listener for debitButton
+        debitButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Retrieve input values
+                SessionStore.Session session = bankSystem.getSession();
+                long amount;
+                try {
+                    amount = Money.parse(amountField.getText());
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(null, "Amount must be a positive number.");
+                    return;
+                }
+
+                if (!amountField.getText().equals(keyedAmount)) {
+                    idempotencyKey = UUID.randomUUID().toString();
+                    keyedAmount = amountField.getText();
+                }
+                String key = idempotencyKey;
+
+                // Debit the session's account on the service pool
+                bankSystem.submit(debitButton, () -> bankSystem.getService().debit(session, amount, key), result -> {
+                    // Display a confirmation or error message
+                    JOptionPane.showMessageDialog(null, result.getMessage());
+
+                    // Show the bank menu page
+                    if (result.isOk()) {
+                        keyedAmount = null;
+                        amountField.setText("");
+                        bankSystem.showBankMenuPage();
+                    }
+                });
+            }
+        });
+
+        backButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showBankMenuPage();
+            }
+        });
+    }
+}
+
+class TransferPage extends JPanel {
+    private JLabel targetLabel, amountLabel;
+    private JTextField targetField, amountField;
+    private JButton transferButton, backButton;
+    private BankSystem bankSystem;
+    // Sent with the transfer so a retry is not applied twice, see CreditPage
+    private String idempotencyKey;
+    private String keyedRequest;
+
+    public TransferPage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        targetLabel = new JLabel("To Account Number:");
+        targetField = new JTextField(20);
+        amountLabel = new JLabel("Amount:");
+        amountField = new JTextField(20);
+        transferButton = new JButton("Transfer");
+        backButton = new JButton("Back to Menu");
+
+        // Layout setup
+        setLayout(new GridLayout(4, 2, 5, 10));
+        add(targetLabel);
+        add(targetField);
+        add(amountLabel);
+        add(amountField);
+        add(new JLabel());
+        add(transferButton);
+        add(new JLabel());
+        add(backButton);
+
+        // Action listener for transferButton
+        transferButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Retrieve input values
+                SessionStore.Session session = bankSystem.getSession();
+                String targetAccountNumber = targetField.getText();
+                long amount;
+                try {
+                    amount = Money.parse(amountField.getText());
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(null, "Amount must be a positive number.");
+                    return;
+                }
+
+                String request = targetAccountNumber + " " + amountField.getText();
+                if (!request.equals(keyedRequest)) {
+                    idempotencyKey = UUID.randomUUID().toString();
+                    keyedRequest = request;
+                }
+                String key = idempotencyKey;
+
+                // Move the money on the service pool
+                bankSystem.submit(transferButton, () -> bankSystem.getService().transfer(session, targetAccountNumber, amount, key), result -> {
+                    // Display a confirmation or error message
+                    JOptionPane.showMessageDialog(null, result.getMessage());
+
+                    // Show the bank menu page
+                    if (result.isOk()) {
+                        keyedRequest = null;
+                        targetField.setText("");
+                        amountField.setText("");
+                        bankSystem.showBankMenuPage();
+                    }
+                });
+            }
+        });
+
+        backButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showBankMenuPage();
+            }
+        });
+    }
+}
+
+class CheckBalancePage extends JPanel {
+    private JLabel balanceLabel;
+    private JButton checkBalanceButton, backButton;
+    private BankSystem bankSystem;
+
+    public CheckBalancePage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        balanceLabel = new JLabel();
+        checkBalanceButton = new JButton("Check Balance");
+        backButton = new JButton("Back to Menu");
+
+        // Layout setup
+        setLayout(new GridLayout(3, 2, 5, 10));
+        add(new JLabel());
+        add(checkBalanceButton);
+        add(new JLabel());
+        add(balanceLabel);
+        add(new JLabel());
+        add(backButton);
+
+        // Action listener for checkBalanceButton
+        checkBalanceButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                SessionStore.Session session = bankSystem.getSession();
+
+                bankSystem.submit(checkBalanceButton, () -> bankSystem.getService().checkBalance(session), result -> {
+                    if (result.isOk()) {
+                        // Display account balance
+                        balanceLabel.setText(result.getMessage());
+                    } else {
+                        // Display an error message
+                        JOptionPane.showMessageDialog(null, result.getMessage());
+                    }
+                });
+            }
+        });
+
+        // Action listener for backButton
+        backButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                clear();
+                bankSystem.showBankMenuPage();
+            }
+        });
+    }
+
+    public void clear() {
+        balanceLabel.setText("");
+    }
+}
+
+class ChangePasswordPage extends JPanel {
+    private JLabel currentPinLabel, newPinLabel;
+    private JTextField currentPinField, newPinField;
+    private JButton changePinButton, backButton;
+    private BankSystem bankSystem;
+
+    public ChangePasswordPage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        currentPinLabel = new JLabel("Current PIN:");
+        currentPinField = new JTextField(20);
+        newPinLabel = new JLabel("New PIN:");
+        newPinField = new JTextField(20);
+        changePinButton = new JButton("Change PIN");
+        backButton = new JButton("Back to Menu");
+
+        // Layout setup
+        setLayout(new GridLayout(4, 2, 5, 10));
+        add(currentPinLabel);
+        add(currentPinField);
+        add(newPinLabel);
+        add(newPinField);
+        add(new JLabel());
+        add(changePinButton);
+        add(new JLabel());
+        add(backButton);
+
+        // Action listener for changePinButton
+        changePinButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Retrieve input values
+                SessionStore.Session session = bankSystem.getSession();
+                String currentPin = currentPinField.getText();
+                String newPin = newPinField.getText();
+
+                bankSystem.submit(changePinButton, () -> bankSystem.getService().changePin(session, currentPin, newPin), result -> {
+                    // Display a confirmation or error message
+                    JOptionPane.showMessageDialog(null, result.getMessage());
+
+                    if (result.isOk()) {
+                        // Clear input fields
+                        currentPinField.setText("");
+                        newPinField.setText("");
+
+                        // Show the bank menu page
+                        bankSystem.showBankMenuPage();
+                    }
+                });
+            }
+        });
+
+        backButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showBankMenuPage();
+            }
+        });
+    }
+}
+
+class PrintPassbookPage extends JPanel {
+    private static final int PAGE_SIZE = 50;
+
+    private JTextField fromField, toField;
+    private JButton printButton, newerButton, olderButton, backButton;
+    private JLabel pageLabel;
+    private JTextArea passbookTextArea;
+    private BankSystem bankSystem;
+
+    // Statement being browsed: pages already rendered are kept so paging back is free
+    private StatementCursor cursor;
+    private String header;
+    private ArrayList<String> pages = new ArrayList<>();
+    private int currentPage;
+
+    public PrintPassbookPage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        fromField = new JTextField(20);
+        toField = new JTextField(20);
+        printButton = new JButton("Print");
+        newerButton = new JButton("< Newer");
+        olderButton = new JButton("Older >");
+        backButton = new JButton("Back to Menu");
+        pageLabel = new JLabel();
+        passbookTextArea = new JTextArea(10, 30);
+        passbookTextArea.setEditable(false);
+        newerButton.setEnabled(false);
+        olderButton.setEnabled(false);
+
+        // Layout setup
+        setLayout(new BorderLayout());
+        JPanel topPanel = new JPanel(new GridLayout(2, 2, 5, 5));
+        topPanel.add(new JLabel("From (yyyy-mm-dd, optional):"));
+        topPanel.add(fromField);
+        topPanel.add(new JLabel("To (yyyy-mm-dd, optional):"));
+        topPanel.add(toField);
+        add(topPanel, BorderLayout.NORTH);
+        add(new JScrollPane(passbookTextArea), BorderLayout.CENTER);
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        buttonPanel.add(printButton);
+        buttonPanel.add(newerButton);
+        buttonPanel.add(pageLabel);
+        buttonPanel.add(olderButton);
+        buttonPanel.add(backButton);
+        add(buttonPanel, BorderLayout.SOUTH);
+
+        // Action listeners
+        printButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                printPassbook(bankSystem.getSession());
+            }
+        });
+
+        newerButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (currentPage > 0) {
+                    showPage(currentPage - 1);
+                }
+            }
+        });
+
+        olderButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (currentPage + 1 < pages.size()) {
+                    showPage(currentPage + 1);
+                } else if (cursor != null && cursor.hasMore()) {
+                    loadNextPage();
+                }
+            }
+        });
+
+        backButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                bankSystem.showBankMenuPage();
+            }
+        });
+    }
+
+    private void printPassbook(SessionStore.Session session) {
+        long from;
+        long to;
+        try {
+            from = fromField.getText().trim().isEmpty() ? Long.MIN_VALUE : startOfDay(fromField.getText(), 0);
+            to = toField.getText().trim().isEmpty() ? Long.MAX_VALUE : startOfDay(toField.getText(), 1) - 1;
+        } catch (DateTimeParseException ex) {
+            JOptionPane.showMessageDialog(null, "Dates must look like 2024-01-31.");
+            return;
+        }
+
+        // Opening the cursor skips everything newer than the range, which can mean reading compacted
+        // ledger blocks, so it is opened and its first page rendered on the service pool too
+        final StatementCursor[] opened = new StatementCursor[1];
+        bankSystem.submit(printButton, () -> {
+            BankResult statement = bankSystem.getService().statement(session);
+            if (!statement.isOk()) {
+                return statement;
+            }
+            BankAccount account = statement.getAccount();
+            opened[0] = new StatementCursor(account.getTransactions(to), from, to);
+            return BankResult.ok(account, bankSystem.getService().statementPage(opened[0], PAGE_SIZE));
+        }, result -> {
+            if (result.isOk()) {
+                BankAccount account = result.getAccount();
+                header = "Account Number: " + account.getAccountNumber() + "\n"
+                        + "Name: " + account.getName() + "\n"
+                        + "Initial Balance: $" + Money.format(account.getBalance()) + "\n\n"
+                        + "Transactions (newest first):\n";
+                cursor = opened[0];
+                pages.clear();
+                pages.add(result.getMessage());
+                showPage(0);
+            } else {
+                JOptionPane.showMessageDialog(null, result.getMessage());
+            }
+        });
+    }
+
+    // Method to render the next page on the service pool; only that page's transactions are read
+    private void loadNextPage() {
+        final StatementCursor statement = cursor;
+        bankSystem.submit(olderButton, () -> BankResult.ok(null, bankSystem.getService().statementPage(statement, PAGE_SIZE)), result -> {
+            // Ignore pages of a statement that has been replaced by a newer print
+            if (statement == cursor) {
+                pages.add(result.getMessage());
+                showPage(pages.size() - 1);
+            }
+        });
+    }
+
+    // Method to drop the statement on screen, e.g. when the session ends
+    public void clear() {
+        cursor = null;
+        header = null;
+        pages.clear();
+        passbookTextArea.setText("");
+        pageLabel.setText("");
+        newerButton.setEnabled(false);
+        olderButton.setEnabled(false);
+    }
+
+    private void showPage(int page) {
+        currentPage = page;
+        passbookTextArea.setText(header + pages.get(page));
+        passbookTextArea.setCaretPosition(0);
+        pageLabel.setText("Page " + (page + 1));
+        newerButton.setEnabled(page > 0);
+        olderButton.setEnabled(page + 1 < pages.size() || cursor.hasMore());
+    }
+
+    // Returns the start of the given day (plus dayOffset days) in epoch millis
+    private static long startOfDay(String text, int dayOffset) {
+        return LocalDate.parse(text.trim()).plusDays(dayOffset).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
+
+// Admin page for the pre-aggregated totals: deposits, debits, transfers, interest and fees
+// of the whole bank or of one account, for a day or a month
+class ReportsPage extends JPanel {
+    private JTextField periodField, accountField;
+    private JButton showButton, backButton;
+    private JTextArea reportTextArea;
+    private BankSystem bankSystem;
+
+    public ReportsPage(BankSystem bankSystem) {
+        this.bankSystem = bankSystem;
+
+        // Initialize components
+        periodField = new JTextField(LocalDate.now().toString(), 20);
+        accountField = new JTextField(20);
+        showButton = new JButton("Show Totals");
+        backButton = new JButton("Back to Login");
+        reportTextArea = new JTextArea(10, 30);
+        reportTextArea.setEditable(false);
+        reportTextArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+
+        // Layout setup
+        setLayout(new BorderLayout());
+        JPanel topPanel = new JPanel(new GridLayout(2, 2, 5, 5));
+        topPanel.add(new JLabel("Day or month (yyyy-mm-dd, yyyy-mm):"));
+        topPanel.add(periodField);
+        topPanel.add(new JLabel("Account (empty for the whole bank):"));
+        topPanel.add(accountField);
+        add(topPanel, BorderLayout.NORTH);
+        add(new JScrollPane(reportTextArea), BorderLayout.CENTER);
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        buttonPanel.add(showButton);
+        buttonPanel.add(backButton);
+        add(buttonPanel, BorderLayout.SOUTH);
+
+        // Action listeners
+        showButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                showTotals();
+            }
+        });
+
+        backButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                reportTextArea.setText("");
+                bankSystem.showLoginPage();
+            }
+        });
+    }
+
+    private void showTotals() {
+        final String period = periodField.getText().trim();
+        final String accountNumber = accountField.getText().trim();
+        try {
+            if (period.length() <= 7) {
+                YearMonth.parse(period);
+            } else {
+                LocalDate.parse(period);
+            }
+        } catch (DateTimeParseException ex) {
+            JOptionPane.showMessageDialog(null, "Enter a day like 2024-01-31 or a month like 2024-01.");
+            return;
+        }
+
+        bankSystem.submit(showButton, () -> {
+            BankService service = bankSystem.getService();
+            TransactionSummary.Totals totals = accountNumber.isEmpty() ? service.bankTotals(period) : service.accountTotals(accountNumber, period);
+            if (totals == null) {
+                return BankResult.error(BankResult.Status.INVALID_TARGET, "Account not found.");
+            }
+            return BankResult.ok(null, (accountNumber.isEmpty() ? "Whole bank" : "Account " + accountNumber) + ", " + totals.getPeriod()
+                    + "\n\nType             Count  Total\n" + totals.format());
+        }, result -> {
+            if (result.isOk()) {
+                reportTextArea.setText(result.getMessage());
+                reportTextArea.setCaretPosition(0);
+            } else {
+                JOptionPane.showMessageDialog(null, result.getMessage());
+            }
+        });
+    }
+}
@@ -0,0 +1,79 @@
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Bank-wide totals per transaction type for every day, kept by the ledger as each record
+// is appended, so "all deposits today" is a lookup rather than a walk over every
+// account's history; a month is the sum of its at most 31 days. They are rebuilt from
+// the ledger's records when it is recovered, before anything is appended. Every append
+// from every thread lands in the same day's counters, so they are LongAdders, as in Metrics.
+class BankTotals {
+    private final ConcurrentHashMap<Long, LongAdder[]> days = new ConcurrentHashMap<>();
+    private volatile Today today = new Today(null, null);
+
+    // The day the last transaction fell in and its counters, so the common append finds them without a map lookup
+    private static class Today {
+        final TransactionSummary.Period period;
+        final LongAdder[] cells;
+
+        Today(TransactionSummary.Period period, LongAdder[] cells) {
+            this.period = period;
+            this.cells = cells;
+        }
+    }
+
+    // Method to add one transaction; safe to call from any thread
+    public void record(byte type, long amount, long millis) {
+        TransactionSummary.Period period = TransactionSummary.Period.of(millis);
+        Today current = today;
+        if (current.period != period) {
+            current = new Today(period, days.computeIfAbsent(period.day, key -> newCells()));
+            today = current;
+        }
+        current.cells[type].increment();
+        current.cells[TransactionLedger.TYPE_COUNT + type].add(amount);
+    }
+
+    // Method to get the totals of a day as yyyy-mm-dd or a month as yyyy-mm
+    public TransactionSummary.Totals totals(String period) {
+        long[] values = new long[2 * TransactionLedger.TYPE_COUNT];
+        try {
+            if (period.length() <= 7) {
+                YearMonth month = YearMonth.parse(period);
+                for (int day = 1; day <= month.lengthOfMonth(); day++) {
+                    addTo(values, days.get(month.atDay(day).toEpochDay()));
+                }
+                return new TransactionSummary.Totals(month.toString(), values);
+            }
+            LocalDate day = LocalDate.parse(period);
+            addTo(values, days.get(day.toEpochDay()));
+            return new TransactionSummary.Totals(day.toString(), values);
+        } catch (DateTimeParseException e) {
+            throw TransactionSummary.badPeriod(period);
+        }
+    }
+
+    public void clear() {
+        days.clear();
+        today = new Today(null, null);
+    }
+
+    // Counts per type code at [type], totals at [TYPE_COUNT + type]
+    private static LongAdder[] newCells() {
+        LongAdder[] cells = new LongAdder[2 * TransactionLedger.TYPE_COUNT];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = new LongAdder();
+        }
+        return cells;
+    }
+
+    private static void addTo(long[] values, LongAdder[] cells) {
+        if (cells != null) {
+            for (int i = 0; i < values.length; i++) {
+                values[i] += cells[i].sum();
+            }
+        }
+    }
+}
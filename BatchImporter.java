@@ -0,0 +1,273 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Bulk credits and debits from payroll and settlement files. The file is streamed in
+// batches; each batch is validated, split into partitions by account so that one worker
+// owns every line for a given account (keeping their order), applied in parallel and
+// then made durable with a single wait on the journal. Back-office files are trusted,
+// so no PIN is checked.
+//
+// Input is one transaction per line, either CSV "type,account,amount" (type CREDIT or
+// DEBIT, an optional header line starting with "type") or fixed width: type in column 1
+// (C or D), account in columns 2-21, amount from column 22. Blank lines and lines
+// starting with # are skipped. The report has one "line,status,message" row per input line.
+class BatchImporter {
+    private static final byte OK = 0;
+    private static final byte INVALID_LINE = 1;
+    private static final byte UNKNOWN_ACCOUNT = 2;
+    private static final byte INSUFFICIENT_BALANCE = 3;
+    private static final byte INVALID_AMOUNT = 4;
+    private static final String[] STATUS_NAMES = {"OK", "INVALID_LINE", "UNKNOWN_ACCOUNT", "INSUFFICIENT_BALANCE", "INVALID_AMOUNT"};
+
+    private static final int FIXED_TYPE_WIDTH = 1;
+    private static final int FIXED_ACCOUNT_WIDTH = 20;
+
+    private final BankService service;
+    private final int batchSize;
+    private final int partitions;
+    private final ExecutorService workers;
+
+    // Totals of the last run
+    private long applied;
+    private long rejected;
+
+    public BatchImporter(BankService service, int batchSize, int partitions) {
+        this.service = service;
+        this.batchSize = batchSize;
+        this.partitions = partitions;
+        this.workers = Executors.newFixedThreadPool(partitions, r -> {
+            Thread thread = new Thread(r, "batch-import");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // One batch worth of parsed lines; errors found while parsing are recorded straight into status
+    private static class Batch {
+        final boolean[] credit;
+        final String[] account;
+        final long[] amount;
+        final byte[] status;
+        final String[] detail;
+
+        Batch(int size) {
+            this.credit = new boolean[size];
+            this.account = new String[size];
+            this.amount = new long[size];
+            this.status = new byte[size];
+            this.detail = new String[size];
+        }
+    }
+
+    // Method to import the file and write the per-line report, returns a one-line summary
+    public String importFile(Path input, Path report) throws IOException {
+        long start = System.nanoTime();
+        applied = 0;
+        rejected = 0;
+        try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter out = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+            out.write("line,status,message\n");
+            long lineNumber = 0;
+            List<String> lines = new ArrayList<>(batchSize);
+            long[] numbers = new long[batchSize];
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#") || (lineNumber == 1 && trimmed.toLowerCase().startsWith("type"))) {
+                    continue;
+                }
+                numbers[lines.size()] = lineNumber;
+                lines.add(line);
+                if (lines.size() == batchSize) {
+                    runBatch(lines, numbers, out);
+                    lines.clear();
+                }
+            }
+            if (!lines.isEmpty()) {
+                runBatch(lines, numbers, out);
+            }
+        }
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return String.format("Imported %d transactions, rejected %d, in %d ms (%d tx/s)",
+                applied, rejected, millis, (applied + rejected) * 1000 / millis);
+    }
+
+    private void runBatch(List<String> lines, long[] numbers, Writer out) throws IOException {
+        int size = lines.size();
+        Batch batch = new Batch(size);
+        for (int i = 0; i < size; i++) {
+            parse(lines.get(i), batch, i);
+        }
+
+        // Partition by account so each account's lines are applied by one worker, in file order
+        int[][] owned = new int[partitions][];
+        int[] counts = new int[partitions];
+        int[] partitionOf = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (batch.status[i] == OK) {
+                partitionOf[i] = Math.floorMod(batch.account[i].hashCode(), partitions);
+                counts[partitionOf[i]]++;
+            }
+        }
+        for (int p = 0; p < partitions; p++) {
+            owned[p] = new int[counts[p]];
+            counts[p] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            if (batch.status[i] == OK) {
+                owned[partitionOf[i]][counts[partitionOf[i]]++] = i;
+            }
+        }
+
+        List<Future<Long>> results = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            final int[] indexes = owned[p];
+            results.add(workers.submit(() -> applyPartition(batch, indexes)));
+        }
+        long lastSeq = 0;
+        for (Future<Long> result : results) {
+            try {
+                lastSeq = Math.max(lastSeq, result.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Import interrupted", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Import failed", e.getCause());
+            }
+        }
+        // One durability wait covers the whole batch
+        service.awaitDurable(lastSeq);
+
+        StringBuilder sb = new StringBuilder(64);
+        for (int i = 0; i < size; i++) {
+            sb.setLength(0);
+            sb.append(numbers[i]).append(',').append(STATUS_NAMES[batch.status[i]]);
+            if (batch.detail[i] != null) {
+                sb.append(',').append(batch.detail[i].replace(',', ' '));
+            }
+            sb.append('\n');
+            out.write(sb.toString());
+            if (batch.status[i] == OK) {
+                applied++;
+            } else {
+                rejected++;
+            }
+        }
+    }
+
+    // Returns the highest journal sequence written by this partition
+    private long applyPartition(Batch batch, int[] indexes) {
+        AccountRegistry registry = service.getRegistry();
+        long lastSeq = 0;
+        for (int i : indexes) {
+            BankAccount account = registry.findAccount(batch.account[i]);
+            if (account == null) {
+                batch.status[i] = UNKNOWN_ACCOUNT;
+                continue;
+            }
+            long seq;
+            if (batch.credit[i]) {
+                try {
+                    seq = service.applyCredit(account, batch.amount[i], null);
+                } catch (ArithmeticException e) {
+                    batch.status[i] = INVALID_AMOUNT;
+                    continue;
+                }
+            } else {
+                seq = service.applyDebit(account, batch.amount[i], null);
+                if (seq < 0) {
+                    batch.status[i] = INSUFFICIENT_BALANCE;
+                    continue;
+                }
+            }
+            lastSeq = Math.max(lastSeq, seq);
+        }
+        return lastSeq;
+    }
+
+    private static void parse(String line, Batch batch, int i) {
+        String type;
+        String account;
+        String amount;
+        int firstComma = line.indexOf(',');
+        if (firstComma >= 0) {
+            int secondComma = line.indexOf(',', firstComma + 1);
+            if (secondComma < 0 || line.indexOf(',', secondComma + 1) >= 0) {
+                reject(batch, i, INVALID_LINE, "expected type,account,amount");
+                return;
+            }
+            type = line.substring(0, firstComma).trim();
+            account = line.substring(firstComma + 1, secondComma).trim();
+            amount = line.substring(secondComma + 1);
+        } else {
+            if (line.length() <= FIXED_TYPE_WIDTH + FIXED_ACCOUNT_WIDTH) {
+                reject(batch, i, INVALID_LINE, "fixed-width line too short");
+                return;
+            }
+            type = line.substring(0, FIXED_TYPE_WIDTH);
+            account = line.substring(FIXED_TYPE_WIDTH, FIXED_TYPE_WIDTH + FIXED_ACCOUNT_WIDTH).trim();
+            amount = line.substring(FIXED_TYPE_WIDTH + FIXED_ACCOUNT_WIDTH);
+        }
+
+        if (type.equalsIgnoreCase("CREDIT") || type.equalsIgnoreCase("C")) {
+            batch.credit[i] = true;
+        } else if (type.equalsIgnoreCase("DEBIT") || type.equalsIgnoreCase("D")) {
+            batch.credit[i] = false;
+        } else {
+            reject(batch, i, INVALID_LINE, "unknown type " + type);
+            return;
+        }
+        if (account.isEmpty()) {
+            reject(batch, i, INVALID_LINE, "missing account");
+            return;
+        }
+        batch.account[i] = account;
+        try {
+            batch.amount[i] = Money.parse(amount);
+        } catch (NumberFormatException e) {
+            reject(batch, i, INVALID_AMOUNT, e.getMessage());
+            return;
+        }
+        if (batch.amount[i] <= 0) {
+            reject(batch, i, INVALID_AMOUNT, "amount must be positive");
+        }
+    }
+
+    private static void reject(Batch batch, int i, byte status, String detail) {
+        batch.status[i] = status;
+        batch.detail[i] = detail;
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    // Offline bulk load: BatchImporter <input> <report>, against the data directory of -Dbank.dataDir
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BatchImporter <input file> <report file>");
+            System.exit(1);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        BankService service = BankService.open(threads);
+        System.out.println(service.getStartupReport());
+        BatchImporter importer = new BatchImporter(service, Integer.getInteger("bank.import.batchSize", 50_000), threads);
+        System.out.println(importer.importFile(Paths.get(args[0]), Paths.get(args[1])));
+        importer.shutdown();
+        service.shutdown();
+    }
+}
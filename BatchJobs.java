@@ -0,0 +1,311 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Recurring batch jobs over every account: daily interest, the monthly fee and the monthly
+// statement cut-off. A job run splits the accounts into fixed buckets by account number
+// and works through them on its own fork-join pool, taking each account's monitor only
+// for that account, so live operations carry on while it runs.
+//
+// Runs are resumable. A bucket is recorded in the run's checkpoint file once everything
+// it posted is durable, and a resumed run skips those buckets. Inside a bucket left
+// half-done by a crash, each account remembers the last run that posted to it, so no
+// account is paid interest or charged a fee twice.
+//
+// A run is named by the period it covers: yyyymmdd of the day for interest, yyyymm of the
+// month for fees and cut-offs. The scheduler runs each job for every finished period since
+// its last completed run, oldest first.
+class BatchJobs {
+    enum Job {
+        INTEREST("interest"),
+        FEE("fee"),
+        STATEMENT_CUTOFF("cutoff");
+
+        final String label;
+
+        Job(String label) {
+            this.label = label;
+        }
+
+        static Job forLabel(String label) {
+            for (Job job : values()) {
+                if (job.label.equals(label)) {
+                    return job;
+                }
+            }
+            throw new IllegalArgumentException("Unknown job " + label + ", expected interest, fee or cutoff");
+        }
+    }
+
+    private static final int BUCKETS = 1024;
+
+    private final BankService service;
+    private final Path directory;
+    private final ForkJoinPool pool;
+    private final long interestBasisPoints;
+    private final long monthlyFee;
+    // One run at a time, whether scheduled or started by hand
+    private final Object runLock = new Object();
+    private ScheduledExecutorService scheduler;
+
+    // Checkpoints and statements go to the directory; without one, runs cannot be resumed or cut statements
+    public BatchJobs(BankService service, Path directory, int parallelism, long interestBasisPoints, long monthlyFee) {
+        this.service = service;
+        this.directory = directory;
+        this.pool = new ForkJoinPool(parallelism);
+        this.interestBasisPoints = interestBasisPoints;
+        this.monthlyFee = monthlyFee;
+    }
+
+    // Method to create the jobs from -Dbank.jobs.parallelism (default half the processors),
+    // -Dbank.interest.annualPercent (default 0, e.g. 2.5) and -Dbank.fees.monthly (default 0, e.g. 1.50)
+    public static BatchJobs fromSystemProperties(BankService service, Path directory) {
+        int parallelism = Integer.getInteger("bank.jobs.parallelism", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        long basisPoints = new BigDecimal(System.getProperty("bank.interest.annualPercent", "0")).movePointRight(2).longValueExact();
+        long fee = Money.parse(System.getProperty("bank.fees.monthly", "0"));
+        return new BatchJobs(service, directory, parallelism, basisPoints, fee);
+    }
+
+    // Method to check for due runs now and then every checkSeconds, finishing any interrupted run first
+    public void start(long checkSeconds) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batch-jobs");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                runDue();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Batch job failed: " + e.getMessage());
+            }
+        }, 0, checkSeconds, TimeUnit.SECONDS);
+    }
+
+    private void runDue() throws IOException {
+        for (Job job : Job.values()) {
+            if (job == Job.INTEREST && interestBasisPoints == 0 || job == Job.FEE && monthlyFee == 0) {
+                continue;
+            }
+            // Runs go in order, so an interrupted run is always the next one and resumes here
+            long latest = latestRun(job, LocalDate.now());
+            long last = lastCompletedRun(job);
+            for (long run = last == 0 ? latest : nextRun(job, last); run <= latest; run = nextRun(job, run)) {
+                run(job, run);
+            }
+        }
+    }
+
+    // The latest finished period: yesterday for interest, last month for the others
+    static long latestRun(Job job, LocalDate today) {
+        if (job == Job.INTEREST) {
+            LocalDate day = today.minusDays(1);
+            return day.getYear() * 10_000L + day.getMonthValue() * 100 + day.getDayOfMonth();
+        }
+        LocalDate month = today.minusMonths(1);
+        return month.getYear() * 100L + month.getMonthValue();
+    }
+
+    // The period after the given run
+    static long nextRun(Job job, long run) {
+        if (job == Job.INTEREST) {
+            LocalDate day = LocalDate.of((int) (run / 10_000), (int) (run / 100 % 100), (int) (run % 100)).plusDays(1);
+            return day.getYear() * 10_000L + day.getMonthValue() * 100 + day.getDayOfMonth();
+        }
+        LocalDate month = LocalDate.of((int) (run / 100), (int) (run % 100), 1).plusMonths(1);
+        return month.getYear() * 100L + month.getMonthValue();
+    }
+
+    // Method to run a job for the given period, picking up from its checkpoint if it was interrupted.
+    // Returns a one-line summary with the time it took; every run is also timed in the service's metrics.
+    public String run(Job job, long run) throws IOException {
+        if (job == Job.STATEMENT_CUTOFF && directory == null) {
+            throw new IllegalStateException("Statement cut-off needs a data directory");
+        }
+        synchronized (runLock) {
+            long start = System.nanoTime();
+            Path checkpointFile = directory == null ? null : directory.resolve(job.label + "-" + run + ".checkpoint");
+            BitSet done = checkpointFile != null && Files.exists(checkpointFile)
+                    ? BitSet.valueOf(Files.readAllBytes(checkpointFile)) : new BitSet(BUCKETS);
+            int resumedBuckets = done.cardinality();
+            Path statements = null;
+            if (job == Job.STATEMENT_CUTOFF) {
+                statements = directory.resolve("statements-" + run);
+                Files.createDirectories(statements);
+            }
+
+            List<List<BankAccount>> buckets = partition(done);
+            long split = System.nanoTime();
+            Run state = new Run(job, run, buckets, done, checkpointFile, statements);
+            try {
+                pool.invoke(new BucketTask(state, 0, BUCKETS));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            if (directory != null) {
+                writeAtomically(directory.resolve(job.label + ".last"), Long.toString(run).getBytes(StandardCharsets.UTF_8));
+                Files.deleteIfExists(checkpointFile);
+            }
+            long end = System.nanoTime();
+            service.getMetrics().record(Metrics.Operation.BATCH_JOB, start);
+            return String.format("Job %s run %d: %d accounts, %d changed in %d ms (%d ms to split into buckets%s)",
+                    job.label, run, state.accounts.sum(), state.changed.sum(), TimeUnit.NANOSECONDS.toMillis(end - start),
+                    TimeUnit.NANOSECONDS.toMillis(split - start),
+                    resumedBuckets > 0 ? ", resumed with " + resumedBuckets + " of " + BUCKETS + " buckets done" : "");
+        }
+    }
+
+    // Method to return the last run of the job that finished, 0 if none has
+    public long lastCompletedRun(Job job) throws IOException {
+        if (directory == null) {
+            return 0;
+        }
+        Path file = directory.resolve(job.label + ".last");
+        return Files.exists(file) ? Long.parseLong(new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim()) : 0;
+    }
+
+    // Buckets are by account number hash, so they hold the same accounts after a restart
+    private List<List<BankAccount>> partition(BitSet done) {
+        List<List<BankAccount>> buckets = new ArrayList<>(BUCKETS);
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (BankAccount account : service.getRegistry().getAccounts()) {
+            int bucket = Math.floorMod(account.getAccountNumber().hashCode(), BUCKETS);
+            if (!done.get(bucket)) {
+                buckets.get(bucket).add(account);
+            }
+        }
+        return buckets;
+    }
+
+    // Shared state of one run
+    private static class Run {
+        final Job job;
+        final long run;
+        final List<List<BankAccount>> buckets;
+        final BitSet done;
+        final Path checkpointFile;
+        final Path statements;
+        final LongAdder accounts = new LongAdder();
+        final LongAdder changed = new LongAdder();
+
+        Run(Job job, long run, List<List<BankAccount>> buckets, BitSet done, Path checkpointFile, Path statements) {
+            this.job = job;
+            this.run = run;
+            this.buckets = buckets;
+            this.done = done;
+            this.checkpointFile = checkpointFile;
+            this.statements = statements;
+        }
+    }
+
+    private class BucketTask extends RecursiveAction {
+        private final Run state;
+        private final int from;
+        private final int to;
+
+        BucketTask(Run state, int from, int to) {
+            this.state = state;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BucketTask(state, from, middle), new BucketTask(state, middle, to));
+                return;
+            }
+            synchronized (state.done) {
+                if (state.done.get(from)) {
+                    return;
+                }
+            }
+            try {
+                processBucket(state, from);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void processBucket(Run state, int bucket) throws IOException {
+        List<BankAccount> accounts = state.buckets.get(bucket);
+        long lastSeq = 0;
+        long changed = 0;
+        if (state.job == Job.STATEMENT_CUTOFF) {
+            changed = writeStatements(accounts, state.statements.resolve(String.format("part-%04d.csv", bucket)));
+        } else {
+            for (BankAccount account : accounts) {
+                long seq = state.job == Job.INTEREST
+                        ? service.applyInterest(account, interestBasisPoints, state.run)
+                        : service.applyFee(account, monthlyFee, state.run);
+                if (seq != BankService.NOT_POSTED) {
+                    changed++;
+                    lastSeq = Math.max(lastSeq, seq);
+                }
+            }
+        }
+        // The bucket only counts as done once what it posted is on disk
+        service.awaitDurable(lastSeq);
+        state.accounts.add(accounts.size());
+        state.changed.add(changed);
+        if (state.checkpointFile != null) {
+            synchronized (state.done) {
+                state.done.set(bucket);
+                writeAtomically(state.checkpointFile, state.done.toByteArray());
+            }
+        }
+    }
+
+    // One "account,name,closing balance,transactions" line per account, each read under its monitor
+    private static long writeStatements(List<BankAccount> accounts, Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        StringBuilder line = new StringBuilder(96);
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (BankAccount account : accounts) {
+                line.setLength(0);
+                synchronized (account) {
+                    line.append(account.getAccountNumber()).append(',').append(account.getName().replace(',', ' ')).append(',');
+                    Money.appendTo(line, account.getBalance());
+                    line.append(',').append(account.getTransactionCount()).append('\n');
+                }
+                out.write(line.toString());
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return accounts.size();
+    }
+
+    private void writeAtomically(Path file, byte[] content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, content);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,419 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// A ledger segment compacted to disk (ledger-<n>.cold). Its records are regrouped into
+// fragments: each fragment is one account's consecutive records within the segment,
+// newest first, starting at a record referenced from outside the segment (an account's
+// newest record, or the previous record of a record in a later segment). Fragments are
+// written in order of their first record's offset and packed into blocks of
+// BLOCK_RECORDS records, each deflated on its own, so walking an old history reads a few
+// neighbouring blocks instead of one scattered record per mapped page. Records keep their
+// ledger offsets, so nothing pointing into the segment changes when it is compacted.
+//
+// Each block's entry in the sparse index, kept in memory, holds its file position, the
+// offset of its first record, the last fragment started in or before it, where in it the
+// first fragment starts, and its oldest timestamp. Finding a fragment is a binary search
+// plus decoding one block; a date-bounded walk skips blocks wholly newer than it needs.
+//
+// File layout: "BANKCLD1"[long first offset][long end offset], blocks of [int raw length]
+// [deflate bytes], then the index: [int blocks][long records]{[int position][long first
+// offset][long last fragment][int first fragment start][long oldest millis]}[int end of
+// blocks], then [int index length]"BANKCLD1".
+// Block records: [byte type, 0x80 if it starts a fragment][varint distance in records from
+// the previous fragment start in the block, only if it starts one][zigzag varint amount]
+// [zigzag varint nanos before the previous record in the block][varint reference][varint
+// distance in records back to the previous record, 0 for none].
+class ColdSegment {
+    static final int BLOCK_RECORDS = 256;
+    private static final byte[] MAGIC = "BANKCLD1".getBytes(StandardCharsets.US_ASCII);
+    private static final int STARTS_FRAGMENT = 0x80;
+    private static final int NO_START = BLOCK_RECORDS;
+    private static final int HEADER = MAGIC.length + 16;
+
+    private final Path file;
+    private final long start;
+    private final ByteBuffer data;
+    private final long records;
+    private final int blocks;
+    // Per block; positions has one more entry, the end of the last block
+    private final int[] positions;
+    private final long[] firstOffsets;
+    private final long[] lastFragments;
+    private final int[] firstStarts;
+    private final long[] oldestMillis;
+
+    private ColdSegment(Path file, long start, ByteBuffer data, long records, int[] positions, long[] firstOffsets,
+                        long[] lastFragments, int[] firstStarts, long[] oldestMillis) {
+        this.file = file;
+        this.start = start;
+        this.data = data;
+        this.records = records;
+        this.blocks = firstOffsets.length;
+        this.positions = positions;
+        this.firstOffsets = firstOffsets;
+        this.lastFragments = lastFragments;
+        this.firstStarts = firstStarts;
+        this.oldestMillis = oldestMillis;
+    }
+
+    static Path file(Path directory, int index) {
+        return directory.resolve(String.format("ledger-%06d.cold", index));
+    }
+
+    // Method to open a cold segment file, checking it holds the segment starting at the given offset
+    public static ColdSegment open(Path file, long start) throws IOException {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int size = data.capacity();
+        if (size < HEADER + 4 + MAGIC.length || !hasMagic(data, 0) || !hasMagic(data, size - MAGIC.length)
+                || data.getLong(MAGIC.length) != start) {
+            throw new IOException("Not a cold ledger segment starting at " + start + ": " + file);
+        }
+        ByteBuffer index = data.duplicate();
+        index.position(size - MAGIC.length - 4 - data.getInt(size - MAGIC.length - 4));
+        int blocks = index.getInt();
+        long records = index.getLong();
+        int[] positions = new int[blocks + 1];
+        long[] firstOffsets = new long[blocks];
+        long[] lastFragments = new long[blocks];
+        int[] firstStarts = new int[blocks];
+        long[] oldestMillis = new long[blocks];
+        for (int b = 0; b < blocks; b++) {
+            positions[b] = index.getInt();
+            firstOffsets[b] = index.getLong();
+            lastFragments[b] = index.getLong();
+            firstStarts[b] = index.getInt();
+            oldestMillis[b] = index.getLong();
+        }
+        positions[blocks] = index.getInt();
+        return new ColdSegment(file, start, data, records, positions, firstOffsets, lastFragments, firstStarts, oldestMillis);
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public long getFileSize() {
+        return data.capacity();
+    }
+
+    // Reads records block by block; holds the record it decoded last. One per reader thread.
+    static class Cursor {
+        private final Inflater inflater = new Inflater();
+        private byte[] raw = new byte[BLOCK_RECORDS * 24];
+        private int pos;
+        private int block;
+        private int index;
+        private int count;
+        private long fragmentBase;
+        private long previousNanos;
+        private long nextOffset;
+
+        boolean startsFragment;
+        byte type;
+        long amount;
+        long epochNanos;
+        long reference;
+        long offset;
+        long prev;
+
+        void end() {
+            inflater.end();
+        }
+    }
+
+    // Method to position the cursor before the first record, for reading them all with next
+    void rewind(Cursor cursor) {
+        cursor.block = -1;
+        cursor.index = 0;
+        cursor.count = 0;
+    }
+
+    // Method to decode the next record in file order, false after the last one
+    boolean next(Cursor cursor) {
+        if (cursor.index == cursor.count) {
+            if (cursor.block + 1 >= blocks) {
+                return false;
+            }
+            load(cursor, cursor.block + 1);
+        }
+        decode(cursor);
+        return true;
+    }
+
+    // Method to leave the cursor holding the record at the given offset. A fragment's first record
+    // is found through the index; any other record is only ever asked for by a reader that was
+    // part way through a history when its segment was compacted, and is searched for.
+    void seek(Cursor cursor, long offset) {
+        int b = Arrays.binarySearch(lastFragments, offset);
+        if (b < 0) {
+            b = -b - 1;
+        } else {
+            // The first of the blocks carrying that fragment as the last one started is where it starts
+            while (b > 0 && lastFragments[b - 1] == offset) {
+                b--;
+            }
+        }
+        if (b < blocks) {
+            load(cursor, b);
+            while (cursor.index < cursor.count) {
+                decode(cursor);
+                if (cursor.startsFragment && cursor.offset == offset) {
+                    return;
+                }
+            }
+        }
+        rewind(cursor);
+        while (next(cursor)) {
+            if (cursor.offset == offset) {
+                return;
+            }
+        }
+        throw new IllegalStateException("Ledger record at " + offset + " is not in " + file);
+    }
+
+    // Method to decode the record after the one the cursor holds if it continues the same history,
+    // skipping whole blocks of that history that are newer than skipAfterMillis. Returns false if
+    // the history goes on in another fragment or segment instead, found through the held record's prev.
+    boolean continueChain(Cursor cursor, long skipAfterMillis) {
+        if (cursor.prev < start) {
+            return false;
+        }
+        if (cursor.index == cursor.count) {
+            int b = cursor.block + 1;
+            if (b >= blocks || firstStarts[b] == 0) {
+                return false;
+            }
+            // A block can be skipped if it is all this history and the history carries on into the next block
+            while (firstStarts[b] == NO_START && b + 1 < blocks && firstStarts[b + 1] != 0 && oldestMillis[b] > skipAfterMillis) {
+                b++;
+            }
+            load(cursor, b);
+        }
+        decode(cursor);
+        return !cursor.startsFragment;
+    }
+
+    private void load(Cursor cursor, int block) {
+        int position = positions[block];
+        int rawLength = data.getInt(position);
+        if (rawLength > cursor.raw.length) {
+            cursor.raw = new byte[rawLength];
+        }
+        ByteBuffer compressed = data.duplicate();
+        compressed.position(position + 4).limit(positions[block + 1]);
+        cursor.inflater.reset();
+        cursor.inflater.setInput(compressed);
+        try {
+            if (cursor.inflater.inflate(cursor.raw, 0, rawLength) != rawLength) {
+                throw new IllegalStateException("Corrupt cold ledger block " + block + " in " + file);
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt cold ledger block " + block + " in " + file, e);
+        }
+        cursor.pos = 0;
+        cursor.block = block;
+        cursor.index = 0;
+        cursor.count = (int) Math.min(BLOCK_RECORDS, records - (long) block * BLOCK_RECORDS);
+        cursor.fragmentBase = start;
+        cursor.previousNanos = 0;
+        cursor.nextOffset = firstOffsets[block];
+    }
+
+    private static void decode(Cursor cursor) {
+        int header = cursor.raw[cursor.pos++] & 0xff;
+        cursor.startsFragment = (header & STARTS_FRAGMENT) != 0;
+        cursor.type = (byte) (header & ~STARTS_FRAGMENT);
+        if (cursor.startsFragment) {
+            cursor.offset = cursor.fragmentBase + readVarint(cursor) * TransactionLedger.RECORD_SIZE;
+            cursor.fragmentBase = cursor.offset;
+        } else {
+            cursor.offset = cursor.nextOffset;
+        }
+        cursor.amount = readSigned(cursor);
+        cursor.epochNanos = cursor.previousNanos - readSigned(cursor);
+        cursor.previousNanos = cursor.epochNanos;
+        cursor.reference = readVarint(cursor);
+        long back = readVarint(cursor);
+        cursor.prev = back == 0 ? TransactionLedger.NONE : cursor.offset - back * TransactionLedger.RECORD_SIZE;
+        cursor.nextOffset = cursor.prev;
+        cursor.index++;
+    }
+
+    private static long readVarint(Cursor cursor) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = cursor.raw[cursor.pos++];
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long readSigned(Cursor cursor) {
+        long value = readVarint(cursor);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static boolean hasMagic(ByteBuffer data, int position) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data.get(position + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Builds a cold segment file from records handed over fragment by fragment, in order of
+    // their first record's offset; written through a temporary file and an atomic rename
+    static class Writer {
+        private final Path file;
+        private final Path tmp;
+        private final long start;
+        private final OutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private final ColumnBuffer block = new ColumnBuffer();
+        private byte[] compressed = new byte[1 << 16];
+        private int position = HEADER;
+        private long records;
+        private int blocks;
+        private int inBlock;
+        private long lastFragment = TransactionLedger.NONE;
+        private long fragmentBase;
+        private long previousNanos;
+        private int[] positions = new int[64];
+        private long[] firstOffsets = new long[64];
+        private long[] lastFragments = new long[64];
+        private int[] firstStarts = new int[64];
+        private long[] oldestMillis = new long[64];
+
+        Writer(Path file, long start, long end) throws IOException {
+            this.file = file;
+            this.tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            this.start = start;
+            this.out = new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16);
+            out.write(MAGIC);
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeLong(start);
+            header.writeLong(end);
+        }
+
+        // Method to add the next record; startsFragment for the first record of each fragment
+        void add(long offset, boolean startsFragment, byte type, long amount, long epochNanos, long reference, long prev) throws IOException {
+            if (inBlock == 0) {
+                if (blocks == firstOffsets.length) {
+                    grow();
+                }
+                positions[blocks] = position;
+                firstOffsets[blocks] = offset;
+                lastFragments[blocks] = lastFragment;
+                firstStarts[blocks] = NO_START;
+                oldestMillis[blocks] = Long.MAX_VALUE;
+                fragmentBase = start;
+                previousNanos = 0;
+            }
+            if (startsFragment) {
+                if (firstStarts[blocks] == NO_START) {
+                    firstStarts[blocks] = inBlock;
+                }
+                lastFragment = offset;
+                lastFragments[blocks] = offset;
+                block.put(type | STARTS_FRAGMENT);
+                block.putVarint((offset - fragmentBase) / TransactionLedger.RECORD_SIZE);
+                fragmentBase = offset;
+            } else {
+                block.put(type);
+            }
+            block.putSigned(amount);
+            block.putSigned(previousNanos - epochNanos);
+            previousNanos = epochNanos;
+            block.putVarint(reference);
+            block.putVarint(prev == TransactionLedger.NONE ? 0 : (offset - prev) / TransactionLedger.RECORD_SIZE);
+            oldestMillis[blocks] = Math.min(oldestMillis[blocks], epochNanos / 1_000_000L);
+            records++;
+            if (++inBlock == BLOCK_RECORDS) {
+                flush();
+            }
+        }
+
+        // Method to write the index, move the file into place and open it
+        ColdSegment finish() throws IOException {
+            try {
+                if (inBlock > 0) {
+                    flush();
+                }
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(blocks * 32 + 16);
+                DataOutputStream index = new DataOutputStream(bytes);
+                index.writeInt(blocks);
+                index.writeLong(records);
+                for (int b = 0; b < blocks; b++) {
+                    index.writeInt(positions[b]);
+                    index.writeLong(firstOffsets[b]);
+                    index.writeLong(lastFragments[b]);
+                    index.writeInt(firstStarts[b]);
+                    index.writeLong(oldestMillis[b]);
+                }
+                index.writeInt(position);
+                int length = bytes.size();
+                index.writeInt(length);
+                index.write(MAGIC);
+                bytes.writeTo(out);
+                out.close();
+                try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+            } finally {
+                deflater.end();
+                out.close();
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return open(file, start);
+        }
+
+        private void flush() throws IOException {
+            deflater.reset();
+            deflater.setInput(block.data, 0, block.size);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            DataOutputStream raw = new DataOutputStream(out);
+            raw.writeInt(block.size);
+            out.write(compressed, 0, length);
+            position += 4 + length;
+            block.clear();
+            blocks++;
+            inBlock = 0;
+        }
+
+        private void grow() {
+            int size = firstOffsets.length * 2;
+            positions = Arrays.copyOf(positions, size);
+            firstOffsets = Arrays.copyOf(firstOffsets, size);
+            lastFragments = Arrays.copyOf(lastFragments, size);
+            firstStarts = Arrays.copyOf(firstStarts, size);
+            oldestMillis = Arrays.copyOf(oldestMillis, size);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Growable byte buffer for column-oriented encodings: single bytes, big-endian ints, varints
+// and zigzag varints. Columns of an export row group (see ColumnarExport) and blocks of a
+// cold ledger segment (see ColdSegment) are each built in one before they are deflated; the
+// two formats are independent and only share this encoder.
+class ColumnBuffer {
+    byte[] data = new byte[1 << 16];
+    int size;
+
+    void put(int value) {
+        ensure(1);
+        data[size++] = (byte) value;
+    }
+
+    void putInt(int value) {
+        ensure(4);
+        data[size++] = (byte) (value >>> 24);
+        data[size++] = (byte) (value >>> 16);
+        data[size++] = (byte) (value >>> 8);
+        data[size++] = (byte) value;
+    }
+
+    void putVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7fL) != 0) {
+            data[size++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        data[size++] = (byte) value;
+    }
+
+    // Zigzag, so small negative values stay short too
+    void putSigned(long value) {
+        putVarint((value << 1) ^ (value >> 63));
+    }
+
+    void putString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarint(bytes.length);
+        putBytes(bytes, 0, bytes.length);
+    }
+
+    void putBytes(byte[] bytes, int from, int length) {
+        ensure(length);
+        System.arraycopy(bytes, from, data, size, length);
+        size += length;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    private void ensure(int more) {
+        if (size + more > data.length) {
+            data = Arrays.copyOf(data, Math.max(size + more, data.length * 2));
+        }
+    }
+}
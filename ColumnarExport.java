@@ -0,0 +1,574 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Bulk export of every account and its whole transaction history to a compressed columnar
+// file for offline analysis. The accounts are sorted by number and cut into ranges of about
+// one row group each; workers take ranges in turn, fill the columns of a group and write it
+// at the next free position in the file as soon as it is full, so memory stays at a few
+// groups per worker however large the bank is. Each account's balance, newest record and
+// transaction count are read together under its monitor and its history is walked outside
+// it; live operations carry on during an export, and each account is exported as it was at
+// the moment it was read.
+//
+// File layout, all integers big-endian:
+//   "BANKCOL1"
+//   row groups: [byte kind][int rows][byte columns] then per column [int raw length][int compressed length][deflate bytes]
+//   footer: [int types]{UTF type name, indexed by type code}
+//           [int groups]{[byte kind][long offset][int length][int rows][UTF first account][UTF last account]}
+//           [long accounts][long transactions]
+//   [int footer length]"BANKCOL1"
+// Account groups (kind 1) have the columns number, name (both varint length and UTF-8 bytes),
+// balance (zigzag varint, minor units) and transaction count (varint). Transaction groups
+// (kind 2) have the columns account (varint number of runs, then per run the number as above
+// and a varint run length), type (one byte per row, the code in the footer's dictionary),
+// amount (zigzag varint), timestamp (epoch millis as zigzag varint deltas from the row before,
+// starting from 0 in each group) and reference (varint). An account's transactions are
+// consecutive and newest first, as the ledger keeps them, and may run on into the next group.
+// Reader reads such a file back.
+class ColumnarExport {
+    static final byte ACCOUNTS = 1;
+    static final byte TRANSACTIONS = 2;
+    private static final byte[] MAGIC = "BANKCOL1".getBytes(StandardCharsets.US_ASCII);
+
+    private final TransactionLedger ledger;
+    private final int threads;
+    private final int rowsPerGroup;
+    private final ExecutorService workers;
+
+    public ColumnarExport(TransactionLedger ledger, int threads, int rowsPerGroup) {
+        this.ledger = ledger;
+        this.threads = threads;
+        this.rowsPerGroup = rowsPerGroup;
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "columnar-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Method to create an export with -Dbank.export.threads (default the number of processors)
+    // workers and -Dbank.export.rowsPerGroup (default 131072) rows per group
+    public static ColumnarExport fromSystemProperties(TransactionLedger ledger) {
+        return new ColumnarExport(ledger, Integer.getInteger("bank.export.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("bank.export.rowsPerGroup", 131_072));
+    }
+
+    // Where a row group was written, for the footer
+    private static class Group {
+        final byte kind;
+        final long offset;
+        final int length;
+        final int rows;
+        final String firstAccount;
+        final String lastAccount;
+
+        Group(byte kind, long offset, int length, int rows, String firstAccount, String lastAccount) {
+            this.kind = kind;
+            this.offset = offset;
+            this.length = length;
+            this.rows = rows;
+            this.firstAccount = firstAccount;
+            this.lastAccount = lastAccount;
+        }
+    }
+
+    // Shared state of one export
+    private static class Run {
+        final BankAccount[] accounts;
+        // Ranges are accounts[starts[i]] up to accounts[starts[i + 1]]
+        final int[] starts;
+        final AtomicInteger nextRange = new AtomicInteger();
+        final FileChannel channel;
+        final AtomicLong end = new AtomicLong(MAGIC.length);
+        final List<Group> groups = new ArrayList<>();
+        final LongAdder transactions = new LongAdder();
+
+        Run(BankAccount[] accounts, int[] starts, FileChannel channel) {
+            this.accounts = accounts;
+            this.starts = starts;
+            this.channel = channel;
+        }
+    }
+
+    // Method to export the accounts and their histories to the file, returns a one-line summary.
+    // The file is only replaced once the export is complete; a failed one leaves nothing behind.
+    public String export(Collection<BankAccount> accounts, Path file) throws IOException {
+        long start = System.nanoTime();
+        BankAccount[] sorted = accounts.toArray(new BankAccount[0]);
+        Arrays.parallelSort(sorted, Comparator.comparing(BankAccount::getAccountNumber));
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long transactions;
+        int groups;
+        boolean exported = false;
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                Run run = new Run(sorted, ranges(sorted), channel);
+                writeFully(channel, ByteBuffer.wrap(MAGIC), 0);
+                List<Future<?>> results = new ArrayList<>(threads);
+                for (int i = 0; i < threads; i++) {
+                    results.add(workers.submit(() -> {
+                        new Writer(run).exportRanges();
+                        return null;
+                    }));
+                }
+                for (Future<?> result : results) {
+                    try {
+                        result.get();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Export interrupted", e);
+                    } catch (ExecutionException e) {
+                        throw new IOException("Export failed", e.getCause());
+                    }
+                }
+                writeFooter(run);
+                channel.force(true);
+                transactions = run.transactions.sum();
+                groups = run.groups.size();
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            exported = true;
+        } finally {
+            if (!exported) {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return String.format("Exported %d accounts and %d transactions in %d row groups, %d bytes, in %d ms (%d tx/s)",
+                sorted.length, transactions, groups, Files.size(file), millis, transactions * 1000 / millis);
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    // A range closes once it holds a group's worth of accounts or, by their counts so far, of transactions
+    private int[] ranges(BankAccount[] accounts) {
+        int[] starts = new int[16];
+        int ranges = 0;
+        long rows = 0;
+        for (int i = 0; i < accounts.length; i++) {
+            if (i == 0 || i - starts[ranges - 1] >= rowsPerGroup || rows >= rowsPerGroup) {
+                if (ranges == starts.length) {
+                    starts = Arrays.copyOf(starts, ranges * 2);
+                }
+                starts[ranges++] = i;
+                rows = 0;
+            }
+            rows += accounts[i].getTransactionCount();
+        }
+        starts = Arrays.copyOf(starts, ranges + 1);
+        starts[ranges] = accounts.length;
+        return starts;
+    }
+
+    private void writeFooter(Run run) throws IOException {
+        run.groups.sort(Comparator.comparingInt((Group group) -> group.kind).thenComparing(group -> group.firstAccount));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(TransactionLedger.TYPE_COUNT);
+        for (int type = 0; type < TransactionLedger.TYPE_COUNT; type++) {
+            out.writeUTF(TransactionLedger.typeName((byte) type));
+        }
+        out.writeInt(run.groups.size());
+        for (Group group : run.groups) {
+            out.writeByte(group.kind);
+            out.writeLong(group.offset);
+            out.writeInt(group.length);
+            out.writeInt(group.rows);
+            out.writeUTF(group.firstAccount);
+            out.writeUTF(group.lastAccount);
+        }
+        out.writeLong(run.accounts.length);
+        out.writeLong(run.transactions.sum());
+        int length = bytes.size();
+        out.writeInt(length);
+        out.write(MAGIC);
+        out.flush();
+        writeFully(run.channel, ByteBuffer.wrap(bytes.toByteArray()), run.end.get());
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    // One worker's columns and compressor, reused from group to group
+    private class Writer implements TransactionLedger.RecordVisitor {
+        private final Run run;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private byte[] compressed = new byte[1 << 16];
+        private final ColumnBuffer group = new ColumnBuffer();
+
+        private final ColumnBuffer numbers = new ColumnBuffer();
+        private final ColumnBuffer names = new ColumnBuffer();
+        private final ColumnBuffer balances = new ColumnBuffer();
+        private final ColumnBuffer counts = new ColumnBuffer();
+        private int accountRows;
+        private String firstAccount;
+
+        private final ColumnBuffer runs = new ColumnBuffer();
+        private final ColumnBuffer accounts = new ColumnBuffer();
+        private final ColumnBuffer types = new ColumnBuffer();
+        private final ColumnBuffer amounts = new ColumnBuffer();
+        private final ColumnBuffer timestamps = new ColumnBuffer();
+        private final ColumnBuffer references = new ColumnBuffer();
+        private int transactionRows;
+        private int runCount;
+        private String runAccount;
+        private int runLength;
+        private String firstTransactionAccount;
+        private long previousMillis;
+        // Account whose history is being walked
+        private String account;
+
+        Writer(Run run) {
+            this.run = run;
+        }
+
+        void exportRanges() throws IOException {
+            try {
+                int range;
+                while ((range = run.nextRange.getAndIncrement()) < run.starts.length - 1) {
+                    for (int i = run.starts[range]; i < run.starts[range + 1]; i++) {
+                        exportAccount(run.accounts[i]);
+                    }
+                    flushTransactions();
+                    flushAccounts();
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+
+        private void exportAccount(BankAccount source) throws IOException {
+            long balance;
+            long tail;
+            int count;
+            synchronized (source) {
+                balance = source.getBalance();
+                tail = source.getLedgerTail();
+                count = source.getTransactionCount();
+            }
+            account = source.getAccountNumber();
+            if (accountRows == 0) {
+                firstAccount = account;
+            }
+            numbers.putString(account);
+            names.putString(source.getName());
+            balances.putSigned(balance);
+            counts.putVarint(count);
+            accountRows++;
+            try {
+                ledger.forEach(tail, this);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        // Method to add one transaction row of the current account; a full group is written out first
+        @Override
+        public void visit(byte type, long amount, long epochNanos, long reference) {
+            if (transactionRows == rowsPerGroup) {
+                try {
+                    flushTransactions();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            if (transactionRows == 0) {
+                firstTransactionAccount = account;
+            }
+            if (!account.equals(runAccount)) {
+                endRun();
+                runAccount = account;
+            }
+            runLength++;
+            types.put(type);
+            amounts.putSigned(amount);
+            long millis = epochNanos / 1_000_000L;
+            timestamps.putSigned(millis - previousMillis);
+            previousMillis = millis;
+            references.putVarint(reference);
+            transactionRows++;
+        }
+
+        private void endRun() {
+            if (runLength > 0) {
+                runs.putString(runAccount);
+                runs.putVarint(runLength);
+                runCount++;
+                runLength = 0;
+            }
+        }
+
+        private void flushAccounts() throws IOException {
+            if (accountRows > 0) {
+                write(ACCOUNTS, accountRows, firstAccount, account, numbers, names, balances, counts);
+                accountRows = 0;
+            }
+        }
+
+        private void flushTransactions() throws IOException {
+            if (transactionRows == 0) {
+                return;
+            }
+            String lastAccount = runAccount;
+            endRun();
+            // The run count goes in front of the runs, which are only known once the group is full
+            accounts.putVarint(runCount);
+            accounts.putBytes(runs.data, 0, runs.size);
+            write(TRANSACTIONS, transactionRows, firstTransactionAccount, lastAccount, accounts, types, amounts, timestamps, references);
+            runs.clear();
+            run.transactions.add(transactionRows);
+            transactionRows = 0;
+            runCount = 0;
+            runAccount = null;
+            previousMillis = 0;
+        }
+
+        // Method to compress the columns into one group, write it at the next free position and clear them
+        private void write(byte kind, int rows, String first, String last, ColumnBuffer... columns) throws IOException {
+            group.clear();
+            group.put(kind);
+            group.putInt(rows);
+            group.put(columns.length);
+            for (ColumnBuffer column : columns) {
+                int length = compress(column);
+                group.putInt(column.size);
+                group.putInt(length);
+                group.putBytes(compressed, 0, length);
+                column.clear();
+            }
+            long offset = run.end.getAndAdd(group.size);
+            writeFully(run.channel, ByteBuffer.wrap(group.data, 0, group.size), offset);
+            synchronized (run.groups) {
+                run.groups.add(new Group(kind, offset, group.size, rows, first, last));
+            }
+        }
+
+        private int compress(ColumnBuffer column) {
+            deflater.reset();
+            deflater.setInput(column.data, 0, column.size);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                length += deflater.deflate(compressed, length, compressed.length - length);
+            }
+            return length;
+        }
+    }
+
+    // Reads an exported file back, checking its footer when opened. Accounts come in account number
+    // order and transactions grouped by account, newest first, as they were exported.
+    static class Reader implements Closeable {
+        interface AccountVisitor {
+            void visit(String accountNumber, String name, long balance, long transactionCount);
+        }
+
+        interface TransactionVisitor {
+            void visit(String accountNumber, String type, long amount, long timestampMillis, long reference);
+        }
+
+        private final FileChannel channel;
+        private final String[] typeNames;
+        private final List<Group> groups = new ArrayList<>();
+        private final long accounts;
+        private final long transactions;
+        private final Inflater inflater = new Inflater();
+
+        Reader(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size < 2L * MAGIC.length + 4 || !read(0, MAGIC.length).equals(ByteBuffer.wrap(MAGIC))) {
+                    throw new IOException("Not a columnar export: " + file);
+                }
+                ByteBuffer trailer = read(size - 4 - MAGIC.length, 4 + MAGIC.length);
+                int footerLength = trailer.getInt();
+                if (!trailer.equals(ByteBuffer.wrap(MAGIC)) || footerLength < 0 || footerLength > size - 2L * MAGIC.length - 4) {
+                    throw new IOException("Not a complete columnar export: " + file);
+                }
+                DataInputStream footer = new DataInputStream(new ByteArrayInputStream(
+                        read(size - 4 - MAGIC.length - footerLength, footerLength).array()));
+                typeNames = new String[footer.readInt()];
+                for (int type = 0; type < typeNames.length; type++) {
+                    typeNames[type] = footer.readUTF();
+                }
+                for (int count = footer.readInt(); count > 0; count--) {
+                    groups.add(new Group(footer.readByte(), footer.readLong(), footer.readInt(), footer.readInt(), footer.readUTF(), footer.readUTF()));
+                }
+                accounts = footer.readLong();
+                transactions = footer.readLong();
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public long getAccounts() {
+            return accounts;
+        }
+
+        public long getTransactions() {
+            return transactions;
+        }
+
+        public int getGroups() {
+            return groups.size();
+        }
+
+        public void forEachAccount(AccountVisitor visitor) throws IOException {
+            for (Group group : groups) {
+                if (group.kind != ACCOUNTS) {
+                    continue;
+                }
+                Input[] columns = readGroup(group, 4);
+                for (int row = 0; row < group.rows; row++) {
+                    visitor.visit(columns[0].getString(), columns[1].getString(), columns[2].getSigned(), columns[3].getVarint());
+                }
+            }
+        }
+
+        public void forEachTransaction(TransactionVisitor visitor) throws IOException {
+            for (Group group : groups) {
+                if (group.kind != TRANSACTIONS) {
+                    continue;
+                }
+                Input[] columns = readGroup(group, 5);
+                Input runs = columns[0];
+                long runsLeft = runs.getVarint();
+                String accountNumber = null;
+                long runLeft = 0;
+                long millis = 0;
+                for (int row = 0; row < group.rows; row++) {
+                    while (runLeft == 0) {
+                        if (runsLeft-- == 0) {
+                            throw new IOException("Corrupt columnar export: more rows than runs in group at " + group.offset);
+                        }
+                        accountNumber = runs.getString();
+                        runLeft = runs.getVarint();
+                    }
+                    runLeft--;
+                    int type = columns[1].get() & 0xff;
+                    long amount = columns[2].getSigned();
+                    millis += columns[3].getSigned();
+                    visitor.visit(accountNumber, type < typeNames.length ? typeNames[type] : Integer.toString(type), amount, millis,
+                            columns[4].getVarint());
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+
+        // Method to read a group and inflate its columns, checking it has the expected kind and column count
+        private Input[] readGroup(Group group, int columnCount) throws IOException {
+            ByteBuffer in = read(group.offset, group.length);
+            if (in.get() != group.kind || in.getInt() != group.rows || in.get() != columnCount) {
+                throw new IOException("Corrupt columnar export: group at " + group.offset + " does not match the footer");
+            }
+            Input[] columns = new Input[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                byte[] raw = new byte[in.getInt()];
+                int length = in.getInt();
+                inflater.reset();
+                inflater.setInput(in.array(), in.position(), length);
+                try {
+                    if (inflater.inflate(raw) != raw.length || !inflater.finished()) {
+                        throw new IOException("Corrupt columnar export: column " + i + " of group at " + group.offset);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Corrupt columnar export: column " + i + " of group at " + group.offset, e);
+                }
+                in.position(in.position() + length);
+                columns[i] = new Input(raw);
+            }
+            return columns;
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Truncated columnar export");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    // Decodes one inflated column, the reverse of ColumnBuffer
+    private static class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        byte get() {
+            return data[position++];
+        }
+
+        long getVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = data[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+
+        long getSigned() {
+            long value = getVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        String getString() {
+            int length = (int) getVarint();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+// Change feed of every account event, for downstream systems such as reporting,
+// notifications and reconciliation. Events are the journal's records, in journal order
+// and numbered by their journal sequence, published once they are durable.
+//
+// The journal's writer thread is the only publisher: it puts each record into a fixed
+// ring of slots and moves the published sequence on, without ever waiting for a
+// subscriber. Every subscriber has its own cursor and reads at its own pace; one that
+// falls more than the ring behind, or asks for events from before the feed started,
+// reads them back from the journal segments instead and then rejoins the ring. A slow
+// subscriber therefore costs the publisher nothing and memory stays bounded; the
+// backpressure is the subscriber's own, through how fast it polls. Events can be replayed
+// from any sequence still held in the journal, which is everything since the latest
+// snapshot.
+class EventFeed implements Consumer<byte[]> {
+    private final Journal journal;
+    private final AtomicReferenceArray<byte[]> slots;
+    private final int mask;
+    // Sequence of the latest record in the ring
+    private volatile long published;
+    // Subscribers blocked in poll, so the publisher only signals when someone is waiting
+    private volatile int waiting;
+    private final Object signal = new Object();
+
+    // A journal record as an event
+    static class Event {
+        final long seq;
+        final String type;
+        final long timestamp;
+        final String accountNumber;
+        final long amount;
+        // Name for an account opening, target account for a transfer, job run for interest
+        // and fees, transaction id for a transfer with another shard; empty otherwise
+        final String detail;
+
+        Event(long seq, String type, long timestamp, String accountNumber, long amount, String detail) {
+            this.seq = seq;
+            this.type = type;
+            this.timestamp = timestamp;
+            this.accountNumber = accountNumber;
+            this.amount = amount;
+            this.detail = detail;
+        }
+
+        static Event of(byte[] payload) {
+            Journal.Entry entry = Journal.decode(payload);
+            switch (entry.type) {
+                case Journal.CREATE_ACCOUNT:
+                    return new Event(entry.seq, "ACCOUNT_CREATED", entry.timestamp, entry.accountNumber, entry.amount, entry.name);
+                case Journal.CREDIT:
+                    return new Event(entry.seq, "CREDIT", entry.timestamp, entry.accountNumber, entry.amount, "");
+                case Journal.DEBIT:
+                    return new Event(entry.seq, "DEBIT", entry.timestamp, entry.accountNumber, entry.amount, "");
+                case Journal.CHANGE_PIN:
+                    // Never the PIN hash
+                    return new Event(entry.seq, "PIN_CHANGED", entry.timestamp, entry.accountNumber, 0, "");
+                case Journal.TRANSFER:
+                    return new Event(entry.seq, "TRANSFER", entry.timestamp, entry.accountNumber, entry.amount, entry.name);
+                case Journal.INTEREST:
+                    return new Event(entry.seq, "INTEREST", entry.timestamp, entry.accountNumber, entry.amount, entry.name);
+                case Journal.FEE:
+                    return new Event(entry.seq, "FEE", entry.timestamp, entry.accountNumber, entry.amount, entry.name);
+                case Journal.PREPARE_TRANSFER:
+                    return new Event(entry.seq, "TRANSFER_PREPARED", entry.timestamp, entry.accountNumber, entry.amount, entry.name);
+                case Journal.COMMIT_TRANSFER:
+                    return new Event(entry.seq, "TRANSFER_COMMITTED", entry.timestamp, entry.accountNumber, 0, entry.name);
+                case Journal.ABORT_TRANSFER:
+                    return new Event(entry.seq, "TRANSFER_ABORTED", entry.timestamp, entry.accountNumber, 0, entry.name);
+                default:
+                    throw new IllegalStateException("Unknown journal record type " + entry.type + " at #" + entry.seq);
+            }
+        }
+
+        // Method to append the event as "<seq> <type> <timestamp> <account> <amount> <detail>"
+        void appendTo(StringBuilder sb) {
+            sb.append(seq).append(' ').append(type).append(' ').append(timestamp).append(' ').append(accountNumber).append(' ');
+            Money.appendTo(sb, amount);
+            if (!detail.isEmpty()) {
+                sb.append(' ').append(detail);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(64);
+            appendTo(sb);
+            return sb.toString();
+        }
+    }
+
+    // A subscriber's position in the feed; not safe for use by more than one thread
+    class Subscription {
+        private long next;
+
+        Subscription(long next) {
+            this.next = next;
+        }
+
+        // Sequence of the next event this subscription will hand out
+        public long getNext() {
+            return next;
+        }
+
+        // Method to hand the events from the cursor on to the consumer, at most max of them,
+        // waiting up to timeoutMillis for the first to be published. Returns the number handed.
+        public int poll(int max, long timeoutMillis, Consumer<Event> consumer) throws IOException, InterruptedException {
+            long available = awaitPublished(next, timeoutMillis);
+            long from = next;
+            long to = Math.min(available, next + max - 1);
+            while (next <= to) {
+                byte[] payload = slots.getAcquire((int) next & mask);
+                if (payload == null || Journal.seqOf(payload) != next) {
+                    // Lapped by the publisher, or from before the feed started
+                    journal.read(next, to, record -> {
+                        consumer.accept(Event.of(record));
+                        next = Journal.seqOf(record) + 1;
+                    });
+                    break;
+                }
+                consumer.accept(Event.of(payload));
+                next++;
+            }
+            return (int) (next - from);
+        }
+    }
+
+    // capacity is rounded up to a power of two
+    public EventFeed(Journal journal, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.journal = journal;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.published = journal.durableSeq();
+    }
+
+    // Method to start the feed from the journal's durable records, ring size from -Dbank.events.ringSize (default 65536)
+    public static EventFeed attach(Journal journal) {
+        EventFeed feed = new EventFeed(journal, Integer.getInteger("bank.events.ringSize", 65_536));
+        journal.addFollower(feed);
+        return feed;
+    }
+
+    // Method to publish a durable journal record; called by the journal's writer thread only
+    @Override
+    public void accept(byte[] payload) {
+        long seq = Journal.seqOf(payload);
+        slots.setRelease((int) seq & mask, payload);
+        published = seq;
+        if (waiting > 0) {
+            synchronized (signal) {
+                signal.notifyAll();
+            }
+        }
+    }
+
+    // Method to subscribe from the given sequence, or from the next event when fromSeq is 0.
+    // Throws IOException if those events are no longer held in the journal.
+    public Subscription subscribe(long fromSeq) throws IOException {
+        if (fromSeq <= 0) {
+            return new Subscription(published + 1);
+        }
+        long latest = published;
+        if (fromSeq > latest + 1) {
+            throw new IllegalArgumentException("Event #" + fromSeq + " has not happened yet; the latest is #" + latest);
+        }
+        if (fromSeq < journal.firstAvailableSeq()) {
+            throw new IOException("Events before #" + journal.firstAvailableSeq() + " are no longer held");
+        }
+        return new Subscription(fromSeq);
+    }
+
+    public long getPublished() {
+        return published;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    private long awaitPublished(long seq, long timeoutMillis) throws InterruptedException {
+        long current = published;
+        if (current >= seq || timeoutMillis <= 0) {
+            return current;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        synchronized (signal) {
+            waiting++;
+            try {
+                while ((current = published) < seq) {
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) {
+                        break;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(signal, left);
+                }
+            } finally {
+                waiting--;
+            }
+        }
+        return current;
+    }
+}
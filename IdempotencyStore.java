@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+// Results of requests made with a client-supplied idempotency key, so a request retried
+// after a timeout or a double click gets the first answer back instead of being applied
+// again. Keys belong to an account and remember what was asked: the same key with a
+// different request is refused rather than answered with an unrelated result. A repeat
+// that arrives while the first request is still running waits for its answer.
+//
+// Only requests that changed something are kept; a refused request had no effect and is
+// simply run again. Keys are kept for a time window and up to a bounded count, dropped
+// oldest first, so the store costs at most one small entry per keyed change in the window.
+class IdempotencyStore<T> {
+    static final int MAX_KEY_LENGTH = 64;
+
+    private final ConcurrentHashMap<String, Entry<T>> entries = new ConcurrentHashMap<>();
+    // Kept entries in the order they were made, for expiry
+    private final ConcurrentLinkedQueue<Entry<T>> order = new ConcurrentLinkedQueue<>();
+    private final long windowMillis;
+    private final int maxKeys;
+    private final Predicate<T> applied;
+    private final Function<String, T> refusal;
+    private final LongAdder repeats = new LongAdder();
+
+    private static class Entry<T> {
+        final String id;
+        final String accountNumber;
+        final String key;
+        final String request;
+        final long createdAt;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Entry(String accountNumber, String key, String request, long createdAt) {
+            this.id = accountNumber + ' ' + key;
+            this.accountNumber = accountNumber;
+            this.key = key;
+            this.request = request;
+            this.createdAt = createdAt;
+        }
+    }
+
+    // A kept key as copied out for a snapshot
+    static class Kept<T> {
+        final String accountNumber;
+        final String key;
+        final String request;
+        final long createdAt;
+        final T result;
+
+        Kept(String accountNumber, String key, String request, long createdAt, T result) {
+            this.accountNumber = accountNumber;
+            this.key = key;
+            this.request = request;
+            this.createdAt = createdAt;
+            this.result = result;
+        }
+    }
+
+    // applied tells whether a result changed something and must be kept; refusal turns a message into the answer for a bad key
+    public IdempotencyStore(long windowMillis, int maxKeys, Predicate<T> applied, Function<String, T> refusal) {
+        this.windowMillis = windowMillis;
+        this.maxKeys = maxKeys;
+        this.applied = applied;
+        this.refusal = refusal;
+    }
+
+    // Method to run the operation once per account and key within the window. request describes what
+    // is asked (e.g. "CREDIT 500"); a repeat with the same key gets the first result. A null key runs it as is.
+    public T execute(String accountNumber, String key, String request, Supplier<T> operation) {
+        if (key == null) {
+            return operation.get();
+        }
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            return refusal.apply("Idempotency keys must be 1 to " + MAX_KEY_LENGTH + " characters.");
+        }
+        long now = System.currentTimeMillis();
+        Entry<T> mine = new Entry<>(accountNumber, key, request, now);
+        while (true) {
+            Entry<T> existing = entries.putIfAbsent(mine.id, mine);
+            if (existing == null) {
+                break;
+            }
+            if (now - existing.createdAt >= windowMillis) {
+                if (entries.replace(mine.id, existing, mine)) {
+                    break;
+                }
+                continue;
+            }
+            if (!existing.request.equals(request)) {
+                return refusal.apply("Idempotency key " + key + " was already used for a different request.");
+            }
+            repeats.increment();
+            return existing.result.join();
+        }
+
+        T result;
+        try {
+            result = operation.get();
+        } catch (RuntimeException | Error e) {
+            entries.remove(mine.id, mine);
+            mine.result.completeExceptionally(e);
+            throw e;
+        }
+        if (applied.test(result)) {
+            order.add(mine);
+            expire(now);
+        } else {
+            entries.remove(mine.id, mine);
+        }
+        mine.result.complete(result);
+        return result;
+    }
+
+    // Method to keep the result of a keyed change recovered from a journal, if it is still in the window
+    public void remember(String accountNumber, String key, String request, long timestamp, T result) {
+        long now = System.currentTimeMillis();
+        if (now - timestamp >= windowMillis) {
+            return;
+        }
+        Entry<T> entry = new Entry<>(accountNumber, key, request, timestamp);
+        entry.result.complete(result);
+        entries.put(entry.id, entry);
+        order.add(entry);
+        expire(now);
+    }
+
+    // Method to find the kept result of a change made with the key, without waiting for one still
+    // running. Returns the refusal if the key was used for a different request, null if there is none.
+    public T lookup(String accountNumber, String key, String request) {
+        Entry<T> existing = entries.get(accountNumber + ' ' + key);
+        if (existing == null || System.currentTimeMillis() - existing.createdAt >= windowMillis) {
+            return null;
+        }
+        if (!existing.request.equals(request)) {
+            return refusal.apply("Idempotency key " + key + " was already used for a different request.");
+        }
+        if (!existing.result.isDone() || existing.result.isCompletedExceptionally() || !applied.test(existing.result.join())) {
+            return null;
+        }
+        repeats.increment();
+        return existing.result.join();
+    }
+
+    // Method to list the keys of changes still in the window, for a snapshot. A request still
+    // running is waited for, so every change journaled before the call has its key listed.
+    public List<Kept<T>> kept() {
+        long now = System.currentTimeMillis();
+        List<Kept<T>> kept = new ArrayList<>(entries.size());
+        for (Entry<T> entry : entries.values()) {
+            if (now - entry.createdAt >= windowMillis) {
+                continue;
+            }
+            T result;
+            try {
+                result = entry.result.join();
+            } catch (CompletionException e) {
+                continue;
+            }
+            if (applied.test(result)) {
+                kept.add(new Kept<>(entry.accountNumber, entry.key, entry.request, entry.createdAt, result));
+            }
+        }
+        return kept;
+    }
+
+    // Number of repeats answered from the store
+    public long getRepeats() {
+        return repeats.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private void expire(long now) {
+        while (true) {
+            Entry<T> oldest = order.peek();
+            if (oldest == null || now - oldest.createdAt < windowMillis && entries.size() <= maxKeys) {
+                return;
+            }
+            if (order.remove(oldest)) {
+                entries.remove(oldest.id, oldest);
+            }
+        }
+    }
+}
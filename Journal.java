@@ -0,0 +1,577 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+// Append-only write-ahead journal with group commit. Callers append records from any
+// thread; a single writer thread collects them for up to the durability window, writes
+// the batch sequentially and makes it durable with one fsync. Callers queue a record before
+// making the change it describes, so a record that cannot be encoded leaves nothing behind;
+// once a write has failed, the journal refuses every record after it.
+//
+// The journal is a directory of segment files named journal-<first seq>.log; a new
+// segment is started by rotate() so that segments covered by a snapshot can be deleted.
+// On disk every record is [int length][int crc32][payload], where the payload is
+// [long seq][byte type][long timestamp][long amount][UTF account][UTF name][UTF pin].
+// A transfer is a single record, so both legs replay or neither does; its name slot
+// holds the account the money goes to. Interest and fee records carry the batch job run
+// in the name slot, and the records of a transfer with another shard carry its
+// transaction id there (an outgoing leg is prepared with a negative amount). The pin
+// slot holds the PIN hash, never the PIN; in credit, debit and transfer records it holds
+// the client's idempotency key, empty when there was none, and in the prepare and commit
+// records of a keyed outgoing leg the key and the request, as "<key> <request>".
+class Journal implements Closeable {
+    public static final byte CREATE_ACCOUNT = 1;
+    public static final byte CREDIT = 2;
+    public static final byte DEBIT = 3;
+    public static final byte CHANGE_PIN = 4;
+    public static final byte TRANSFER = 5;
+    public static final byte INTEREST = 6;
+    public static final byte FEE = 7;
+    public static final byte PREPARE_TRANSFER = 8;
+    public static final byte COMMIT_TRANSFER = 9;
+    public static final byte ABORT_TRANSFER = 10;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    // Queued in place of a record to switch segments; real payloads are always longer
+    private static final int ROTATE_MARKER_LENGTH = 8;
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    // A decoded journal record, as handed to replay
+    static class Entry {
+        final long seq;
+        final byte type;
+        final long timestamp;
+        final long amount;
+        final String accountNumber;
+        final String name;
+        final String pin;
+
+        Entry(long seq, byte type, long timestamp, long amount, String accountNumber, String name, String pin) {
+            this.seq = seq;
+            this.type = type;
+            this.timestamp = timestamp;
+            this.amount = amount;
+            this.accountNumber = accountNumber;
+            this.name = name;
+            this.pin = pin;
+        }
+    }
+
+    private final Path directory;
+    private FileChannel channel;
+    private final long windowNanos;
+    private final int maxBatch;
+    private final Thread writer;
+    // Called by the writer thread with every record once it is durable, before awaitDurable returns for it
+    private final CopyOnWriteArrayList<Consumer<byte[]>> followers = new CopyOnWriteArrayList<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hasWork = lock.newCondition();
+    private final Condition durable = lock.newCondition();
+    private ArrayList<byte[]> pending = new ArrayList<>();
+    private long nextSeq;
+    private long durableSeq;
+    private IOException failure;
+    private boolean closed;
+
+    private Journal(Path directory, FileChannel channel, long lastSeq, long windowMillis, int maxBatch) {
+        this.directory = directory;
+        this.channel = channel;
+        this.nextSeq = lastSeq + 1;
+        this.durableSeq = lastSeq;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxBatch = maxBatch;
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // Method to replay the journal in the directory through the consumer and open it for appending.
+    // Records before fromSeq are already covered by a snapshot and are skipped, as are whole
+    // segments that only hold such records. A torn or corrupt tail left by a crash in the
+    // newest segment is truncated away; damage in an older segment is an error.
+    public static Journal open(Path directory, long fromSeq, long windowMillis, int maxBatch, Consumer<Entry> replay) throws IOException {
+        Files.createDirectories(directory);
+        upgradeSingleFileJournal(directory);
+
+        TreeMap<Long, Path> segments = listSegments(directory);
+        List<Long> firstSeqs = new ArrayList<>(segments.keySet());
+        long lastSeq = fromSeq - 1;
+        FileChannel channel = null;
+        for (int i = 0; i < firstSeqs.size(); i++) {
+            boolean newest = i == firstSeqs.size() - 1;
+            if (!newest && firstSeqs.get(i + 1) <= fromSeq) {
+                continue;
+            }
+            FileChannel segment = FileChannel.open(segments.get(firstSeqs.get(i)), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long[] result = replay(segment, fromSeq, replay);
+            lastSeq = Math.max(lastSeq, result[1]);
+            if (!newest) {
+                boolean complete = result[0] == segment.size();
+                segment.close();
+                if (!complete) {
+                    throw new IOException("Corrupt journal segment " + segments.get(firstSeqs.get(i)));
+                }
+                continue;
+            }
+            if (result[0] < segment.size()) {
+                segment.truncate(result[0]);
+                segment.force(true);
+            }
+            segment.position(result[0]);
+            channel = segment;
+        }
+        if (channel == null) {
+            channel = createSegment(directory, lastSeq + 1);
+        }
+        return new Journal(directory, channel, lastSeq, windowMillis, maxBatch);
+    }
+
+    // Journals written before segmenting were a single journal.log starting at sequence 1
+    private static void upgradeSingleFileJournal(Path directory) throws IOException {
+        Path legacy = directory.resolve("journal.log");
+        if (Files.exists(legacy)) {
+            Files.move(legacy, directory.resolve(segmentName(1)), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static TreeMap<Long, Path> listSegments(Path directory) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        return segments;
+    }
+
+    private static String segmentName(long firstSeq) {
+        return String.format("%s%020d%s", SEGMENT_PREFIX, firstSeq, SEGMENT_SUFFIX);
+    }
+
+    private static FileChannel createSegment(Path directory, long firstSeq) throws IOException {
+        return FileChannel.open(directory.resolve(segmentName(firstSeq)), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Returns {length of the valid prefix, last sequence number seen}
+    private static long[] replay(FileChannel channel, long fromSeq, Consumer<Entry> consumer) throws IOException {
+        return scan(channel, payload -> {
+            Entry entry = decode(payload);
+            if (entry.seq >= fromSeq) {
+                consumer.accept(entry);
+            }
+        });
+    }
+
+    // Method to hand every intact record payload in a segment to the consumer, in order.
+    // Returns {length of the valid prefix, last sequence number seen}.
+    private static long[] scan(FileChannel channel, Consumer<byte[]> consumer) throws IOException {
+        channel.position(0);
+        InputStream raw = Channels.newInputStream(channel);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(raw, 1 << 16));
+        CRC32 crc = new CRC32();
+        long offset = 0;
+        long lastSeq = 0;
+        while (true) {
+            int length;
+            int checksum;
+            byte[] payload;
+            try {
+                length = in.readInt();
+                checksum = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE) {
+                    break;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            consumer.accept(payload);
+            lastSeq = seqOf(payload);
+            offset += HEADER_SIZE + length;
+        }
+        return new long[] {offset, lastSeq};
+    }
+
+    public long appendCreateAccount(long timestamp, String accountNumber, String name, String pin, long balance) {
+        return append(encode(CREATE_ACCOUNT, timestamp, balance, accountNumber, name, pin));
+    }
+
+    public long appendCredit(long timestamp, String accountNumber, long amount, String idempotencyKey) {
+        return append(encode(CREDIT, timestamp, amount, accountNumber, "", idempotencyKey == null ? "" : idempotencyKey));
+    }
+
+    public long appendDebit(long timestamp, String accountNumber, long amount, String idempotencyKey) {
+        return append(encode(DEBIT, timestamp, amount, accountNumber, "", idempotencyKey == null ? "" : idempotencyKey));
+    }
+
+    public long appendTransfer(long timestamp, String fromAccount, String toAccount, long amount, String idempotencyKey) {
+        return append(encode(TRANSFER, timestamp, amount, fromAccount, toAccount, idempotencyKey == null ? "" : idempotencyKey));
+    }
+
+    public long appendInterest(long timestamp, String accountNumber, long amount, long run) {
+        return append(encode(INTEREST, timestamp, amount, accountNumber, Long.toString(run), ""));
+    }
+
+    public long appendFee(long timestamp, String accountNumber, long amount, long run) {
+        return append(encode(FEE, timestamp, amount, accountNumber, Long.toString(run), ""));
+    }
+
+    public long appendPrepareTransfer(long timestamp, String accountNumber, String transactionId, long amount, String idempotencyKey) {
+        return append(encode(PREPARE_TRANSFER, timestamp, amount, accountNumber, transactionId, idempotencyKey == null ? "" : idempotencyKey));
+    }
+
+    public long appendCommitTransfer(long timestamp, String accountNumber, String transactionId, String idempotencyKey) {
+        return append(encode(COMMIT_TRANSFER, timestamp, 0, accountNumber, transactionId, idempotencyKey == null ? "" : idempotencyKey));
+    }
+
+    public long appendAbortTransfer(long timestamp, String accountNumber, String transactionId) {
+        return append(encode(ABORT_TRANSFER, timestamp, 0, accountNumber, transactionId, ""));
+    }
+
+    public long appendChangePin(long timestamp, String accountNumber, String pin) {
+        return append(encode(CHANGE_PIN, timestamp, 0, accountNumber, "", pin));
+    }
+
+    // Method to append a record received from a primary, keeping its sequence number, which must be the next one here
+    public long appendReplicated(byte[] payload) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            checkHealthy();
+            long seq = seqOf(payload);
+            if (seq != nextSeq) {
+                throw new IllegalStateException("Replicated record " + seq + " does not follow " + (nextSeq - 1));
+            }
+            nextSeq++;
+            pending.add(payload);
+            if (pending.size() == 1 || pending.size() >= maxBatch) {
+                hasWork.signal();
+            }
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Method to queue an encoded record, returns its sequence number without waiting for disk
+    private long append(byte[] payload) {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            checkHealthy();
+            long seq = nextSeq++;
+            ByteBuffer.wrap(payload).putLong(0, seq);
+            pending.add(payload);
+            if (pending.size() == 1 || pending.size() >= maxBatch) {
+                hasWork.signal();
+            }
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Once a write has failed nothing more is taken: what is queued after it would never reach disk,
+    // and callers change memory only after their record is queued. Called with the lock held.
+    private void checkHealthy() {
+        if (failure != null) {
+            throw new UncheckedIOException("Journal write failed", failure);
+        }
+    }
+
+    // Method to start a new segment, returns the first sequence number that will go into it.
+    // Every record before that number stays in the older segments.
+    public long rotate() {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Journal is closed");
+            }
+            checkHealthy();
+            long firstSeq = nextSeq;
+            byte[] marker = new byte[ROTATE_MARKER_LENGTH];
+            ByteBuffer.wrap(marker).putLong(0, firstSeq);
+            pending.add(marker);
+            if (pending.size() == 1) {
+                hasWork.signal();
+            }
+            return firstSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Method to delete the segments holding only records before the given sequence number
+    public void deleteSegmentsBefore(long seq) throws IOException {
+        TreeMap<Long, Path> segments = listSegments(directory);
+        for (Long firstSeq : segments.headMap(seq, true).keySet()) {
+            Long next = segments.higherKey(firstSeq);
+            if (next != null && next <= seq) {
+                Files.deleteIfExists(segments.get(firstSeq));
+            }
+        }
+    }
+
+    // Method to have every record handed to the follower as it becomes durable. The follower runs
+    // on the writer thread, so it must only queue the record. Payloads must not be modified.
+    public void addFollower(Consumer<byte[]> follower) {
+        followers.add(follower);
+    }
+
+    public void removeFollower(Consumer<byte[]> follower) {
+        followers.remove(follower);
+    }
+
+    // Method to hand the payloads of the durable records fromSeq..toSeq to the consumer, in order,
+    // reading them back from the segments. Fails if a segment holding them has been deleted.
+    public void read(long fromSeq, long toSeq, Consumer<byte[]> consumer) throws IOException {
+        if (fromSeq > toSeq) {
+            return;
+        }
+        if (fromSeq < firstAvailableSeq()) {
+            throw new IOException("Journal records from " + fromSeq + " have been deleted");
+        }
+        TreeMap<Long, Path> segments = listSegments(directory);
+        Long first = segments.floorKey(fromSeq);
+        for (Path file : segments.tailMap(first, true).values()) {
+            long[] last = new long[] {fromSeq - 1};
+            try (FileChannel segment = FileChannel.open(file, StandardOpenOption.READ)) {
+                scan(segment, payload -> {
+                    long seq = seqOf(payload);
+                    if (seq >= fromSeq && seq <= toSeq) {
+                        consumer.accept(payload);
+                        last[0] = seq;
+                    }
+                });
+            }
+            if (last[0] >= toSeq) {
+                return;
+            }
+        }
+        throw new IOException("Journal records up to " + toSeq + " are not all on disk");
+    }
+
+    // First sequence number still held in the segments
+    public long firstAvailableSeq() throws IOException {
+        TreeMap<Long, Path> segments = listSegments(directory);
+        return segments.isEmpty() ? nextSeq() : segments.firstKey();
+    }
+
+    public long nextSeq() {
+        lock.lock();
+        try {
+            return nextSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long durableSeq() {
+        lock.lock();
+        try {
+            return durableSeq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Method to block until the record with the given sequence number is on disk
+    public void awaitDurable(long seq) {
+        lock.lock();
+        try {
+            while (durableSeq < seq && failure == null) {
+                durable.awaitUninterruptibly();
+            }
+            if (durableSeq < seq) {
+                throw new UncheckedIOException("Journal write failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeLoop() {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        while (true) {
+            ArrayList<byte[]> batch;
+            long lastSeq;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    hasWork.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                // Hold the batch open for the durability window so concurrent appenders share the fsync
+                long remaining = windowNanos;
+                while (remaining > 0 && pending.size() < maxBatch && !closed) {
+                    try {
+                        remaining = hasWork.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                lastSeq = nextSeq - 1;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                for (byte[] payload : batch) {
+                    if (payload.length == ROTATE_MARKER_LENGTH) {
+                        flush(buffer);
+                        channel.force(false);
+                        channel.close();
+                        channel = createSegment(directory, ByteBuffer.wrap(payload).getLong(0));
+                        continue;
+                    }
+                    if (buffer.remaining() < HEADER_SIZE + payload.length) {
+                        flush(buffer);
+                        if (buffer.capacity() < HEADER_SIZE + payload.length) {
+                            buffer = ByteBuffer.allocateDirect(HEADER_SIZE + payload.length);
+                        }
+                    }
+                    crc.reset();
+                    crc.update(payload, 0, payload.length);
+                    buffer.putInt(payload.length);
+                    buffer.putInt((int) crc.getValue());
+                    buffer.put(payload);
+                }
+                flush(buffer);
+                channel.force(false);
+                for (Consumer<byte[]> follower : followers) {
+                    for (byte[] payload : batch) {
+                        if (payload.length != ROTATE_MARKER_LENGTH) {
+                            follower.accept(payload);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    failure = e;
+                    durable.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+
+            lock.lock();
+            try {
+                durableSeq = lastSeq;
+                durable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Method to stop accepting records, wait for everything queued to reach disk and close the file
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            hasWork.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private static byte[] encode(byte type, long timestamp, long amount, String accountNumber, String name, String pin) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(0); // sequence number, filled in by append
+            out.writeByte(type);
+            out.writeLong(timestamp);
+            out.writeLong(amount);
+            out.writeUTF(accountNumber);
+            out.writeUTF(name);
+            out.writeUTF(pin);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static long seqOf(byte[] payload) {
+        return ByteBuffer.wrap(payload).getLong(0);
+    }
+
+    static Entry decode(byte[] payload) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            long seq = in.readLong();
+            byte type = in.readByte();
+            long timestamp = in.readLong();
+            long amount = in.readLong();
+            String accountNumber = in.readUTF();
+            String name = in.readUTF();
+            String pin = in.readUTF();
+            return new Entry(seq, type, timestamp, amount, accountNumber, name, pin);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Malformed journal record", e);
+        }
+    }
+}
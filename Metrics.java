@@ -0,0 +1,296 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Per-operation latency histograms and outcome counters for the BankService, readable
+// through JMX (bank:type=Metrics) and as Prometheus text from a loopback-only HTTP
+// endpoint. Recording an operation costs two clock reads and a few uncontended atomic
+// adds, so it stays on the hot path permanently.
+class Metrics implements DynamicMBean {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    enum Operation {
+        CREATE_ACCOUNT("create_account"),
+        CREDIT("credit"),
+        DEBIT("debit"),
+        TRANSFER("transfer"),
+        BALANCE("balance"),
+        CHANGE_PIN("change_pin"),
+        STATEMENT("statement"),
+        PASSBOOK_PAGE("passbook_page"),
+        LOGIN("login"),
+        NAME_SEARCH("name_search"),
+        TRANSFER_PREPARE("transfer_prepare"),
+        TRANSFER_DECIDE("transfer_decide"),
+        SUMMARY("summary"),
+        // Background work, timed per run
+        SNAPSHOT("snapshot"),
+        LEDGER_COMPACTION("ledger_compaction"),
+        BATCH_JOB("batch_job");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+    private final LongAdder[] failures = new LongAdder[Operation.values().length];
+    private final LongAdder failedPins = new LongAdder();
+    private final LongAdder insufficientBalances = new LongAdder();
+    private final LongAdder fraudBlocks = new LongAdder();
+    private final LongSupplier accountCount;
+    private final LongSupplier repeatedRequests;
+    private HttpServer httpServer;
+
+    public Metrics(LongSupplier accountCount) {
+        this(accountCount, () -> 0);
+    }
+
+    // repeatedRequests counts requests answered from the idempotency store instead of being run again
+    public Metrics(LongSupplier accountCount, LongSupplier repeatedRequests) {
+        this.accountCount = accountCount;
+        this.repeatedRequests = repeatedRequests;
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+            failures[i] = new LongAdder();
+        }
+    }
+
+    // Method to record an operation started at startNanos (from System.nanoTime) and its outcome; returns the result
+    public BankResult record(Operation operation, long startNanos, BankResult result) {
+        latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+        if (!result.isOk()) {
+            failures[operation.ordinal()].increment();
+            if (result.getStatus() == BankResult.Status.INVALID_CREDENTIALS) {
+                failedPins.increment();
+            } else if (result.getStatus() == BankResult.Status.INSUFFICIENT_BALANCE) {
+                insufficientBalances.increment();
+            } else if (result.getStatus() == BankResult.Status.BLOCKED) {
+                fraudBlocks.increment();
+            }
+        }
+        return result;
+    }
+
+    // Method to record an operation that cannot fail
+    public void record(Operation operation, long startNanos) {
+        latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public LatencyHistogram.Snapshot latency(Operation operation) {
+        return latencies[operation.ordinal()].snapshot();
+    }
+
+    public long failures(Operation operation) {
+        return failures[operation.ordinal()].sum();
+    }
+
+    public long failedPins() {
+        return failedPins.sum();
+    }
+
+    public long insufficientBalances() {
+        return insufficientBalances.sum();
+    }
+
+    public long fraudBlocks() {
+        return fraudBlocks.sum();
+    }
+
+    // Method to render every metric in the Prometheus text exposition format
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP bank_operation_latency_seconds Latency of BankService operations.\n");
+        sb.append("# TYPE bank_operation_latency_seconds summary\n");
+        LatencyHistogram.Snapshot[] snapshots = new LatencyHistogram.Snapshot[latencies.length];
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Snapshot snapshot = latency(operation);
+            snapshots[operation.ordinal()] = snapshot;
+            for (double quantile : QUANTILES) {
+                sb.append(String.format(Locale.ROOT, "bank_operation_latency_seconds{operation=\"%s\",quantile=\"%s\"} %.9f%n",
+                        operation.label, quantile, snapshot.getValueAtQuantile(quantile) / 1e9));
+            }
+            sb.append(String.format(Locale.ROOT, "bank_operation_latency_seconds_sum{operation=\"%s\"} %.9f%n",
+                    operation.label, snapshot.getSum() / 1e9));
+            sb.append(String.format(Locale.ROOT, "bank_operation_latency_seconds_count{operation=\"%s\"} %d%n",
+                    operation.label, snapshot.getCount()));
+        }
+        sb.append("# HELP bank_operations_total BankService operations by outcome.\n");
+        sb.append("# TYPE bank_operations_total counter\n");
+        for (Operation operation : Operation.values()) {
+            long failed = failures(operation);
+            sb.append("bank_operations_total{operation=\"").append(operation.label).append("\",result=\"ok\"} ")
+                    .append(snapshots[operation.ordinal()].getCount() - failed).append('\n');
+            sb.append("bank_operations_total{operation=\"").append(operation.label).append("\",result=\"error\"} ")
+                    .append(failed).append('\n');
+        }
+        sb.append("# HELP bank_failed_pin_total Operations rejected for an unknown account or wrong PIN.\n");
+        sb.append("# TYPE bank_failed_pin_total counter\n");
+        sb.append("bank_failed_pin_total ").append(failedPins()).append('\n');
+        sb.append("# HELP bank_insufficient_balance_total Debits and transfers rejected for insufficient balance.\n");
+        sb.append("# TYPE bank_insufficient_balance_total counter\n");
+        sb.append("bank_insufficient_balance_total ").append(insufficientBalances()).append('\n');
+        sb.append("# HELP bank_fraud_blocked_total Debits and transfers blocked by a fraud rule.\n");
+        sb.append("# TYPE bank_fraud_blocked_total counter\n");
+        sb.append("bank_fraud_blocked_total ").append(fraudBlocks()).append('\n');
+        sb.append("# HELP bank_accounts Accounts in the registry.\n");
+        sb.append("# TYPE bank_accounts gauge\n");
+        sb.append("bank_accounts ").append(accountCount.getAsLong()).append('\n');
+        sb.append("# HELP bank_repeated_requests_total Retried requests answered with the result of the first attempt.\n");
+        sb.append("# TYPE bank_repeated_requests_total counter\n");
+        sb.append("bank_repeated_requests_total ").append(repeatedRequests.getAsLong()).append('\n');
+        return sb.toString();
+    }
+
+    // Method to register these metrics with the platform MBean server as bank:type=Metrics
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("bank:type=Metrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Failed to register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    // Method to serve GET /metrics on the loopback interface only, returns the port it listens on
+    public int startHttpEndpoint(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        httpServer.start();
+        return httpServer.getAddress().getPort();
+    }
+
+    public void shutdown() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+    }
+
+    // JMX attributes are named <operation>.<statistic>, plus the service-wide counters
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        switch (attribute) {
+            case "FailedPins":
+                return failedPins();
+            case "InsufficientBalances":
+                return insufficientBalances();
+            case "FraudBlocks":
+                return fraudBlocks();
+            case "Accounts":
+                return accountCount.getAsLong();
+            case "RepeatedRequests":
+                return repeatedRequests.getAsLong();
+            default:
+                break;
+        }
+        int dot = attribute.indexOf('.');
+        if (dot > 0) {
+            for (Operation operation : Operation.values()) {
+                if (operation.label.equals(attribute.substring(0, dot))) {
+                    return operationAttribute(operation, attribute.substring(dot + 1), attribute);
+                }
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    private Object operationAttribute(Operation operation, String statistic, String attribute) throws AttributeNotFoundException {
+        switch (statistic) {
+            case "Count":
+                return latency(operation).getCount();
+            case "Failures":
+                return failures(operation);
+            case "MeanMicros":
+                return latency(operation).getMean() / 1000.0;
+            case "P50Micros":
+                return latency(operation).getValueAtQuantile(0.5) / 1000.0;
+            case "P99Micros":
+                return latency(operation).getValueAtQuantile(0.99) / 1000.0;
+            case "P999Micros":
+                return latency(operation).getValueAtQuantile(0.999) / 1000.0;
+            case "MaxMicros":
+                return latency(operation).getMax() / 1000.0;
+            default:
+                throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Unknown attributes are left out, as the DynamicMBean contract allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        // There are no operations, so every name is unknown
+        throw new ReflectionException(new NoSuchMethodException(actionName), "No operation " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        attributes.add(new MBeanAttributeInfo("FailedPins", "long", "Operations rejected for an unknown account or wrong PIN", true, false, false));
+        attributes.add(new MBeanAttributeInfo("InsufficientBalances", "long", "Operations rejected for insufficient balance", true, false, false));
+        attributes.add(new MBeanAttributeInfo("FraudBlocks", "long", "Operations blocked by a fraud rule", true, false, false));
+        attributes.add(new MBeanAttributeInfo("Accounts", "long", "Accounts in the registry", true, false, false));
+        attributes.add(new MBeanAttributeInfo("RepeatedRequests", "long", "Retried requests answered with the first result", true, false, false));
+        for (Operation operation : Operation.values()) {
+            attributes.add(new MBeanAttributeInfo(operation.label + ".Count", "long", "Operations recorded", true, false, false));
+            attributes.add(new MBeanAttributeInfo(operation.label + ".Failures", "long", "Operations that did not succeed", true, false, false));
+            for (String statistic : new String[] {"MeanMicros", "P50Micros", "P99Micros", "P999Micros", "MaxMicros"}) {
+                attributes.add(new MBeanAttributeInfo(operation.label + "." + statistic, "double", "Latency in microseconds", true, false, false));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "BankService operation metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
@@ -0,0 +1,82 @@
+// Fixed-point money: every amount is a long count of minor units (cents) at a fixed scale
+final class Money {
+    public static final int SCALE = 2;
+    public static final long UNIT = 100;
+
+    private Money() {
+    }
+
+    // Method to parse a decimal string such as "12.5" into minor units (1250) without rounding
+    public static long parse(String text) {
+        if (text == null) {
+            throw new NumberFormatException("null");
+        }
+        try {
+            return parseExact(text);
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Amount too large: " + text);
+        }
+    }
+
+    private static long parseExact(String text) {
+        String s = text.trim();
+        int i = 0;
+        boolean negative = false;
+        if (i < s.length() && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        long units = 0;
+        int digits = 0;
+        for (; i < s.length() && s.charAt(i) != '.'; i++) {
+            units = Math.addExact(Math.multiplyExact(units, 10), digit(s, i));
+            digits++;
+        }
+        long fraction = 0;
+        int fractionDigits = 0;
+        if (i < s.length()) {
+            for (i++; i < s.length(); i++) {
+                if (++fractionDigits > SCALE) {
+                    throw new NumberFormatException("At most " + SCALE + " decimal places allowed: " + text);
+                }
+                fraction = fraction * 10 + digit(s, i);
+            }
+        }
+        if (digits == 0 && fractionDigits == 0) {
+            throw new NumberFormatException("Not an amount: " + text);
+        }
+        for (; fractionDigits < SCALE; fractionDigits++) {
+            fraction *= 10;
+        }
+        long value = Math.addExact(Math.multiplyExact(units, UNIT), fraction);
+        return negative ? -value : value;
+    }
+
+    // Method to format minor units as a decimal string, e.g. 1250 -> "12.50"
+    public static String format(long amount) {
+        StringBuilder sb = new StringBuilder(24);
+        appendTo(sb, amount);
+        return sb.toString();
+    }
+
+    public static void appendTo(StringBuilder sb, long amount) {
+        long units = amount / UNIT;
+        long fraction = Math.abs(amount % UNIT);
+        if (amount < 0 && units == 0) {
+            sb.append('-');
+        }
+        sb.append(units).append('.');
+        if (fraction < 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+
+    private static int digit(String s, int i) {
+        char c = s.charAt(i);
+        if (c < '0' || c > '9') {
+            throw new NumberFormatException("Not an amount: " + s);
+        }
+        return c - '0';
+    }
+}
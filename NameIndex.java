@@ -0,0 +1,136 @@
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+// Secondary index from account holder name to account, for prefix search. Names are
+// normalised (accents dropped, lower case, single spaces) and indexed once per word, so
+// both "gau" and "kas" find "Gaurav Kasture". Each key is the name from that word on,
+// then the account number, kept in a concurrent skip list: a search walks the sub-map of
+// keys starting with the prefix and hands out accounts in name order as it goes.
+class NameIndex {
+    private static final char SEPARATOR = '\u0000';
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private final ConcurrentSkipListMap<String, BankAccount> entries = new ConcurrentSkipListMap<>();
+
+    // Callers hold the account's monitor, so an account's keys change one name at a time
+    public void add(BankAccount account, String name) {
+        for (String key : keys(account, name)) {
+            entries.put(key, account);
+        }
+    }
+
+    // Method to index accounts restored during recovery, before any operation runs. Their keys
+    // are sorted first: inserting in order is several times faster than in random order.
+    public void addAll(Collection<BankAccount> accounts, Function<String, BankAccount> byAccountNumber) {
+        List<String> keys = new ArrayList<>(accounts.size() * 2);
+        for (BankAccount account : accounts) {
+            keys.addAll(keys(account, account.followName(this)));
+        }
+        String[] sorted = keys.toArray(new String[0]);
+        keys = null;
+        Arrays.parallelSort(sorted);
+        for (String key : sorted) {
+            entries.put(key, byAccountNumber.apply(key.substring(key.lastIndexOf(SEPARATOR) + 1)));
+        }
+    }
+
+    public void remove(BankAccount account, String name) {
+        for (String key : keys(account, name)) {
+            entries.remove(key, account);
+        }
+    }
+
+    public void rename(BankAccount account, String oldName, String newName) {
+        List<String> oldKeys = keys(account, oldName);
+        List<String> newKeys = keys(account, newName);
+        for (String key : newKeys) {
+            entries.put(key, account);
+        }
+        for (String key : oldKeys) {
+            if (!newKeys.contains(key)) {
+                entries.remove(key, account);
+            }
+        }
+    }
+
+    // Method to visit, in name order, up to limit accounts whose name or one of its words starts
+    // with the prefix. Stops early when the visitor returns false; returns the number visited.
+    public int search(String prefix, int limit, Predicate<BankAccount> visitor) {
+        String from = normalize(prefix);
+        if (from.isEmpty() || limit <= 0) {
+            return 0;
+        }
+        // An account matching at more than one word is only visited the first time
+        Set<BankAccount> seen = new HashSet<>();
+        int visited = 0;
+        for (BankAccount account : entries.subMap(from, from + Character.MAX_VALUE).values()) {
+            if (!seen.add(account)) {
+                continue;
+            }
+            visited++;
+            if (!visitor.test(account) || visited >= limit) {
+                break;
+            }
+        }
+        return visited;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) >= 0x80) {
+                // Only names outside ASCII pay for decomposing accents away
+                return collapse(MARKS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll(""));
+            }
+        }
+        return collapse(name);
+    }
+
+    // Lower case with single spaces between words
+    private static String collapse(CharSequence name) {
+        StringBuilder sb = new StringBuilder(name.length());
+        boolean space = false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = sb.length() > 0;
+            } else {
+                if (space) {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static List<String> keys(BankAccount account, String name) {
+        String normalized = normalize(name);
+        List<String> keys = new ArrayList<>(2);
+        if (normalized.isEmpty()) {
+            return keys;
+        }
+        String suffix = SEPARATOR + account.getAccountNumber();
+        keys.add(normalized + suffix);
+        for (int i = normalized.indexOf(' '); i >= 0; i = normalized.indexOf(' ', i + 1)) {
+            keys.add(normalized.substring(i + 1) + suffix);
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,217 @@
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.spec.KeySpec;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// Salted PIN hashing and verification. PINs are stored as
+// "pbkdf2$<iterations>$<salt>$<hash>" (PBKDF2-HMAC-SHA256, Base64), which is what the
+// account, the journal and snapshots hold; plaintext PINs from older data are still
+// accepted and rehashed on their next successful use.
+//
+// A full PBKDF2 check costs tens of milliseconds, so a successful check is remembered
+// for a short while: the cache keeps, per account, an HMAC of the PIN under a key that
+// only lives in this process, and the stored hash it was checked against. A repeat
+// operation with the same PIN then costs one HMAC. The cache is bounded in size and age,
+// and an entry stops matching as soon as the account's PIN hash changes.
+//
+// Consecutive failures lock the account out for a time that doubles with every further
+// failure, so PINs cannot be guessed at KDF-bypassing speed through the cache or at all.
+class PinAuthenticator {
+    enum Outcome {
+        OK,
+        INVALID,
+        LOCKED
+    }
+
+    private static final String SCHEME = "pbkdf2";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final long MAX_LOCKOUT_MILLIS = 60L * 60 * 1000;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+    private final int cacheSize;
+    private final long cacheMillis;
+    private final int maxFailures;
+    private final long lockoutMillis;
+    private final byte[] cacheKey = new byte[32];
+    private final ConcurrentHashMap<String, Verified> verified = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Failures> failures = new ConcurrentHashMap<>();
+    private final ThreadLocal<Mac> macs;
+
+    // A PIN that recently verified against the given stored hash
+    private static class Verified {
+        final String storedHash;
+        final byte[] pinMac;
+        final long expiresAt;
+
+        Verified(String storedHash, byte[] pinMac, long expiresAt) {
+            this.storedHash = storedHash;
+            this.pinMac = pinMac;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Failures {
+        int count;
+        long lockedUntil;
+    }
+
+    public PinAuthenticator(int iterations, int cacheSize, long cacheMillis, int maxFailures, long lockoutMillis) {
+        this.iterations = iterations;
+        this.cacheSize = cacheSize;
+        this.cacheMillis = cacheMillis;
+        this.maxFailures = maxFailures;
+        this.lockoutMillis = lockoutMillis;
+        RANDOM.nextBytes(cacheKey);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(new SecretKeySpec(cacheKey, "HmacSHA256"));
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 unavailable", e);
+            }
+        });
+    }
+
+    // Method to create an authenticator from -Dbank.pin.iterations (default 100000), -Dbank.auth.cacheSize
+    // (100000 accounts), -Dbank.auth.cacheSeconds (300), -Dbank.auth.maxFailures (5) and
+    // -Dbank.auth.lockoutSeconds (30, doubled for every failure past the limit)
+    public static PinAuthenticator fromSystemProperties() {
+        return new PinAuthenticator(Integer.getInteger("bank.pin.iterations", 100_000),
+                Integer.getInteger("bank.auth.cacheSize", 100_000),
+                Long.getLong("bank.auth.cacheSeconds", 300) * 1000,
+                Integer.getInteger("bank.auth.maxFailures", 5),
+                Long.getLong("bank.auth.lockoutSeconds", 30) * 1000);
+    }
+
+    // Method to hash a new PIN with a fresh salt
+    public String hash(String pin) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder();
+        return SCHEME + "$" + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(pbkdf2(pin, salt, iterations));
+    }
+
+    // Method to check a PIN against the account's stored hash, honouring the lockout. A PIN that
+    // needs the full check is counted as a failed attempt before it is hashed, under the same lock
+    // as the lockout check, so guesses sent in parallel are locked out like guesses sent in turn;
+    // a PIN that turns out right clears the count again.
+    public Outcome verify(BankAccount account, String pin) {
+        String accountNumber = account.getAccountNumber();
+        long now = System.currentTimeMillis();
+        Failures failed = failures.get(accountNumber);
+        if (failed != null) {
+            synchronized (failed) {
+                if (now < failed.lockedUntil) {
+                    return Outcome.LOCKED;
+                }
+            }
+        }
+
+        String storedHash = account.getPinHash();
+        byte[] pinMac = mac(pin);
+        Verified cached = verified.get(accountNumber);
+        boolean fresh = cached != null && cached.storedHash.equals(storedHash) && now < cached.expiresAt;
+        // A different PIN than the cached one still has to go through the full check
+        if (!fresh || !MessageDigest.isEqual(cached.pinMac, pinMac)) {
+            failed = countAttempt(accountNumber, now);
+            if (failed == null) {
+                return Outcome.LOCKED;
+            }
+            if (!matches(storedHash, pin)) {
+                return Outcome.INVALID;
+            }
+            remember(accountNumber, new Verified(storedHash, pinMac, now + cacheMillis), now);
+        }
+        if (failed != null) {
+            failures.remove(accountNumber, failed);
+        }
+        return Outcome.OK;
+    }
+
+    // True if the stored value is a plaintext PIN from before hashing, which should be rehashed
+    public static boolean isLegacy(String storedHash) {
+        return !storedHash.startsWith(SCHEME + "$");
+    }
+
+    // Method to cache a PIN just hashed for the account, so its first use skips the full check
+    public void remember(String accountNumber, String storedHash, String pin) {
+        long now = System.currentTimeMillis();
+        remember(accountNumber, new Verified(storedHash, mac(pin), now + cacheMillis), now);
+    }
+
+    private boolean matches(String storedHash, String pin) {
+        if (isLegacy(storedHash)) {
+            return MessageDigest.isEqual(storedHash.getBytes(StandardCharsets.UTF_8), pin.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = storedHash.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        Base64.Decoder base64 = Base64.getDecoder();
+        byte[] expected = base64.decode(parts[3]);
+        return MessageDigest.isEqual(expected, pbkdf2(pin, base64.decode(parts[2]), Integer.parseInt(parts[1])));
+    }
+
+    // Method to count an attempt as failed until it is known to be right, locking the account once
+    // there are too many. Returns the account's failures, or null if it is locked already.
+    private Failures countAttempt(String accountNumber, long now) {
+        Failures failed = failures.computeIfAbsent(accountNumber, key -> new Failures());
+        synchronized (failed) {
+            if (now < failed.lockedUntil) {
+                return null;
+            }
+            failed.count++;
+            if (failed.count >= maxFailures) {
+                int doublings = Math.min(failed.count - maxFailures, 20);
+                failed.lockedUntil = now + Math.min(lockoutMillis << doublings, MAX_LOCKOUT_MILLIS);
+            }
+        }
+        return failed;
+    }
+
+    private void remember(String accountNumber, Verified entry, long now) {
+        if (verified.size() >= cacheSize && !verified.containsKey(accountNumber)) {
+            evict(now);
+        }
+        verified.put(accountNumber, entry);
+    }
+
+    // Drops expired entries, and if that frees nothing, an arbitrary eighth of the cache
+    private void evict(long now) {
+        verified.values().removeIf(entry -> now >= entry.expiresAt);
+        if (verified.size() < cacheSize) {
+            return;
+        }
+        int excess = Math.max(1, cacheSize / 8);
+        Iterator<String> keys = verified.keySet().iterator();
+        while (excess-- > 0 && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    private byte[] mac(String pin) {
+        return macs.get().doFinal(pin.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] pbkdf2(String pin, byte[] salt, int iterations) {
+        KeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 unavailable", e);
+        }
+    }
+}
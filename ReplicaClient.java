@@ -0,0 +1,205 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Follows a primary's ReplicationServer on behalf of a read replica: receives the journal
+// records the primary ships and applies each one to the local service, which journals it
+// under the same sequence number. A dropped connection is retried from the next record
+// the local journal is missing.
+//
+// Staleness is measured from the primary's heartbeats: a heartbeat says every record up
+// to a sequence has been sent, so once those are applied the replica was up to date when
+// the heartbeat arrived. Reads are refused once that is longer ago than the allowed lag.
+class ReplicaClient {
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    private final BankService service;
+    private final String primary;
+    private final String secret;
+    private final long maxLagMillis;
+    private final long retryMillis;
+    private final Thread follower;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    // Whether the current connection got as far as following, so a lost primary is only reported once
+    private boolean following;
+    private volatile long appliedSeq;
+    // When the replica last held everything the primary had, 0 before the first heartbeat
+    private volatile long upToDateAt;
+
+    public ReplicaClient(BankService service, String primary, String secret, long maxLagMillis, long retryMillis) {
+        this.service = service;
+        this.primary = primary;
+        this.secret = secret;
+        this.maxLagMillis = maxLagMillis;
+        this.retryMillis = retryMillis;
+        this.appliedSeq = service.getJournal().nextSeq() - 1;
+        this.follower = new Thread(this::followLoop, "replica-follower");
+        this.follower.setDaemon(true);
+    }
+
+    // Method to create the client from -Dbank.cluster.secret, -Dbank.replica.maxLagMillis (default 1000)
+    // and -Dbank.replica.retryMillis (default 500)
+    public static ReplicaClient fromSystemProperties(BankService service, String primary) {
+        return new ReplicaClient(service, primary, requireSecret(),
+                Long.getLong("bank.replica.maxLagMillis", 1000), Long.getLong("bank.replica.retryMillis", 500));
+    }
+
+    // Method to seed a data directory holding no snapshot or journal with a snapshot of the primary.
+    // Returns a one-line summary, or null if the directory already had data.
+    public static String bootstrapIfEmpty(String primary, Path dataDir, int ledgerSegmentSize) throws IOException {
+        if (Files.isDirectory(dataDir)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dataDir, "{snapshot-,journal}*")) {
+                if (files.iterator().hasNext()) {
+                    return null;
+                }
+            }
+        }
+        long start = System.nanoTime();
+        try (Socket s = connect(primary);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16))) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+            out.writeUTF(requireSecret());
+            out.writeUTF("SNAPSHOT");
+            out.writeInt(ledgerSegmentSize);
+            out.flush();
+            String reply = in.readUTF();
+            if (!reply.equals("OK")) {
+                throw new IOException("Primary " + primary + " refused a snapshot: " + reply);
+            }
+            long coveredSeq = new SnapshotStore(dataDir).receive(in);
+            TransactionLedger.receive(dataDir, ledgerSegmentSize, in, in.readLong());
+            return String.format("Seeded from a snapshot of %s through #%d in %d ms",
+                    primary, coveredSeq, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    public void start() {
+        follower.start();
+    }
+
+    // Method to stop following and wait until the last received record has been applied
+    public void stop() {
+        running = false;
+        closeSocket();
+        try {
+            follower.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getPrimary() {
+        return primary;
+    }
+
+    public long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    // How long ago the replica last held everything the primary had
+    public long getStaleMillis() {
+        long at = upToDateAt;
+        return at == 0 ? Long.MAX_VALUE : Math.max(0, System.currentTimeMillis() - at);
+    }
+
+    public boolean isFresh() {
+        return getStaleMillis() <= maxLagMillis;
+    }
+
+    private void followLoop() {
+        while (running) {
+            try {
+                follow();
+            } catch (IOException e) {
+                if (running && following) {
+                    System.err.println("Lost primary " + primary + " (" + e + "), retrying every " + retryMillis + " ms");
+                }
+                following = false;
+            } catch (RuntimeException e) {
+                // A record that cannot be applied here would leave the replica wrong from then on
+                System.err.println("Stopped following " + primary + ": " + e.getMessage());
+                return;
+            } finally {
+                closeSocket();
+            }
+            try {
+                Thread.sleep(retryMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void follow() throws IOException {
+        Socket s = connect(primary);
+        socket = s;
+        if (!running) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        out.writeUTF(secret);
+        out.writeUTF("FOLLOW");
+        out.writeLong(appliedSeq + 1);
+        out.flush();
+        String reply = in.readUTF();
+        if (!reply.equals("OK")) {
+            throw new IllegalStateException("Primary refused to ship its journal: " + reply);
+        }
+        following = true;
+        while (running) {
+            byte type = in.readByte();
+            if (type == ReplicationServer.RECORD) {
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+                service.applyReplicated(payload);
+                appliedSeq = Journal.seqOf(payload);
+            } else if (type == ReplicationServer.HEARTBEAT) {
+                if (appliedSeq >= in.readLong()) {
+                    upToDateAt = System.currentTimeMillis();
+                }
+            } else {
+                throw new IOException("Unexpected frame " + type);
+            }
+        }
+    }
+
+    private void closeSocket() {
+        Socket s = socket;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+
+    private static Socket connect(String primary) throws IOException {
+        int colon = primary.lastIndexOf(':');
+        if (colon < 0) {
+            throw new IllegalArgumentException("Expected host:port for the primary, got " + primary);
+        }
+        Socket s = new Socket();
+        s.connect(new InetSocketAddress(primary.substring(0, colon), Integer.parseInt(primary.substring(colon + 1))), CONNECT_TIMEOUT_MILLIS);
+        s.setTcpNoDelay(true);
+        return s;
+    }
+
+    private static String requireSecret() {
+        String secret = System.getProperty("bank.cluster.secret");
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalStateException("Following a primary needs -Dbank.cluster.secret");
+        }
+        return secret;
+    }
+}
@@ -0,0 +1,222 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Ships the primary's journal to read replicas. A replica first asks for a snapshot to
+// start from if it has no data, then follows the journal from the first record it is
+// missing: older records are read back from the journal segments, after which each batch
+// is sent as soon as it is durable here. A replica that falls behind costs a bounded
+// queue; records that did not fit are read back from the segments instead.
+//
+// Protocol (DataOutputStream encoding): the replica sends [UTF cluster secret][UTF command]
+//   SNAPSHOT [int ledger segment size]  answered [UTF "OK"][long covered seq][long n][n bytes of
+//                                       snapshot][long ledger length][ledger bytes]
+//   FOLLOW [long next seq]              answered [UTF "OK"] then a stream of frames:
+//                                       'R' [int n][n bytes of journal record]
+//                                       'H' [long durable seq] every heartbeat interval, once
+//                                       every record up to that sequence has been sent
+// Refusals are [UTF "ERROR <status> <message>"]; FOLLOW is refused with TOO_OLD when the
+// records the replica needs have been dropped after a snapshot, and with DIVERGED when the
+// replica holds records this journal does not.
+class ReplicationServer {
+    static final byte RECORD = 'R';
+    static final byte HEARTBEAT = 'H';
+
+    private final BankService service;
+    private final Journal journal;
+    private final byte[] clusterSecret;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final long heartbeatMillis;
+    private final int maxQueued;
+    private final AtomicInteger followers = new AtomicInteger();
+    private volatile boolean running = true;
+
+    // Heartbeats every -Dbank.replication.heartbeatMillis (default 100), at most
+    // -Dbank.replication.maxQueued (default 65536) records queued per replica
+    public ReplicationServer(BankService service, int port) throws IOException {
+        String secret = System.getProperty("bank.cluster.secret");
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalStateException("Replication needs -Dbank.cluster.secret");
+        }
+        if (service.getJournal() == null) {
+            throw new IllegalStateException("Replication needs a journal");
+        }
+        this.service = service;
+        this.journal = service.getJournal();
+        this.clusterSecret = secret.getBytes(StandardCharsets.UTF_8);
+        this.heartbeatMillis = Long.getLong("bank.replication.heartbeatMillis", 100);
+        this.maxQueued = Integer.getInteger("bank.replication.maxQueued", 65_536);
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(port));
+        this.connections = BankServer.newConnectionExecutor();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getFollowers() {
+        return followers.get();
+    }
+
+    // Method to accept replicas on a background thread until close() is called
+    public void start() {
+        Thread acceptor = new Thread(() -> {
+            while (running) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.execute(() -> handle(socket));
+                } catch (SocketException e) {
+                    if (!running) {
+                        return;
+                    }
+                    System.err.println("Replication accept failed: " + e.getMessage());
+                } catch (IOException e) {
+                    System.err.println("Replication accept failed: " + e.getMessage());
+                }
+            }
+        }, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Nothing left to accept either way
+        }
+        connections.shutdownNow();
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16))) {
+            s.setTcpNoDelay(true);
+            if (!MessageDigest.isEqual(clusterSecret, in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+                out.writeUTF("ERROR INVALID_CREDENTIALS Wrong cluster secret");
+                return;
+            }
+            String command = in.readUTF();
+            if (command.equals("SNAPSHOT")) {
+                int segmentSize = in.readInt();
+                if (segmentSize != service.getLedger().getSegmentSize()) {
+                    out.writeUTF("ERROR BAD_REQUEST Ledger segments here are " + service.getLedger().getSegmentSize()
+                            + " bytes, not " + segmentSize + "; set -Dbank.ledger.segmentMB to match");
+                    return;
+                }
+                out.writeUTF("OK");
+                service.copySnapshotTo(out);
+                out.flush();
+            } else if (command.equals("FOLLOW")) {
+                follow(in.readLong(), out);
+            } else {
+                out.writeUTF("ERROR BAD_REQUEST Unknown command " + command);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // The replica went away; it reconnects from where it got to
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void follow(long fromSeq, DataOutputStream out) throws IOException, InterruptedException {
+        LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(maxQueued);
+        // Records that do not fit are simply dropped here and read back from disk when the gap shows
+        Consumer<byte[]> follower = queue::offer;
+        journal.addFollower(follower);
+        followers.incrementAndGet();
+        try {
+            if (fromSeq < journal.firstAvailableSeq()) {
+                out.writeUTF("ERROR TOO_OLD Journal records from #" + fromSeq + " are no longer here; empty the replica's data directory to reseed it");
+                return;
+            }
+            if (fromSeq > journal.nextSeq()) {
+                out.writeUTF("ERROR DIVERGED The replica is ahead of this journal at #" + (journal.nextSeq() - 1));
+                return;
+            }
+            out.writeUTF("OK");
+            Shipment shipment = new Shipment(out, fromSeq - 1);
+            while (running) {
+                byte[] payload = queue.poll(heartbeatMillis, TimeUnit.MILLISECONDS);
+                // Every record up to here has been handed to the queue by the time it counts as durable
+                long durable = journal.durableSeq();
+                while (payload != null) {
+                    shipment.send(payload);
+                    if (shipment.sent >= durable) {
+                        break;
+                    }
+                    payload = queue.poll();
+                }
+                shipment.catchUp(durable);
+                out.writeByte(HEARTBEAT);
+                out.writeLong(durable);
+                out.flush();
+            }
+        } finally {
+            journal.removeFollower(follower);
+            followers.decrementAndGet();
+        }
+    }
+
+    // Records go out strictly in sequence: a record arriving after a gap (the replica was still
+    // catching up from disk when it was queued, or the queue was full) waits for the gap to be
+    // read back from the journal segments, and records already sent are skipped
+    private class Shipment {
+        private final DataOutputStream out;
+        private long sent;
+
+        Shipment(DataOutputStream out, long sent) {
+            this.out = out;
+            this.sent = sent;
+        }
+
+        void send(byte[] payload) throws IOException {
+            long seq = Journal.seqOf(payload);
+            if (seq <= sent) {
+                return;
+            }
+            catchUp(seq - 1);
+            write(payload);
+        }
+
+        void catchUp(long toSeq) throws IOException {
+            if (toSeq > sent) {
+                journal.read(sent + 1, toSeq, this::writeUnchecked);
+            }
+        }
+
+        private void writeUnchecked(byte[] payload) {
+            try {
+                write(payload);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void write(byte[] payload) throws IOException {
+            out.writeByte(RECORD);
+            out.writeInt(payload.length);
+            out.write(payload);
+            sent = Journal.seqOf(payload);
+        }
+    }
+}
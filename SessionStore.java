@@ -0,0 +1,93 @@
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Logged-in sessions. A session is created once the PIN has been checked and holds the
+// resolved account, so operations made through it need neither a registry lookup nor a
+// PIN check. Sessions expire after a period of inactivity; the store is bounded and
+// drops expired sessions first, then an arbitrary eighth, when it fills up.
+class SessionStore {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final int TOKEN_BYTES = 16;
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final long idleMillis;
+    private final int maxSessions;
+
+    static class Session {
+        private final String token;
+        private final BankAccount account;
+        private volatile long expiresAt;
+
+        Session(String token, BankAccount account, long expiresAt) {
+            this.token = token;
+            this.account = account;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        public BankAccount getAccount() {
+            return account;
+        }
+    }
+
+    public SessionStore(long idleMillis, int maxSessions) {
+        this.idleMillis = idleMillis;
+        this.maxSessions = maxSessions;
+    }
+
+    // Method to open a session for an authenticated account
+    public Session open(BankAccount account) {
+        long now = System.currentTimeMillis();
+        if (sessions.size() >= maxSessions) {
+            evict(now);
+        }
+        byte[] bytes = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(bytes);
+        Session session = new Session(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes), account, now + idleMillis);
+        sessions.put(session.token, session);
+        return session;
+    }
+
+    // Method to find a live session by its token, returns null if it is unknown or has expired
+    public Session find(String token) {
+        Session session = sessions.get(token);
+        return session != null && touch(session) ? session : null;
+    }
+
+    // Method to check that a session is still live and extend it; expired sessions are removed
+    public boolean touch(Session session) {
+        long now = System.currentTimeMillis();
+        if (now >= session.expiresAt || sessions.get(session.token) != session) {
+            sessions.remove(session.token, session);
+            return false;
+        }
+        session.expiresAt = now + idleMillis;
+        return true;
+    }
+
+    public void close(Session session) {
+        sessions.remove(session.token, session);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    private void evict(long now) {
+        sessions.values().removeIf(session -> now >= session.expiresAt);
+        if (sessions.size() < maxSessions) {
+            return;
+        }
+        int excess = Math.max(1, maxSessions / 8);
+        Iterator<String> tokens = sessions.keySet().iterator();
+        while (excess-- > 0 && tokens.hasNext()) {
+            tokens.next();
+            tokens.remove();
+        }
+    }
+}
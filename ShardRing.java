@@ -0,0 +1,57 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Consistent hash ring mapping account numbers to shards. Every shard is placed on the
+// ring at a number of pseudo-random points (virtual nodes) and owns the arc up to each
+// of them, so accounts spread evenly and adding a shard to N moves only about 1/(N+1)
+// of them. Points are derived from the shard's position in the cluster's shard list,
+// not its address, so a shard can move to another host without reshuffling accounts.
+class ShardRing {
+    private final long[] points;
+    private final int[] owners;
+
+    public ShardRing(int shards, int virtualNodes) {
+        if (shards < 1 || virtualNodes < 1) {
+            throw new IllegalArgumentException("A ring needs at least one shard and one virtual node per shard");
+        }
+        int size = shards * virtualNodes;
+        long[][] placed = new long[size][];
+        for (int shard = 0; shard < shards; shard++) {
+            for (int v = 0; v < virtualNodes; v++) {
+                int i = shard * virtualNodes + v;
+                placed[i] = new long[] {hash("shard-" + shard + "#" + v), shard};
+            }
+        }
+        Arrays.sort(placed, (a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            points[i] = placed[i][0];
+            owners[i] = (int) placed[i][1];
+        }
+    }
+
+    // Method to find the shard owning an account: the first point at or after its hash, wrapping around
+    public int shardFor(String accountNumber) {
+        int i = Arrays.binarySearch(points, hash(accountNumber));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+    // FNV-1a over the UTF-8 bytes, then the MurmurHash3 finalizer to spread similar keys apart
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,359 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.CRC32;
+
+// Compact binary snapshots of every account. A snapshot covering the journal up to
+// sequence N is written to snapshot-<N>.bin through a temporary file and an atomic
+// rename, so a crash never leaves a half-written snapshot in place. Snapshots are read
+// back through memory-mapped windows of the file.
+//
+// Layout: [int magic][int version][long covered seq], the ledger's high-water mark before
+// any account was copied (added in version 6), one [int length][account] per
+// account, then [int -1][long account count], the idempotency keys still in their window
+// as an [int count] of [int length][account][key][request][long time][result message]
+// (added in version 5), then [long ledger high-water mark][long crc32 of all preceding bytes].
+// Accounts carry a pointer to their newest ledger record rather than the history itself,
+// and the last interest and fee job runs posted to them (added in version 3), and their
+// undecided transfer legs with other shards as an [int count] of [transaction id][long
+// amount] (added in version 4), each followed by the idempotency key and request of a
+// keyed outgoing leg, empty for others (added in version 5). Version 1 snapshots held the history inline and had no
+// high-water mark; they are still read, moving the history into the ledger.
+class SnapshotStore {
+    private static final int MAGIC = 0x424b534e;
+    private static final int VERSION = 6;
+    private static final int END_MARKER = -1;
+    private static final long MAP_WINDOW = 256L << 20;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+
+    private final Path directory;
+
+    public SnapshotStore(Path directory) {
+        this.directory = directory;
+    }
+
+    // Method to load the newest snapshot into the registry and its idempotency keys into the store,
+    // returns the journal sequence it covers (0 if none)
+    public long loadLatest(AccountRegistry registry, TransactionLedger ledger, IdempotencyStore<BankResult> idempotency) throws IOException {
+        TreeMap<Long, Path> snapshots = listSnapshots();
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        Path file = snapshots.lastEntry().getValue();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedReader in = new MappedReader(channel);
+            ByteBuffer header = in.take(16);
+            int version = header.getInt(4);
+            if (header.getInt() != MAGIC || version < 1 || version > VERSION) {
+                throw new IOException("Not a bank snapshot: " + file);
+            }
+            long coveredSeq = header.getLong(8);
+            // Older snapshots do not say, so every record above the cold tier is checked
+            long settled = version >= 6 ? in.take(8).getLong() : 0;
+            long count = 0;
+            while (true) {
+                int length = in.take(4).getInt();
+                if (length == END_MARKER) {
+                    break;
+                }
+                ByteBuffer record = in.take(length);
+                registry.restore(version == 1 ? readAccountWithHistory(record, ledger) : readAccount(record, ledger, version));
+                count++;
+            }
+            long expectedCount = in.take(8).getLong();
+            if (version >= 5) {
+                for (int keys = in.take(4).getInt(); keys > 0; keys--) {
+                    readKey(in.take(in.take(4).getInt()), registry, idempotency);
+                }
+            }
+            long highWaterMark = version == 1 ? ledger.highWaterMark() : in.take(8).getLong();
+            long computedCrc = in.finishChecksum();
+            if (count != expectedCount || in.take(8).getLong() != computedCrc) {
+                throw new IOException("Corrupt snapshot: " + file);
+            }
+            ledger.truncate(highWaterMark, version == 1 ? highWaterMark : settled, registry.getAccounts());
+            return coveredSeq;
+        }
+    }
+
+    // Method to write a snapshot of the accounts, returns how many were written. Each account is
+    // copied under its own monitor, so writers are only ever held up for one account at a time.
+    // The ledger tails written are marked in the planned compaction, if there is one, and the
+    // keys are those the store still holds for changes journaled up to coveredSeq.
+    public long write(Iterable<BankAccount> accounts, TransactionLedger ledger, long coveredSeq,
+                      TransactionLedger.Compaction compaction, List<IdempotencyStore.Kept<BankResult>> keys) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(snapshotName(coveredSeq));
+        Path tmp = directory.resolve(snapshotName(coveredSeq) + ".tmp");
+        long count = 0;
+        try (FileOutputStream fileOut = new FileOutputStream(tmp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(coveredSeq);
+            // Records below this were appended before any account is copied, so each is in a history written below
+            out.writeLong(ledger.highWaterMark());
+
+            ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+            DataOutputStream recordOut = new DataOutputStream(record);
+            for (BankAccount account : accounts) {
+                record.reset();
+                writeAccount(recordOut, account, compaction);
+                out.writeInt(record.size());
+                record.writeTo(out);
+                count++;
+            }
+            // Every history pointer written above is below the high-water mark and on disk after the force
+            ledger.force();
+            out.writeInt(END_MARKER);
+            out.writeLong(count);
+            out.writeInt(keys.size());
+            for (IdempotencyStore.Kept<BankResult> key : keys) {
+                record.reset();
+                writeKey(recordOut, key);
+                out.writeInt(record.size());
+                record.writeTo(out);
+            }
+            out.writeLong(ledger.highWaterMark());
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory();
+        return count;
+    }
+
+    // Method to copy the newest snapshot to the stream as [long covered seq][long length][file], for
+    // seeding a replica; returns the ledger high-water mark it points up to
+    public long copyLatestTo(DataOutputStream out) throws IOException {
+        TreeMap<Long, Path> snapshots = listSnapshots();
+        if (snapshots.isEmpty()) {
+            throw new IOException("No snapshot to copy");
+        }
+        Path file = snapshots.lastEntry().getValue();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            // The high-water mark sits before the checksum at the end of the file
+            ByteBuffer highWaterMark = ByteBuffer.allocate(8);
+            channel.read(highWaterMark, size - 16);
+            out.writeLong(snapshots.lastKey());
+            out.writeLong(size);
+            InputStream in = Channels.newInputStream(channel.position(0));
+            byte[] chunk = new byte[1 << 16];
+            for (long left = size; left > 0; ) {
+                int n = in.read(chunk, 0, (int) Math.min(chunk.length, left));
+                if (n < 0) {
+                    throw new IOException("Snapshot shrank while being copied: " + file);
+                }
+                out.write(chunk, 0, n);
+                left -= n;
+            }
+            return highWaterMark.getLong(0);
+        }
+    }
+
+    // Method to store a snapshot copied by copyLatestTo, returns the journal sequence it covers
+    public long receive(DataInputStream in) throws IOException {
+        Files.createDirectories(directory);
+        long coveredSeq = in.readLong();
+        Path tmp = directory.resolve(snapshotName(coveredSeq) + ".tmp");
+        byte[] chunk = new byte[1 << 16];
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            for (long left = in.readLong(); left > 0; ) {
+                int n = (int) Math.min(chunk.length, left);
+                in.readFully(chunk, 0, n);
+                out.write(chunk, 0, n);
+                left -= n;
+            }
+        }
+        Files.move(tmp, directory.resolve(snapshotName(coveredSeq)), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return coveredSeq;
+    }
+
+    // Method to remove snapshots superseded by the one covering the given sequence
+    public void deleteOlderThan(long coveredSeq) throws IOException {
+        for (Path file : listSnapshots().headMap(coveredSeq, false).values()) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void writeAccount(DataOutputStream out, BankAccount account, TransactionLedger.Compaction compaction) throws IOException {
+        synchronized (account) {
+            if (compaction != null) {
+                compaction.mark(account.getLedgerTail());
+            }
+            writeString(out, account.getAccountNumber());
+            writeString(out, account.getName());
+            writeString(out, account.getPinHash());
+            out.writeLong(account.getBalance());
+            out.writeLong(account.getLastJournalSeq());
+            out.writeLong(account.getLedgerTail());
+            out.writeInt(account.getTransactionCount());
+            out.writeLong(account.getLastInterestRun());
+            out.writeLong(account.getLastFeeRun());
+            Map<String, Long> pending = account.getPendingTransfers();
+            Map<String, String> keys = account.getTransferKeys();
+            out.writeInt(pending.size());
+            for (Map.Entry<String, Long> leg : pending.entrySet()) {
+                writeString(out, leg.getKey());
+                out.writeLong(leg.getValue());
+                writeString(out, keys.getOrDefault(leg.getKey(), ""));
+            }
+        }
+    }
+
+    private static BankAccount readAccount(ByteBuffer in, TransactionLedger ledger, int version) {
+        String accountNumber = readString(in);
+        String name = readString(in);
+        String pinHash = readString(in);
+        BankAccount account = new BankAccount(name, accountNumber, pinHash, in.getLong(), ledger);
+        account.setLastJournalSeq(in.getLong());
+        long ledgerTail = in.getLong();
+        account.restoreHistory(ledgerTail, in.getInt());
+        if (version >= 3) {
+            account.setLastInterestRun(in.getLong());
+            account.setLastFeeRun(in.getLong());
+        }
+        if (version >= 4) {
+            for (int legs = in.getInt(); legs > 0; legs--) {
+                String transactionId = readString(in);
+                long amount = in.getLong();
+                String key = version >= 5 ? readString(in) : "";
+                account.prepareTransfer(transactionId, amount, key.isEmpty() ? null : key);
+            }
+        }
+        return account;
+    }
+
+    private static void writeKey(DataOutputStream out, IdempotencyStore.Kept<BankResult> key) throws IOException {
+        writeString(out, key.accountNumber);
+        writeString(out, key.key);
+        writeString(out, key.request);
+        out.writeLong(key.createdAt);
+        writeString(out, key.result.getMessage());
+    }
+
+    // Keys of accounts the snapshot does not hold are dropped along with them
+    private static void readKey(ByteBuffer in, AccountRegistry registry, IdempotencyStore<BankResult> idempotency) {
+        String accountNumber = readString(in);
+        String key = readString(in);
+        String request = readString(in);
+        long createdAt = in.getLong();
+        String message = readString(in);
+        BankAccount account = registry.findAccount(accountNumber);
+        if (account != null) {
+            idempotency.remember(accountNumber, key, request, createdAt, BankResult.ok(account, message));
+        }
+    }
+
+    private static BankAccount readAccountWithHistory(ByteBuffer in, TransactionLedger ledger) {
+        String accountNumber = readString(in);
+        String name = readString(in);
+        String pinHash = readString(in);
+        BankAccount account = new BankAccount(name, accountNumber, pinHash, in.getLong(), ledger);
+        account.setLastJournalSeq(in.getLong());
+        int transactions = in.getInt();
+        for (int i = 0; i < transactions; i++) {
+            String type = readString(in);
+            long amount = in.getLong();
+            account.addTransaction(type, amount, in.getLong());
+        }
+        return account;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xffff];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private TreeMap<Long, Path> listSnapshots() throws IOException {
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        if (!Files.isDirectory(directory)) {
+            return snapshots;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                snapshots.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+            }
+        }
+        return snapshots;
+    }
+
+    private static String snapshotName(long coveredSeq) {
+        return String.format("%s%020d%s", PREFIX, coveredSeq, SUFFIX);
+    }
+
+    // Makes the rename itself durable; not every platform allows opening a directory
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Best effort only
+        }
+    }
+
+    // Reads a file sequentially through memory-mapped windows, checksumming everything it hands out
+    private static class MappedReader {
+        private final FileChannel channel;
+        private final CRC32 crc = new CRC32();
+        private ByteBuffer window;
+        private long windowStart;
+
+        MappedReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.window = ByteBuffer.allocate(0);
+        }
+
+        // Returns the next n bytes as a buffer of their own
+        ByteBuffer take(int n) throws IOException {
+            if (window.remaining() < n) {
+                long position = windowStart + window.position();
+                long size = Math.min(Math.max(MAP_WINDOW, n), channel.size() - position);
+                if (size < n) {
+                    throw new IOException("Truncated snapshot");
+                }
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                windowStart = position;
+            }
+            ByteBuffer slice = window.slice();
+            slice.limit(n);
+            window.position(window.position() + n);
+            crc.update(slice.duplicate());
+            return slice;
+        }
+
+        // Returns the checksum of everything taken so far
+        long finishChecksum() {
+            return crc.getValue();
+        }
+    }
+}
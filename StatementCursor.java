@@ -0,0 +1,77 @@
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+
+// Lazily walks an account's history (newest first) within a date range and renders it
+// one page at a time, so only the transactions actually shown are ever read and formatted
+class StatementCursor {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private final Iterator<Transaction> history;
+    private final long fromMillis;
+    private final long toMillis;
+    private Transaction lookahead;
+    private int pagesRead;
+
+    // Both bounds are inclusive epoch millis; use Long.MIN_VALUE / Long.MAX_VALUE for no bound
+    public StatementCursor(Iterable<Transaction> history, long fromMillis, long toMillis) {
+        this.history = history.iterator();
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        advance();
+    }
+
+    public boolean hasMore() {
+        return lookahead != null;
+    }
+
+    public int getPagesRead() {
+        return pagesRead;
+    }
+
+    // Method to render up to pageSize further transactions, one per line
+    public String nextPage(int pageSize) {
+        StringBuilder sb = new StringBuilder(pageSize * 48);
+        for (int i = 0; i < pageSize && lookahead != null; i++) {
+            appendLine(sb, lookahead);
+            advance();
+        }
+        pagesRead++;
+        return sb.toString();
+    }
+
+    // Method to pass over up to pageSize further transactions without rendering them
+    public void skipPage(int pageSize) {
+        for (int i = 0; i < pageSize && lookahead != null; i++) {
+            advance();
+        }
+        pagesRead++;
+    }
+
+    private void advance() {
+        lookahead = null;
+        while (history.hasNext()) {
+            Transaction transaction = history.next();
+            long timestamp = transaction.getTimestamp();
+            if (timestamp > toMillis) {
+                continue;
+            }
+            // History is newest first, so nothing further back can be in range
+            if (timestamp >= fromMillis) {
+                lookahead = transaction;
+            }
+            return;
+        }
+    }
+
+    private static void appendLine(StringBuilder sb, Transaction transaction) {
+        FORMAT.formatTo(Instant.ofEpochMilli(transaction.getTimestamp()), sb);
+        sb.append("  ").append(transaction.getType()).append(": $");
+        Money.appendTo(sb, transaction.getAmount());
+        if (transaction.getReference() != 0) {
+            sb.append("  #").append(transaction.getReference());
+        }
+        sb.append('\n');
+    }
+}
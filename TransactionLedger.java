@@ -0,0 +1,540 @@
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+// Off-heap transaction history shared by all accounts. Records have a fixed width and
+// live in memory-mapped segment files (ledger-<n>.dat), so history costs no Java heap
+// however long it grows. Each record points back at the previous record of the same
+// account; an account only keeps the offset of its newest record.
+//
+// Record layout (32 bytes): [long previous offset][long amount][long epoch nanos][byte type][7 byte reference]
+// The reference links the two legs of a transfer, or names the batch job run that
+// posted interest or a fee (0 for ordinary transactions).
+//
+// The ledger also keeps the bank-wide totals per type and period (see BankTotals) as
+// records are appended.
+//
+// History is tiered. Recent records stay in the hot segments above, mapped in memory;
+// full segments older than the newest few are compacted in the background, after a
+// snapshot, into cold segments on disk (see ColdSegment), several times smaller and with
+// each account's records together. Offsets do not change, so accounts, snapshots and
+// records keep pointing where they did, and walking a history moves from the hot tier to
+// the cold one without the reader noticing.
+class TransactionLedger {
+    public static final long NONE = -1;
+    public static final int RECORD_SIZE = 32;
+
+    private static final int PREVIOUS = 0;
+    private static final int AMOUNT = 8;
+    private static final int TIMESTAMP = 16;
+    private static final int TYPE = 24;
+    private static final long REFERENCE_MASK = 0x00ffffffffffffffL;
+
+    // Type codes are the index into this table, so new types must only ever be appended
+    private static final String[] TYPE_NAMES = {"", "Credit", "Debit", "Transfer Out", "Transfer In", "Interest", "Fee"};
+    // Type codes run from 1 to TYPE_COUNT - 1
+    static final int TYPE_COUNT = TYPE_NAMES.length;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final AtomicLong next;
+    // Hot segments, null where a segment has been compacted
+    private volatile ByteBuffer[] segments = new ByteBuffer[0];
+    // Compacted segments, always the first ones without gaps
+    private volatile ColdSegment[] cold = new ColdSegment[0];
+    private final int hotSegments;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private ExecutorService compactor;
+    private final BankTotals totals = new BankTotals();
+    // Decoding state of walks into the cold tier, handed back when a walk finishes so the next one
+    // reuses its Inflater; cursors beyond what the pool holds are ended
+    private static final int IDLE_CURSORS = 64;
+    private final ArrayBlockingQueue<ColdSegment.Cursor> idleCursors = new ArrayBlockingQueue<>(IDLE_CURSORS);
+
+    private TransactionLedger(Path directory, int segmentSize, long highWaterMark, int hotSegments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+        this.next = new AtomicLong(highWaterMark);
+        this.hotSegments = hotSegments;
+    }
+
+    // Method to open the file-backed ledger in the directory. Anything past the high-water
+    // mark was written after the last snapshot and is overwritten as the journal is replayed.
+    // The newest hotSegments full segments are kept hot; 0 turns compaction off.
+    public static TransactionLedger open(Path directory, int segmentSize, long highWaterMark, int hotSegments) throws IOException {
+        Files.createDirectories(directory);
+        TransactionLedger ledger = new TransactionLedger(directory, segmentSize, highWaterMark, hotSegments);
+        List<ColdSegment> compacted = new ArrayList<>();
+        for (int index = 0; Files.exists(ColdSegment.file(directory, index)); index++) {
+            compacted.add(ColdSegment.open(ColdSegment.file(directory, index), (long) index * ledger.segmentSize));
+            // Left behind if the process stopped between compacting the segment and deleting it
+            if (Files.exists(segmentFile(directory, index))) {
+                syncDirectory(directory);
+                Files.deleteIfExists(segmentFile(directory, index));
+            }
+        }
+        ledger.cold = compacted.toArray(new ColdSegment[0]);
+        return ledger;
+    }
+
+    // Ledger backed by direct buffers instead of files, for services without a data directory; never compacted
+    public static TransactionLedger inMemory() {
+        return new TransactionLedger(null, 4 << 20, 0, 0);
+    }
+
+    public static byte typeCode(String type) {
+        for (int i = 1; i < TYPE_NAMES.length; i++) {
+            if (TYPE_NAMES[i].equals(type)) {
+                return (byte) i;
+            }
+        }
+        throw new IllegalArgumentException("Unknown transaction type: " + type);
+    }
+
+    public static String typeName(byte code) {
+        return TYPE_NAMES[code];
+    }
+
+    // Method to append a record, returns its offset. Callers hold the account's monitor so
+    // the previous offset they pass is still the account's newest record.
+    public long append(long previous, byte type, long amount, long epochNanos, long reference) {
+        long offset = next.getAndAdd(RECORD_SIZE);
+        ByteBuffer segment = segment((int) (offset / segmentSize));
+        int position = (int) (offset % segmentSize);
+        segment.putLong(position + PREVIOUS, previous);
+        segment.putLong(position + AMOUNT, amount);
+        segment.putLong(position + TIMESTAMP, epochNanos);
+        // Big-endian, so the type stays in the first byte and the reference fills the other seven
+        segment.putLong(position + TYPE, ((long) type << 56) | (reference & REFERENCE_MASK));
+        totals.record(type, amount, epochNanos / 1_000_000L);
+        return offset;
+    }
+
+    // Method to discard everything from the given offset on and count what is kept into the
+    // bank-wide totals; only used while recovering, before any append. Every record below settled
+    // is counted. Above it, a record may have been appended after its account was copied into the
+    // snapshot, and the journal replays it again, so only records in the accounts' histories count.
+    public void truncate(long highWaterMark, long settled, Iterable<BankAccount> accounts) {
+        ColdSegment[] compacted = cold;
+        long coldEnd = (long) compacted.length * segmentSize;
+        if (highWaterMark < coldEnd) {
+            throw new IllegalStateException("Ledger is compacted up to offset " + coldEnd + ", past the snapshot's high-water mark " + highWaterMark);
+        }
+        next.set(highWaterMark);
+        totals.clear();
+        ColdSegment.Cursor cursor = new ColdSegment.Cursor();
+        for (ColdSegment segment : compacted) {
+            segment.rewind(cursor);
+            while (segment.next(cursor)) {
+                totals.record(cursor.type, cursor.amount, cursor.epochNanos / 1_000_000L);
+            }
+        }
+        cursor.end();
+        long counted = Math.min(Math.max(settled, coldEnd), highWaterMark);
+        for (long offset = coldEnd; offset < counted; offset += RECORD_SIZE) {
+            countRecord(offset);
+        }
+        for (BankAccount account : accounts) {
+            // Histories run newest first, so the walk ends at the first record already counted
+            for (long offset = account.getLedgerTail(); offset >= counted && offset < highWaterMark; ) {
+                countRecord(offset);
+                offset = segment((int) (offset / segmentSize)).getLong((int) (offset % segmentSize) + PREVIOUS);
+            }
+        }
+    }
+
+    private void countRecord(long offset) {
+        ByteBuffer segment = segment((int) (offset / segmentSize));
+        int position = (int) (offset % segmentSize);
+        totals.record((byte) (segment.getLong(position + TYPE) >>> 56), segment.getLong(position + AMOUNT),
+                segment.getLong(position + TIMESTAMP) / 1_000_000L);
+    }
+
+    public BankTotals getTotals() {
+        return totals;
+    }
+
+    // Offset the next record will be written at; every record before it is complete once forced
+    public long highWaterMark() {
+        return next.get();
+    }
+
+    // Method to flush every mapped segment to disk
+    public void force() {
+        for (ByteBuffer segment : segments) {
+            if (segment instanceof MappedByteBuffer) {
+                ((MappedByteBuffer) segment).force();
+            }
+        }
+    }
+
+    // Receives the fields of one record, so bulk readers need not make a Transaction per record
+    interface RecordVisitor {
+        void visit(byte type, long amount, long epochNanos, long reference);
+    }
+
+    // Method to hand every record of an account's history to the visitor, newest first. The
+    // visitor must not walk the ledger itself.
+    public void forEach(long tail, RecordVisitor visitor) {
+        Walker walker = new Walker(tail, Long.MAX_VALUE);
+        try {
+            while (walker.advance()) {
+                visitor.visit(walker.type, walker.amount, walker.epochNanos, walker.reference);
+            }
+        } finally {
+            walker.finish();
+        }
+    }
+
+    // Method to walk an account's history from its newest record back to its oldest
+    public Iterator<Transaction> iterator(long tail) {
+        return iterator(tail, Long.MAX_VALUE);
+    }
+
+    // As above, but cold blocks holding only transactions after skipAfterMillis may be left
+    // out unread; later transactions can still be returned, so callers filter by time themselves.
+    // A walk read to the end hands its cold cursor back; one left part-way, like a statement
+    // nobody pages through, leaves its Inflater to be freed once the iterator is collected.
+    public Iterator<Transaction> iterator(long tail, long skipAfterMillis) {
+        final Walker walker = new Walker(tail, skipAfterMillis);
+        return new Iterator<Transaction>() {
+            @Override
+            public boolean hasNext() {
+                return walker.offset != NONE;
+            }
+
+            @Override
+            public Transaction next() {
+                if (!walker.advance()) {
+                    throw new NoSuchElementException();
+                }
+                return new Transaction(typeName(walker.type), walker.amount, walker.epochNanos / 1_000_000L, walker.reference);
+            }
+        };
+    }
+
+    // Walks one history newest first, reading each record from the hot segment holding it or,
+    // once that has been compacted, from its cold segment
+    private class Walker {
+        private long offset;
+        private final long skipAfterMillis;
+        private ColdSegment.Cursor cursor;
+        // The cursor already holds the record at offset, read while following the history
+        private boolean decoded;
+
+        byte type;
+        long amount;
+        long epochNanos;
+        long reference;
+
+        Walker(long tail, long skipAfterMillis) {
+            this.offset = tail;
+            this.skipAfterMillis = skipAfterMillis;
+        }
+
+        boolean advance() {
+            if (offset == NONE) {
+                return false;
+            }
+            int index = (int) (offset / segmentSize);
+            ByteBuffer segment = decoded ? null : segment(index);
+            if (segment != null) {
+                int position = (int) (offset % segmentSize);
+                long typeAndReference = segment.getLong(position + TYPE);
+                type = (byte) (typeAndReference >>> 56);
+                amount = segment.getLong(position + AMOUNT);
+                epochNanos = segment.getLong(position + TIMESTAMP);
+                reference = typeAndReference & REFERENCE_MASK;
+                offset = segment.getLong(position + PREVIOUS);
+                if (offset == NONE) {
+                    finish();
+                }
+                return true;
+            }
+            if (cursor == null) {
+                cursor = idleCursors.poll();
+                if (cursor == null) {
+                    cursor = new ColdSegment.Cursor();
+                }
+            }
+            ColdSegment compacted = cold[index];
+            if (!decoded) {
+                compacted.seek(cursor, offset);
+            }
+            type = cursor.type;
+            amount = cursor.amount;
+            epochNanos = cursor.epochNanos;
+            reference = cursor.reference;
+            long prev = cursor.prev;
+            decoded = compacted.continueChain(cursor, skipAfterMillis);
+            offset = decoded ? cursor.offset : prev;
+            if (offset == NONE) {
+                finish();
+            }
+            return true;
+        }
+
+        // Method to hand the cold cursor back once the walk is over
+        void finish() {
+            if (cursor != null) {
+                if (!idleCursors.offer(cursor)) {
+                    cursor.end();
+                }
+                cursor = null;
+                decoded = false;
+            }
+        }
+    }
+
+    // References into the segments of one compaction round from outside the referenced record's
+    // own segment: account tails, the previous records of records in other segments, and the
+    // account tails in the snapshot taken just before, which recovery could start from
+    static class Compaction {
+        final int from;
+        final int to;
+        private final long start;
+        private final long end;
+        private final int segmentSize;
+        private final BitSet[] entries;
+
+        Compaction(int from, int to, int segmentSize) {
+            this.from = from;
+            this.to = to;
+            this.segmentSize = segmentSize;
+            this.start = (long) from * segmentSize;
+            this.end = (long) to * segmentSize;
+            this.entries = new BitSet[to - from];
+            for (int i = 0; i < entries.length; i++) {
+                entries[i] = new BitSet(segmentSize / RECORD_SIZE);
+            }
+        }
+
+        // Method to note a reference to a record; anything outside the round is ignored
+        void mark(long offset) {
+            if (offset >= start && offset < end && offset % RECORD_SIZE == 0) {
+                entries[(int) ((offset - start) / segmentSize)].set((int) (offset % segmentSize / RECORD_SIZE));
+            }
+        }
+    }
+
+    // Method to pick the full segments to compact next: all but the newest hotSegments below the
+    // one being written. Null if there are none, if a compaction is running or for a ledger
+    // without a directory. Planned before a snapshot, which then marks the tails it writes.
+    public Compaction planCompaction() {
+        if (directory == null || hotSegments <= 0 || compacting.get()) {
+            return null;
+        }
+        int from = cold.length;
+        int to = (int) (next.get() / segmentSize) - hotSegments;
+        return to > from ? new Compaction(from, to, segmentSize) : null;
+    }
+
+    // Method to compact the planned segments on the ledger's own thread, once the snapshot that
+    // marked its tails is in place. compacted is called with the System.nanoTime each segment was started at.
+    public synchronized void compactInBackground(Compaction compaction, Iterable<BankAccount> accounts, LongConsumer compacted) {
+        if (!compacting.compareAndSet(false, true)) {
+            return;
+        }
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "ledger-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        compactor.execute(() -> {
+            try {
+                compact(compaction, accounts, compacted);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Ledger compaction failed: " + e.getMessage());
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    public synchronized void shutdown() {
+        if (compactor != null) {
+            compactor.shutdown();
+        }
+    }
+
+    // Method to compact the planned segments one by one, each into a cold segment that replaces it
+    void compact(Compaction compaction, Iterable<BankAccount> accounts, LongConsumer compacted) throws IOException {
+        // Tails first: a record appended after its account's tail is read points at that tail or later
+        for (BankAccount account : accounts) {
+            compaction.mark(account.getLedgerTail());
+        }
+        long end = next.get();
+        for (long offset = compaction.start; offset < end; offset += RECORD_SIZE) {
+            ByteBuffer segment = segment((int) (offset / segmentSize));
+            long prev = segment.getLong((int) (offset % segmentSize) + PREVIOUS);
+            // Records still being written may show any value here; a stray mark only splits a fragment
+            if (prev >= 0 && prev / segmentSize != offset / segmentSize) {
+                compaction.mark(prev);
+            }
+        }
+        for (int index = compaction.from; index < compaction.to; index++) {
+            long start = System.nanoTime();
+            ColdSegment segment = compactSegment(index, compaction.entries[index - compaction.from]);
+            synchronized (this) {
+                ColdSegment[] grown = Arrays.copyOf(cold, index + 1);
+                grown[index] = segment;
+                cold = grown;
+                ByteBuffer[] dropped = segments.clone();
+                if (index < dropped.length) {
+                    dropped[index] = null;
+                }
+                segments = dropped;
+            }
+            // The cold segment's rename must be durable before the only other copy goes; readers
+            // still holding the mapping keep it until they let go of it
+            syncDirectory(directory);
+            Files.deleteIfExists(segmentFile(directory, index));
+            compacted.accept(start);
+        }
+    }
+
+    // Makes renames into the directory durable; not every platform allows opening a directory
+    private static void syncDirectory(Path directory) {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // Best effort only
+        }
+    }
+
+    // Each fragment runs from a marked record down the history until it leaves the segment or
+    // reaches another marked record. Records no fragment reaches were orphaned by a crash.
+    private ColdSegment compactSegment(int index, BitSet entries) throws IOException {
+        ByteBuffer segment = segment(index);
+        long start = (long) index * segmentSize;
+        ColdSegment.Writer writer = new ColdSegment.Writer(ColdSegment.file(directory, index), start, start + segmentSize);
+        for (int slot = entries.nextSetBit(0); slot >= 0; slot = entries.nextSetBit(slot + 1)) {
+            long offset = start + (long) slot * RECORD_SIZE;
+            boolean first = true;
+            while (true) {
+                int position = (int) (offset - start);
+                long prev = segment.getLong(position + PREVIOUS);
+                long typeAndReference = segment.getLong(position + TYPE);
+                writer.add(offset, first, (byte) (typeAndReference >>> 56), segment.getLong(position + AMOUNT),
+                        segment.getLong(position + TIMESTAMP), typeAndReference & REFERENCE_MASK, prev);
+                if (prev < start || prev >= offset || entries.get((int) ((prev - start) / RECORD_SIZE))) {
+                    break;
+                }
+                offset = prev;
+                first = false;
+            }
+        }
+        return writer.finish();
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    // Method to copy the records below the given offset to the stream, for seeding a replica.
+    // They must be complete, e.g. below the high-water mark of a snapshot. Compacted segments
+    // are rebuilt in their original layout, so the replica gets plain hot segments.
+    public void copyTo(OutputStream out, long length) throws IOException {
+        byte[] chunk = new byte[1 << 16];
+        for (int index = 0; (long) index * segmentSize < length; index++) {
+            ByteBuffer segment = segment(index);
+            segment = segment == null ? rebuild(cold[index]) : segment.duplicate();
+            segment.position(0).limit((int) Math.min(segmentSize, length - (long) index * segmentSize));
+            while (segment.hasRemaining()) {
+                int n = Math.min(chunk.length, segment.remaining());
+                segment.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
+    }
+
+    // Records orphaned by a crash were left out of the cold segment and come back as zeros
+    private ByteBuffer rebuild(ColdSegment compacted) {
+        ByteBuffer image = ByteBuffer.allocate(segmentSize);
+        ColdSegment.Cursor cursor = new ColdSegment.Cursor();
+        compacted.rewind(cursor);
+        while (compacted.next(cursor)) {
+            int position = (int) (cursor.offset % segmentSize);
+            image.putLong(position + PREVIOUS, cursor.prev);
+            image.putLong(position + AMOUNT, cursor.amount);
+            image.putLong(position + TIMESTAMP, cursor.epochNanos);
+            image.putLong(position + TYPE, ((long) cursor.type << 56) | cursor.reference);
+        }
+        cursor.end();
+        return image;
+    }
+
+    // Method to write records copied by copyTo into the segment files of an empty directory
+    public static void receive(Path directory, int segmentSize, DataInputStream in, long length) throws IOException {
+        Files.createDirectories(directory);
+        byte[] chunk = new byte[1 << 16];
+        for (int index = 0; (long) index * segmentSize < length; index++) {
+            long end = Math.min(length, (long) (index + 1) * segmentSize);
+            try (OutputStream out = Files.newOutputStream(segmentFile(directory, index))) {
+                for (long offset = (long) index * segmentSize; offset < end; ) {
+                    int n = (int) Math.min(chunk.length, end - offset);
+                    in.readFully(chunk, 0, n);
+                    out.write(chunk, 0, n);
+                    offset += n;
+                }
+            }
+        }
+    }
+
+    private static Path segmentFile(Path directory, int index) {
+        return directory.resolve(String.format("ledger-%06d.dat", index));
+    }
+
+    // Hot segment holding the index, null once it has been compacted
+    private ByteBuffer segment(int index) {
+        ByteBuffer[] current = segments;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        return mapSegment(index);
+    }
+
+    private synchronized ByteBuffer mapSegment(int index) {
+        if (index < cold.length) {
+            return null;
+        }
+        ByteBuffer[] current = segments;
+        if (index < current.length && current[index] != null) {
+            return current[index];
+        }
+        ByteBuffer[] grown = Arrays.copyOf(current, Math.max(current.length, index + 1));
+        grown[index] = directory == null ? ByteBuffer.allocateDirect(segmentSize) : mapFile(index);
+        segments = grown;
+        return grown[index];
+    }
+
+    private ByteBuffer mapFile(int index) {
+        Path file = segmentFile(directory, index);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map ledger segment " + file, e);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// Per-day and per-month totals of one account's transactions, by transaction type, so a
+// report for a period is a map lookup instead of a walk through the history. The account
+// builds its summary from its history the first time one is asked for and then keeps it
+// up to date as transactions are added, under its monitor. Days are kept for a limited
+// number of days back from the newest (-Dbank.summary.days, default 400); months are kept
+// for good. Days and months are those of the system time zone, as on statements.
+class TransactionSummary {
+    static final int KEEP_DAYS = Integer.getInteger("bank.summary.days", 400);
+
+    // Counts and totals per type code at [type] and [TYPE_COUNT + type]
+    private final HashMap<Long, long[]> days = new HashMap<>();
+    private final HashMap<Long, long[]> months = new HashMap<>();
+    private long newestDay = Long.MIN_VALUE;
+    // The period the last transaction fell in, which the next one almost always shares
+    private Period lastPeriod;
+    private long[] lastDay;
+    private long[] lastMonth;
+
+    // Counts and totals of one period by transaction type; a copy, so it does not change
+    static class Totals {
+        private final String period;
+        private final long[] values;
+
+        Totals(String period, long[] values) {
+            this.period = period;
+            this.values = values == null ? new long[2 * TransactionLedger.TYPE_COUNT] : values.clone();
+        }
+
+        public String getPeriod() {
+            return period;
+        }
+
+        // Number of transactions of the type, e.g. "Credit"
+        public long getCount(String type) {
+            return values[TransactionLedger.typeCode(type)];
+        }
+
+        // Sum of the amounts of the type, in minor units
+        public long getTotal(String type) {
+            return values[TransactionLedger.TYPE_COUNT + TransactionLedger.typeCode(type)];
+        }
+
+        // Method to render one line per transaction type: name, count and total
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            for (int type = 1; type < TransactionLedger.TYPE_COUNT; type++) {
+                if (sb.length() > 0) {
+                    sb.append('\n');
+                }
+                String name = TransactionLedger.typeName((byte) type);
+                sb.append(name);
+                for (int i = name.length(); i < 14; i++) {
+                    sb.append(' ');
+                }
+                sb.append(String.format("%8d  $", values[type]));
+                Money.appendTo(sb, values[TransactionLedger.TYPE_COUNT + type]);
+            }
+            return sb.toString();
+        }
+    }
+
+    // The day and month a timestamp falls in, with the bounds of that day for reuse
+    static class Period {
+        private static volatile Period last = new Period(0);
+
+        final long day;
+        final long month;
+        final long startMillis;
+        final long endMillis;
+
+        private Period(long millis) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate date = LocalDate.ofInstant(Instant.ofEpochMilli(millis), zone);
+            this.day = date.toEpochDay();
+            this.month = monthKey(YearMonth.from(date));
+            this.startMillis = date.atStartOfDay(zone).toInstant().toEpochMilli();
+            this.endMillis = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+
+        // Method to find the period of a timestamp; transactions mostly fall in the same day as the one before
+        static Period of(long millis) {
+            Period current = last;
+            if (millis >= current.startMillis && millis < current.endMillis) {
+                return current;
+            }
+            current = new Period(millis);
+            last = current;
+            return current;
+        }
+
+        static long monthKey(YearMonth month) {
+            return month.getYear() * 12L + month.getMonthValue() - 1;
+        }
+    }
+
+    // Method to add one transaction; the account's monitor is held
+    void record(byte type, long amount, long millis) {
+        Period period = Period.of(millis);
+        if (period != lastPeriod) {
+            if (period.day > newestDay) {
+                newestDay = period.day;
+                dropDaysBefore(newestDay - KEEP_DAYS + 1);
+            }
+            lastPeriod = period;
+            lastDay = period.day > newestDay - KEEP_DAYS
+                    ? days.computeIfAbsent(period.day, key -> new long[2 * TransactionLedger.TYPE_COUNT]) : null;
+            lastMonth = months.computeIfAbsent(period.month, key -> new long[2 * TransactionLedger.TYPE_COUNT]);
+        }
+        if (lastDay != null) {
+            add(lastDay, type, amount);
+        }
+        add(lastMonth, type, amount);
+    }
+
+    // Method to get the totals of a day as yyyy-mm-dd or a month as yyyy-mm
+    Totals totals(String period) {
+        try {
+            return period.length() <= 7 ? month(YearMonth.parse(period)) : day(LocalDate.parse(period));
+        } catch (DateTimeParseException e) {
+            throw badPeriod(period);
+        }
+    }
+
+    Totals day(LocalDate date) {
+        return new Totals(date.toString(), days.get(date.toEpochDay()));
+    }
+
+    Totals month(YearMonth month) {
+        return new Totals(month.toString(), months.get(Period.monthKey(month)));
+    }
+
+    private static void add(long[] values, byte type, long amount) {
+        values[type]++;
+        values[TransactionLedger.TYPE_COUNT + type] += amount;
+    }
+
+    static IllegalArgumentException badPeriod(String period) {
+        return new IllegalArgumentException("Expected a day as yyyy-mm-dd or a month as yyyy-mm, got " + period);
+    }
+
+    private void dropDaysBefore(long firstDay) {
+        for (Iterator<Map.Entry<Long, long[]>> it = days.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getKey() < firstDay) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A router restarted after a crash must settle the legs its earlier run left pending: commit
+// those whose decision it logged, abort the rest, and leave other routers' legs alone.
+class BankRouterTest {
+    private static final String PIN = "1234";
+    private static final String SECRET = "test-secret";
+    private static final String[] PROPERTIES = {"bank.dataDir", "bank.snapshot.intervalSeconds", "bank.jobs.checkSeconds",
+            "bank.ledger.segmentMB", "bank.cluster.secret"};
+
+    @TempDir
+    Path dataDir;
+
+    private final List<BankService> services = new ArrayList<>();
+    private final List<BankServer> servers = new ArrayList<>();
+
+    @BeforeEach
+    void configure() {
+        System.setProperty("bank.snapshot.intervalSeconds", "0");
+        System.setProperty("bank.jobs.checkSeconds", "0");
+        System.setProperty("bank.ledger.segmentMB", "1");
+        System.setProperty("bank.cluster.secret", SECRET);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        for (BankServer server : servers) {
+            server.close();
+        }
+        for (BankService service : services) {
+            service.shutdown();
+        }
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    void recoverSettlesOnlyThisRoutersLegs() throws IOException {
+        BankService payer = startShard("shard-0");
+        BankService payee = startShard("shard-1");
+        assertOk(payer.createAccount("Alice", "100", PIN, 1_000));
+        assertOk(payee.createAccount("Bob", "200", PIN, 0));
+
+        // Decided to commit before the crash
+        assertOk(payer.prepareTransferOut("r1-old-1", "100", PIN, 300, "200", null));
+        assertOk(payee.prepareTransferIn("r1-old-1", "200", 300));
+        // Crashed before deciding
+        assertOk(payer.prepareTransferOut("r1-old-2", "100", PIN, 100, "200", null));
+        assertOk(payee.prepareTransferIn("r1-old-2", "200", 100));
+        // Another router's transfer, still in flight
+        assertOk(payee.prepareTransferIn("r2-old-3", "200", 50));
+
+        Path routerDir = dataDir.resolve("router");
+        try (Journal decisions = Journal.open(routerDir, 1, 1, 4096, entry -> { })) {
+            decisions.awaitDurable(decisions.appendCommitTransfer(System.currentTimeMillis(), "", "r1-old-1", null));
+        }
+
+        InetSocketAddress[] shards = new InetSocketAddress[servers.size()];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new InetSocketAddress("localhost", servers.get(i).getPort());
+        }
+        BankRouter router = new BankRouter(shards, SECRET, "r1", routerDir, 16, 0);
+        try {
+            assertEquals(4, router.getRecoveredLegs());
+        } finally {
+            router.close();
+        }
+
+        assertTrue(payer.pendingTransfers().isEmpty(), payer.pendingTransfers().toString());
+        assertEquals(List.of("r2-old-3 200 0.50"), payee.pendingTransfers());
+        assertEquals(700, payer.getRegistry().findAccount("100").getBalance());
+        assertEquals(700, payer.getRegistry().findAccount("100").getAvailableBalance());
+        assertEquals(300, payee.getRegistry().findAccount("200").getBalance());
+    }
+
+    private BankService startShard(String name) throws IOException {
+        System.setProperty("bank.dataDir", dataDir.resolve(name).toString());
+        BankService service = BankService.open(2);
+        services.add(service);
+        BankServer server = new BankServer(service, 0);
+        servers.add(server);
+        Thread thread = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                System.err.println("Shard " + name + " stopped: " + e.getMessage());
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return service;
+    }
+
+    private static void assertOk(BankResult result) {
+        assertTrue(result.isOk(), result.getMessage());
+    }
+}
@@ -0,0 +1,74 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.ProtocolException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Requests are parsed and answered without a socket, through execute and readLine
+class BankServerTest {
+    private BankService service;
+    private BankServer server;
+
+    @BeforeEach
+    void start() throws IOException {
+        service = new BankService(new AccountRegistry(), 2);
+        server = new BankServer(service, 0);
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        server.close();
+        service.shutdown();
+    }
+
+    @Test
+    void readLineStopsAtTheLimit() throws IOException {
+        String longLine = "x".repeat(BankServer.MAX_LINE_LENGTH);
+        BufferedReader in = new BufferedReader(new StringReader("ROLE\r\n" + longLine + "\nBALANCE 1 2"));
+        StringBuilder buffer = new StringBuilder();
+        assertEquals("ROLE", BankServer.readLine(in, buffer));
+        assertEquals(longLine, BankServer.readLine(in, buffer));
+        assertEquals("BALANCE 1 2", BankServer.readLine(in, buffer));
+        assertNull(BankServer.readLine(in, buffer));
+
+        BufferedReader tooLong = new BufferedReader(new StringReader(longLine + "y\n"));
+        assertThrows(ProtocolException.class, () -> BankServer.readLine(tooLong, buffer));
+    }
+
+    @Test
+    void createRefusesLongNames() {
+        String name = "n".repeat(BankService.MAX_NAME_LENGTH + 1);
+        assertEquals("ERROR INVALID_NAME", request("CREATE 100 1234 10 " + name).substring(0, 18));
+        assertNull(service.getRegistry().findAccount("100"));
+        assertTrue(request("CREATE 100 1234 10 " + name.substring(1)).startsWith("OK "));
+    }
+
+    @Test
+    void laterStatementPagesMatchTheCursor() {
+        assertTrue(request("CREATE 100 1234 0 Alice").startsWith("OK "));
+        for (int i = 1; i <= 120; i++) {
+            assertTrue(request("CREDIT 100 1234 " + i).startsWith("OK "));
+        }
+        StatementCursor cursor = new StatementCursor(service.getRegistry().findAccount("100").getTransactions(), Long.MIN_VALUE, Long.MAX_VALUE);
+        String[] pages = {cursor.nextPage(BankServer.STATEMENT_PAGE_SIZE), cursor.nextPage(BankServer.STATEMENT_PAGE_SIZE),
+                cursor.nextPage(BankServer.STATEMENT_PAGE_SIZE)};
+
+        assertEquals("OK 50 1\n" + pages[1], request("STATEMENT 100 1234 2"));
+        assertEquals("OK 20 0\n" + pages[2], request("STATEMENT 100 1234 3"));
+        assertEquals("OK 0 0\n", request("STATEMENT 100 1234 4"));
+    }
+
+    private String request(String line) {
+        StringBuilder reply = new StringBuilder();
+        server.execute(line.split("\\s+"), reply);
+        return reply.toString();
+    }
+}
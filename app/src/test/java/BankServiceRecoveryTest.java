@@ -0,0 +1,158 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// A service reopened on its data directory must come back with the same accounts, histories,
+// idempotency keys and undecided transfer legs, whether it recovers from the journal alone
+// or from a snapshot followed by the journal written after it.
+class BankServiceRecoveryTest {
+    private static final String PIN = "1234";
+    private static final String[] PROPERTIES = {"bank.dataDir", "bank.snapshot.intervalSeconds", "bank.jobs.checkSeconds", "bank.ledger.segmentMB"};
+
+    @TempDir
+    Path dataDir;
+
+    private BankService service;
+
+    @BeforeEach
+    void configure() {
+        System.setProperty("bank.dataDir", dataDir.toString());
+        System.setProperty("bank.snapshot.intervalSeconds", "0");
+        System.setProperty("bank.jobs.checkSeconds", "0");
+        System.setProperty("bank.ledger.segmentMB", "1");
+    }
+
+    @AfterEach
+    void stop() {
+        if (service != null) {
+            service.shutdown();
+        }
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+    }
+
+    @Test
+    void journalAloneRecoversAccountsAndHistories() throws IOException {
+        service = BankService.open(2);
+        makeChanges();
+        List<String> before = describe("100", "200");
+
+        reopen();
+        assertEquals(before, describe("100", "200"));
+        assertKeysRemembered();
+    }
+
+    @Test
+    void snapshotAndLaterJournalRecoverTogether() throws IOException {
+        service = BankService.open(2);
+        makeChanges();
+        service.takeSnapshot();
+        assertOk(service.debit("200", PIN, 50));
+        assertOk(service.createAccount("Carol", "300", PIN, 70));
+        List<String> before = describe("100", "200", "300");
+
+        reopen();
+        assertEquals(before, describe("100", "200", "300"));
+        // The keys were made before the snapshot, so they come back from it
+        assertKeysRemembered();
+
+        // And a second restart recovers from the same snapshot again
+        reopen();
+        assertEquals(before, describe("100", "200", "300"));
+    }
+
+    @Test
+    void undecidedTransferLegsSurviveARestart() throws IOException {
+        service = BankService.open(2);
+        assertOk(service.createAccount("Alice", "100", PIN, 1_000));
+        assertOk(service.prepareTransferOut("r1-a-1", "100", PIN, 400, null, null));
+        assertOk(service.prepareTransferOut("r1-a-2", "100", PIN, 100, null, null));
+        service.takeSnapshot();
+        assertOk(service.prepareTransferOut("r1-a-3", "100", PIN, 50, null, null));
+
+        reopen();
+        List<String> pending = service.pendingTransfers();
+        assertEquals(3, pending.size(), pending.toString());
+        BankAccount alice = service.getRegistry().findAccount("100");
+        assertEquals(1_000, alice.getBalance());
+        assertEquals(450, alice.getAvailableBalance());
+
+        assertOk(service.commitTransfer("r1-a-1", "100"));
+        assertOk(service.abortTransfer("r1-a-2", "100"));
+        assertOk(service.abortTransfer("r1-a-3", "100"));
+        reopen();
+        assertTrue(service.pendingTransfers().isEmpty());
+        alice = service.getRegistry().findAccount("100");
+        assertEquals(600, alice.getBalance());
+        assertEquals(600, alice.getAvailableBalance());
+    }
+
+    @Test
+    void incomingLegsKeepRoomSoTheirCommitsCannotOverflow() throws IOException {
+        service = BankService.open(2);
+        assertOk(service.createAccount("Alice", "100", PIN, Long.MAX_VALUE - 100));
+        assertOk(service.prepareTransferIn("r1-a-1", "100", 60));
+        assertEquals(BankResult.Status.INVALID_AMOUNT, service.prepareTransferIn("r1-a-2", "100", 60).getStatus());
+        assertFalse(service.credit("100", PIN, 50).isOk());
+        assertOk(service.credit("100", PIN, 40));
+
+        reopen();
+        assertOk(service.commitTransfer("r1-a-1", "100"));
+        assertEquals(Long.MAX_VALUE, service.getRegistry().findAccount("100").getBalance());
+        reopen();
+        assertEquals(Long.MAX_VALUE, service.getRegistry().findAccount("100").getBalance());
+    }
+
+    private void makeChanges() {
+        assertOk(service.createAccount("Alice", "100", PIN, 1_000));
+        assertOk(service.createAccount("Bob", "200", PIN, 0));
+        assertOk(service.credit("100", PIN, 500, "credit-1"));
+        assertOk(service.debit("100", PIN, 200));
+        assertOk(service.transfer("100", PIN, "200", 300, "transfer-1"));
+    }
+
+    // Method to check that repeats of the keyed changes are answered without being applied again
+    private void assertKeysRemembered() {
+        long alice = service.getRegistry().findAccount("100").getBalance();
+        long bob = service.getRegistry().findAccount("200").getBalance();
+        assertOk(service.credit("100", PIN, 500, "credit-1"));
+        assertOk(service.transfer("100", PIN, "200", 300, "transfer-1"));
+        assertEquals(alice, service.getRegistry().findAccount("100").getBalance());
+        assertEquals(bob, service.getRegistry().findAccount("200").getBalance());
+        assertEquals(BankResult.Status.INVALID_KEY, service.credit("100", PIN, 501, "credit-1").getStatus());
+    }
+
+    private void reopen() throws IOException {
+        service.shutdown();
+        service = null;
+        service = BankService.open(2);
+    }
+
+    // Method to render each account's name, balance and history, newest first
+    private List<String> describe(String... accountNumbers) {
+        List<String> lines = new ArrayList<>();
+        for (String accountNumber : accountNumbers) {
+            BankAccount account = service.getRegistry().findAccount(accountNumber);
+            lines.add(accountNumber + " " + account.getName() + " " + account.getBalance() + " " + account.getTransactionCount());
+            for (Transaction transaction : account.getTransactions()) {
+                lines.add("  " + transaction);
+            }
+        }
+        return lines;
+    }
+
+    private static void assertOk(BankResult result) {
+        assertTrue(result.isOk(), result.getMessage());
+    }
+}
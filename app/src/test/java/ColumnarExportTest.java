@@ -0,0 +1,95 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// An export read back with its Reader must give every account and its whole history, in
+// account order and newest first, including a history that runs over several row groups.
+class ColumnarExportTest {
+    private static final String[] TYPES = {"Credit", "Debit", "Transfer Out", "Transfer In", "Interest", "Fee"};
+
+    @TempDir
+    Path directory;
+
+    private TransactionLedger ledger;
+    private List<BankAccount> accounts;
+    private ColumnarExport export;
+
+    @BeforeEach
+    void fill() {
+        ledger = TransactionLedger.inMemory();
+        accounts = new ArrayList<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 40; i++) {
+            // Added out of order, so the export has to sort them
+            BankAccount account = new BankAccount("Holder " + i, String.format("%04d", (i * 17) % 40), "hash", random.nextInt(100_000) - 5_000, ledger);
+            int records = i == 3 ? 1_000 : random.nextInt(30);
+            for (int r = 0; r < records; r++) {
+                String type = TYPES[random.nextInt(TYPES.length)];
+                account.addTransaction(type, 1 + random.nextInt(1_000_000), 1_700_000_000_000L + random.nextInt(1_000_000_000),
+                        type.startsWith("Transfer") ? 1 + random.nextInt(1 << 20) : 0);
+            }
+            accounts.add(account);
+        }
+        export = new ColumnarExport(ledger, 4, 64);
+    }
+
+    @AfterEach
+    void stop() {
+        export.shutdown();
+    }
+
+    @Test
+    void readerGivesBackEveryAccountAndHistory() throws IOException {
+        Path file = directory.resolve("bank.col");
+        export.export(accounts, file);
+        assertFalse(Files.exists(directory.resolve("bank.col.tmp")));
+
+        List<BankAccount> sorted = new ArrayList<>(accounts);
+        sorted.sort((a, b) -> a.getAccountNumber().compareTo(b.getAccountNumber()));
+        List<String> expectedAccounts = new ArrayList<>();
+        List<String> expectedTransactions = new ArrayList<>();
+        for (BankAccount account : sorted) {
+            expectedAccounts.add(account.getAccountNumber() + " " + account.getName() + " " + account.getBalance() + " " + account.getTransactionCount());
+            for (Transaction transaction : account.getTransactions()) {
+                expectedTransactions.add(account.getAccountNumber() + " " + transaction.getType() + " " + transaction.getAmount()
+                        + " " + transaction.getTimestamp() + " " + transaction.getReference());
+            }
+        }
+
+        List<String> readAccounts = new ArrayList<>();
+        List<String> readTransactions = new ArrayList<>();
+        try (ColumnarExport.Reader reader = new ColumnarExport.Reader(file)) {
+            assertEquals(accounts.size(), reader.getAccounts());
+            assertEquals(expectedTransactions.size(), reader.getTransactions());
+            assertTrue(reader.getGroups() > expectedTransactions.size() / 64, "groups: " + reader.getGroups());
+            reader.forEachAccount((accountNumber, name, balance, transactionCount) ->
+                    readAccounts.add(accountNumber + " " + name + " " + balance + " " + transactionCount));
+            reader.forEachTransaction((accountNumber, type, amount, timestampMillis, reference) ->
+                    readTransactions.add(accountNumber + " " + type + " " + amount + " " + timestampMillis + " " + reference));
+        }
+        assertEquals(expectedAccounts, readAccounts);
+        assertEquals(expectedTransactions, readTransactions);
+    }
+
+    @Test
+    void failedExportLeavesNothingBehind() throws IOException {
+        // A non-empty directory in the way makes the final move fail
+        Path file = directory.resolve("bank.col");
+        Files.createDirectories(file.resolve("in-the-way"));
+        assertThrows(IOException.class, () -> export.export(accounts, file));
+        assertFalse(Files.exists(directory.resolve("bank.col.tmp")));
+    }
+}
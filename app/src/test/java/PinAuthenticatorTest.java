@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PinAuthenticatorTest {
+    private static final int MAX_FAILURES = 3;
+
+    private final PinAuthenticator authenticator = new PinAuthenticator(20_000, 100, 60_000, MAX_FAILURES, 60_000);
+
+    @Test
+    void parallelGuessesAreLockedOutLikeSequentialOnes() throws Exception {
+        BankAccount account = new BankAccount("Alice", "100", authenticator.hash("1234"), 0, TransactionLedger.inMemory());
+        int guesses = 32;
+        ExecutorService threads = Executors.newFixedThreadPool(guesses);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<PinAuthenticator.Outcome>> outcomes = new ArrayList<>();
+        for (int i = 0; i < guesses; i++) {
+            String guess = String.format("%04d", 5000 + i);
+            outcomes.add(threads.submit(() -> {
+                go.await();
+                return authenticator.verify(account, guess);
+            }));
+        }
+        go.countDown();
+        int invalid = 0;
+        for (Future<PinAuthenticator.Outcome> outcome : outcomes) {
+            if (outcome.get() == PinAuthenticator.Outcome.INVALID) {
+                invalid++;
+            }
+        }
+        threads.shutdown();
+
+        assertEquals(MAX_FAILURES, invalid);
+        assertEquals(PinAuthenticator.Outcome.LOCKED, authenticator.verify(account, "1234"));
+    }
+
+    @Test
+    void rightPinClearsEarlierFailures() {
+        BankAccount account = new BankAccount("Alice", "100", authenticator.hash("1234"), 0, TransactionLedger.inMemory());
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < MAX_FAILURES - 1; i++) {
+                assertEquals(PinAuthenticator.Outcome.INVALID, authenticator.verify(account, "0000"));
+            }
+            assertEquals(PinAuthenticator.Outcome.OK, authenticator.verify(account, "1234"));
+        }
+        // Remembered after the full check, and still OK from the cache
+        assertEquals(PinAuthenticator.Outcome.OK, authenticator.verify(account, "1234"));
+    }
+}
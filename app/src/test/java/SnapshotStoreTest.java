@@ -0,0 +1,61 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SnapshotStoreTest {
+    private static final int SEGMENT_SIZE = 4096;
+    // Mid-month, so every record falls in the same month whatever the time zone
+    private static final long BASE_MILLIS = 1_768_478_400_000L;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void recordsAppendedAfterTheirAccountWasCopiedAreNotCounted() throws IOException {
+        TransactionLedger ledger = TransactionLedger.open(directory, SEGMENT_SIZE, 0, 2);
+        BankAccount alice = new BankAccount("Alice", "100", "hash", 0, ledger);
+        BankAccount bob = new BankAccount("Bob", "200", "hash", 0, ledger);
+        for (int i = 0; i < 200; i++) {
+            (i % 2 == 0 ? alice : bob).credit(100, BASE_MILLIS + i);
+        }
+        // Alice is credited again while the snapshot is being written, after she was copied;
+        // the journal would replay that credit, so the snapshot must not count it too
+        Iterable<BankAccount> accounts = () -> new Iterator<>() {
+            private int next;
+
+            public boolean hasNext() {
+                return next < 2;
+            }
+
+            public BankAccount next() {
+                if (next == 1) {
+                    alice.credit(500, BASE_MILLIS + 1_000);
+                }
+                return next++ == 0 ? alice : bob;
+            }
+        };
+        SnapshotStore snapshots = new SnapshotStore(directory);
+        snapshots.write(accounts, ledger, 1, null, List.of());
+
+        TransactionLedger reopened = TransactionLedger.open(directory, SEGMENT_SIZE, 0, 2);
+        AccountRegistry registry = new AccountRegistry();
+        snapshots.loadLatest(registry, reopened, new IdempotencyStore<>(60_000, 100, BankResult::isOk,
+                message -> BankResult.error(BankResult.Status.INVALID_KEY, message)));
+
+        String month = YearMonth.from(Instant.ofEpochMilli(BASE_MILLIS).atZone(ZoneId.systemDefault())).toString();
+        TransactionSummary.Totals totals = reopened.getTotals().totals(month);
+        assertEquals(200, totals.getCount("Credit"));
+        assertEquals(20_000, totals.getTotal("Credit"));
+        assertEquals(10_000, registry.findAccount("100").getBalance());
+        assertEquals(100, registry.findAccount("100").getTransactionCount());
+    }
+}
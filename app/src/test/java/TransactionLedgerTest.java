@@ -0,0 +1,201 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Histories must read back the same from the hot tier, the cold tier, a reopened ledger
+// and a replica image. Segments are small so a few thousand records span many of them.
+class TransactionLedgerTest {
+    private static final int SEGMENT_SIZE = 4096;
+    private static final int HOT_SEGMENTS = 2;
+    private static final int RECORDS = 3000;
+    private static final String[] TYPES = {"Credit", "Debit", "Transfer Out", "Transfer In", "Interest", "Fee"};
+    // Mid-month, so every record falls in the same month whatever the time zone
+    private static final long BASE_MILLIS = 1_768_478_400_000L;
+
+    @TempDir
+    Path directory;
+
+    private TransactionLedger ledger;
+    private List<BankAccount> accounts;
+    // Each account's history as written, newest first
+    private List<List<String>> written;
+
+    @BeforeEach
+    void fill() throws IOException {
+        ledger = TransactionLedger.open(directory, SEGMENT_SIZE, 0, HOT_SEGMENTS);
+        accounts = new ArrayList<>();
+        written = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            accounts.add(new BankAccount("Holder " + i, "10" + i, "hash", 0, ledger));
+            written.add(new ArrayList<>());
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < RECORDS; i++) {
+            // Account 0 is busy, account 4 gets one record and account 5 none
+            int which = i == RECORDS / 2 ? 4 : random.nextInt(10) < 5 ? 0 : 1 + random.nextInt(3);
+            String type = TYPES[random.nextInt(TYPES.length)];
+            long amount = 1 + random.nextInt(1_000_000);
+            long millis = BASE_MILLIS + i * 1_000L;
+            long reference = type.startsWith("Transfer") ? i + 1 : 0;
+            accounts.get(which).addTransaction(type, amount, millis, reference);
+            written.get(which).add(0, describe(type, amount, millis, reference));
+        }
+    }
+
+    @Test
+    void compactionKeepsEveryHistory() throws IOException {
+        assertHistories(ledger, accounts);
+        compact();
+        assertTrue(Files.exists(ColdSegment.file(directory, 0)));
+        assertFalse(Files.exists(directory.resolve("ledger-000000.dat")));
+        assertHistories(ledger, accounts);
+    }
+
+    @Test
+    void iteratorStartedBeforeCompactionFinishesAfterIt() throws IOException {
+        Iterator<Transaction> walk = accounts.get(0).getTransactions().iterator();
+        List<String> seen = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            seen.add(describe(walk.next()));
+        }
+        compact();
+        while (walk.hasNext()) {
+            seen.add(describe(walk.next()));
+        }
+        assertEquals(written.get(0), seen);
+    }
+
+    @Test
+    void boundedWalkReturnsEverythingUpToTheCutoff() throws IOException {
+        compact();
+        long cutoff = BASE_MILLIS + RECORDS / 3 * 1_000L;
+        for (int i = 0; i < accounts.size(); i++) {
+            List<String> expected = new ArrayList<>();
+            for (String record : written.get(i)) {
+                if (millisOf(record) <= cutoff) {
+                    expected.add(record);
+                }
+            }
+            List<String> walked = new ArrayList<>();
+            for (Transaction transaction : accounts.get(i).getTransactions(cutoff)) {
+                if (transaction.getTimestamp() <= cutoff) {
+                    walked.add(describe(transaction));
+                }
+            }
+            assertEquals(expected, walked, "account " + i);
+        }
+    }
+
+    @Test
+    void reopenedLedgerKeepsHistoriesAndTotals() throws IOException {
+        compact();
+        ledger.force();
+        long highWaterMark = ledger.highWaterMark();
+
+        TransactionLedger reopened = TransactionLedger.open(directory, SEGMENT_SIZE, 0, HOT_SEGMENTS);
+        List<BankAccount> restored = restore(reopened);
+        // Nothing settled past the cold tier, so every hot record is found through the histories
+        reopened.truncate(highWaterMark, 0, restored);
+        assertHistories(reopened, restored);
+        assertSameTotals(ledger, reopened);
+    }
+
+    @Test
+    void replicaImageReadsBackTheSame() throws IOException {
+        compact();
+        ledger.force();
+        long highWaterMark = ledger.highWaterMark();
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        ledger.copyTo(image, highWaterMark);
+        assertEquals(highWaterMark, image.size());
+
+        Path replicaDirectory = directory.resolve("replica");
+        TransactionLedger.receive(replicaDirectory, SEGMENT_SIZE,
+                new DataInputStream(new ByteArrayInputStream(image.toByteArray())), highWaterMark);
+        assertFalse(Files.exists(ColdSegment.file(replicaDirectory, 0)));
+        TransactionLedger replica = TransactionLedger.open(replicaDirectory, SEGMENT_SIZE, 0, HOT_SEGMENTS);
+        List<BankAccount> restored = restore(replica);
+        replica.truncate(highWaterMark, highWaterMark, restored);
+        assertHistories(replica, restored);
+        assertSameTotals(ledger, replica);
+    }
+
+    private void compact() throws IOException {
+        TransactionLedger.Compaction compaction = ledger.planCompaction();
+        assertNotNull(compaction);
+        ledger.compact(compaction, accounts, start -> { });
+    }
+
+    // Method to point fresh accounts at the same history in another ledger
+    private List<BankAccount> restore(TransactionLedger other) {
+        List<BankAccount> restored = new ArrayList<>();
+        for (BankAccount account : accounts) {
+            BankAccount copy = new BankAccount(account.getName(), account.getAccountNumber(), "hash", 0, other);
+            copy.restoreHistory(account.getLedgerTail(), account.getTransactionCount());
+            restored.add(copy);
+        }
+        return restored;
+    }
+
+    // Method to check both walks of every account against what was written
+    private void assertHistories(TransactionLedger walked, List<BankAccount> walkedAccounts) {
+        for (int i = 0; i < walkedAccounts.size(); i++) {
+            BankAccount account = walkedAccounts.get(i);
+            List<String> iterated = new ArrayList<>();
+            for (Transaction transaction : account.getTransactions()) {
+                iterated.add(describe(transaction));
+            }
+            assertEquals(written.get(i), iterated, "iterator of account " + i);
+
+            List<String> visited = new ArrayList<>();
+            walked.forEach(account.getLedgerTail(), (type, amount, epochNanos, reference) ->
+                    visited.add(describe(TransactionLedger.typeName(type), amount, epochNanos / 1_000_000L, reference)));
+            assertEquals(written.get(i), visited, "forEach of account " + i);
+            assertEquals(written.get(i).size(), account.getTransactionCount());
+        }
+    }
+
+    private static void assertSameTotals(TransactionLedger expected, TransactionLedger actual) {
+        String month = YearMonth.from(Instant.ofEpochMilli(BASE_MILLIS).atZone(ZoneId.systemDefault())).toString();
+        TransactionSummary.Totals want = expected.getTotals().totals(month);
+        TransactionSummary.Totals got = actual.getTotals().totals(month);
+        long count = 0;
+        for (String type : TYPES) {
+            assertEquals(want.getCount(type), got.getCount(type), type);
+            assertEquals(want.getTotal(type), got.getTotal(type), type);
+            count += got.getCount(type);
+        }
+        assertEquals(RECORDS, count);
+    }
+
+    private static String describe(Transaction transaction) {
+        return describe(transaction.getType(), transaction.getAmount(), transaction.getTimestamp(), transaction.getReference());
+    }
+
+    private static String describe(String type, long amount, long millis, long reference) {
+        return millis + " " + type + " " + amount + " " + reference;
+    }
+
+    private static long millisOf(String record) {
+        return Long.parseLong(record.substring(0, record.indexOf(' ')));
+    }
+}
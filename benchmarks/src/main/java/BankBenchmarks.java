@@ -0,0 +1,365 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CyclicBarrier;
+import java.util.function.IntFunction;
+
+// Throughput benchmarks for the account and transaction hot paths.
+//
+// JMH only accepts benchmark classes in a named package, and a named package cannot see
+// the application's default-package classes, so this is a small harness in the same
+// style: warmup iterations, then measured iterations in which every thread runs a fixed
+// share of the operations between two barriers. Each result is the mean and standard
+// deviation of operations per second over the measured iterations.
+//
+// Usage: java -jar benchmarks/target/benchmarks.jar [name filter]
+//   -Dbench.sizes=1000,100000,10000000   registry sizes for lookup (10M needs about -Xmx4g)
+//   -Dbench.threads=1,2,4,8,16,32,64     thread counts for the concurrent benchmarks
+//   -Dbench.warmup=3 -Dbench.iterations=5
+//   -Dbench.out=bench-results.json       machine-readable results
+//   -Dbench.label=<release>              recorded with the results for comparisons
+public class BankBenchmarks {
+    private static final int PASSBOOK_HISTORY = 100_000;
+    private static final int MULTI_ACCOUNTS = 1024;
+    private static final int SEARCH_LIMIT = 20;
+    private static final int EXPORT_ACCOUNTS = 50_000;
+    private static final int EXPORT_HISTORY = 100;
+    private static final String[] FIRST_NAMES = {"Aarav", "Anita", "Bruno", "Chen", "Divya", "Elena", "Farid", "Grace",
+            "Hiro", "Ines", "Jonas", "Kavya", "Liam", "Maria", "Nikhil", "Olga"};
+    private static final String[] LAST_NAMES = {"Kasture", "Smith", "Garcia", "Ivanova", "Nakamura", "Okafor", "Patel",
+            "Rossi", "Schmidt", "Tanaka", "Usman", "Weber"};
+
+    // One operation on behalf of a thread; the return value is folded into a sink so it is not optimized away
+    interface Operation {
+        long run(int thread, long i);
+    }
+
+    static class Result {
+        final String benchmark;
+        final String params;
+        final int threads;
+        final double[] opsPerSecond;
+
+        Result(String benchmark, String params, int threads, double[] opsPerSecond) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.threads = threads;
+            this.opsPerSecond = opsPerSecond;
+        }
+
+        double mean() {
+            double sum = 0;
+            for (double value : opsPerSecond) {
+                sum += value;
+            }
+            return sum / opsPerSecond.length;
+        }
+
+        double stdev() {
+            double mean = mean();
+            double sum = 0;
+            for (double value : opsPerSecond) {
+                sum += (value - mean) * (value - mean);
+            }
+            return opsPerSecond.length > 1 ? Math.sqrt(sum / (opsPerSecond.length - 1)) : 0;
+        }
+    }
+
+    private final int warmup = Integer.getInteger("bench.warmup", 3);
+    private final int iterations = Integer.getInteger("bench.iterations", 5);
+    private final List<Result> results = new ArrayList<>();
+    private volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        String filter = args.length > 0 ? args[0] : "";
+        int[] sizes = parseList(System.getProperty("bench.sizes", "1000,100000,10000000"));
+        int[] threadCounts = parseList(System.getProperty("bench.threads", "1,2,4,8,16,32,64"));
+        BankBenchmarks bench = new BankBenchmarks();
+
+        if ("lookup".contains(filter) || filter.isEmpty()) {
+            for (int size : sizes) {
+                bench.lookup(size, threadCounts);
+            }
+        }
+        if ("name-search".contains(filter) || filter.isEmpty()) {
+            for (int size : sizes) {
+                bench.nameSearch(size, threadCounts);
+            }
+        }
+        if ("credit-debit-single".contains(filter) || filter.isEmpty()) {
+            bench.creditDebit("credit-debit-single", 1, threadCounts);
+        }
+        if ("credit-debit-multi".contains(filter) || filter.isEmpty()) {
+            bench.creditDebit("credit-debit-multi", MULTI_ACCOUNTS, threadCounts);
+        }
+        if ("transaction-append".contains(filter) || filter.isEmpty()) {
+            bench.transactionAppend(threadCounts);
+        }
+        if ("passbook".contains(filter) || filter.isEmpty()) {
+            bench.passbook();
+        }
+        if ("metrics-record".contains(filter) || filter.isEmpty()) {
+            bench.metricsRecord(threadCounts);
+        }
+        if ("fraud-screen".contains(filter) || filter.isEmpty()) {
+            bench.fraudScreen(threadCounts);
+        }
+        if ("columnar-export".contains(filter) || filter.isEmpty()) {
+            bench.columnarExport();
+        }
+        bench.writeJson(System.getProperty("bench.out", "bench-results.json"), System.getProperty("bench.label", ""));
+    }
+
+    // Registry lookup by account number, the path every operation takes first
+    void lookup(int size, int[] threadCounts) throws Exception {
+        AccountRegistry registry = new AccountRegistry();
+        TransactionLedger ledger = TransactionLedger.inMemory();
+        String[] keys = new String[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = "ACC" + i;
+            registry.restore(new BankAccount("Customer " + i, keys[i], "1234", 0, ledger));
+        }
+        for (int threads : threadCounts) {
+            run("lookup", "accounts=" + size, threads, 4_000_000, t -> (thread, i) -> {
+                // Stride through the keys so consecutive lookups hit different buckets
+                BankAccount account = registry.findAccount(keys[(int) ((i * 7919 + thread * 104_729L) % size)]);
+                return account.getBalance();
+            });
+        }
+    }
+
+    // Prefix search on holder name returning the first page of matches, which are in the
+    // thousands for a common first name. The time to build the index as recovery does is printed too.
+    void nameSearch(int size, int[] threadCounts) throws Exception {
+        AccountRegistry registry = new AccountRegistry();
+        TransactionLedger ledger = TransactionLedger.inMemory();
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            String name = FIRST_NAMES[i % FIRST_NAMES.length] + " " + LAST_NAMES[(i / FIRST_NAMES.length) % LAST_NAMES.length] + (i / 192);
+            registry.restore(new BankAccount(name, "ACC" + i, "1234", 0, ledger));
+        }
+        long registered = System.nanoTime();
+        registry.indexNames();
+        System.out.printf(Locale.ROOT, "name-search: registered %d accounts in %d ms, indexed their names in %d ms%n",
+                size, (registered - start) / 1_000_000, (System.nanoTime() - registered) / 1_000_000);
+        String[] prefixes = new String[FIRST_NAMES.length + LAST_NAMES.length];
+        for (int i = 0; i < FIRST_NAMES.length; i++) {
+            prefixes[i] = FIRST_NAMES[i].substring(0, 3);
+        }
+        for (int i = 0; i < LAST_NAMES.length; i++) {
+            prefixes[FIRST_NAMES.length + i] = LAST_NAMES[i] + (i * 7919 % Math.max(1, size / 192));
+        }
+        for (int threads : threadCounts) {
+            run("name-search", "accounts=" + size, threads, 400_000, t -> (thread, i) ->
+                    registry.searchByName(prefixes[(int) ((i + thread) % prefixes.length)], SEARCH_LIMIT, account -> true));
+        }
+    }
+
+    // Credit then debit through the per-account atomic operations, on one shared account or spread over many
+    void creditDebit(String name, int accounts, int[] threadCounts) throws Exception {
+        for (int threads : threadCounts) {
+            run(name, "accounts=" + accounts, threads, 2_000_000, t -> {
+                // Fresh accounts per iteration keep the off-heap history from piling up across runs
+                TransactionLedger ledger = TransactionLedger.inMemory();
+                BankAccount[] pool = new BankAccount[accounts];
+                for (int i = 0; i < accounts; i++) {
+                    pool[i] = new BankAccount("Customer " + i, "ACC" + i, "1234", 1_000_000, ledger);
+                }
+                return (thread, i) -> {
+                    BankAccount account = pool[(int) ((thread * 31L + i) % accounts)];
+                    if ((i & 1) == 0) {
+                        return account.credit(100);
+                    }
+                    return account.tryDebit(100) ? 1 : 0;
+                };
+            });
+        }
+    }
+
+    // Raw history append into the off-heap ledger, one account per thread
+    void transactionAppend(int[] threadCounts) throws Exception {
+        for (int threads : threadCounts) {
+            run("transaction-append", "", threads, 4_000_000, t -> {
+                TransactionLedger ledger = TransactionLedger.inMemory();
+                BankAccount[] own = new BankAccount[t];
+                for (int i = 0; i < t; i++) {
+                    own[i] = new BankAccount("Customer " + i, "ACC" + i, "1234", 0, ledger);
+                }
+                long timestamp = System.currentTimeMillis();
+                return (thread, i) -> {
+                    own[thread].addTransaction("Credit", 100, timestamp);
+                    return i;
+                };
+            });
+        }
+    }
+
+    // Rendering the first passbook page, and the whole passbook, of an account with a long history
+    void passbook() throws Exception {
+        TransactionLedger ledger = TransactionLedger.inMemory();
+        BankAccount account = new BankAccount("Customer", "ACC0", "1234", 0, ledger);
+        long timestamp = System.currentTimeMillis() - PASSBOOK_HISTORY * 1000L;
+        for (int i = 0; i < PASSBOOK_HISTORY; i++) {
+            account.credit(100 + i % 1000, timestamp + i * 1000L);
+        }
+        run("passbook-first-page", "history=" + PASSBOOK_HISTORY, 1, 20_000, t -> (thread, i) ->
+                new StatementCursor(account.getTransactions(), Long.MIN_VALUE, Long.MAX_VALUE).nextPage(50).length());
+        run("passbook-full", "history=" + PASSBOOK_HISTORY, 1, 20, t -> (thread, i) ->
+                new StatementCursor(account.getTransactions(), Long.MIN_VALUE, Long.MAX_VALUE).nextPage(PASSBOOK_HISTORY).length());
+    }
+
+    // Cost of timing one operation into the metrics, clock reads included; the budget is 100ns
+    void metricsRecord(int[] threadCounts) throws Exception {
+        Metrics metrics = new Metrics(() -> 0);
+        BankResult result = BankResult.ok(null, "");
+        for (int threads : threadCounts) {
+            run("metrics-record", "", threads, 4_000_000, t -> (thread, i) -> {
+                metrics.record(Metrics.Operation.CREDIT, System.nanoTime(), result);
+                return i;
+            });
+        }
+    }
+
+    // Screening a debit against a typical rule set, which walks each account's whole ring of
+    // recent debits. The per-call latency of a single-threaded pass is printed too.
+    void fraudScreen(int[] threadCounts) throws Exception {
+        Path file = Files.createTempFile("fraud-rules", ".txt");
+        Files.write(file, List.of("amount 10000.00", "total 100000.00 3600", "count 32 60", "failedPins 3 600"), StandardCharsets.UTF_8);
+        FraudRules rules = new FraudRules(file, 16);
+        rules.reload();
+        Files.delete(file);
+        TransactionLedger ledger = TransactionLedger.inMemory();
+        BankAccount[] pool = new BankAccount[MULTI_ACCOUNTS];
+        for (int i = 0; i < MULTI_ACCOUNTS; i++) {
+            pool[i] = new BankAccount("Customer " + i, "ACC" + i, "1234", 0, ledger);
+        }
+        LatencyHistogram latencies = new LatencyHistogram();
+        for (int i = 0; i < 2_000_000; i++) {
+            long start = System.nanoTime();
+            rules.screen(pool[i % MULTI_ACCOUNTS], 100);
+            latencies.record(System.nanoTime() - start);
+        }
+        LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+        System.out.printf(Locale.ROOT, "fraud-screen: p50 %d ns, p99 %d ns, p99.9 %d ns per call%n",
+                snapshot.getValueAtQuantile(0.5), snapshot.getValueAtQuantile(0.99), snapshot.getValueAtQuantile(0.999));
+        for (int threads : threadCounts) {
+            run("fraud-screen", "accounts=" + MULTI_ACCOUNTS, threads, 4_000_000, t -> (thread, i) ->
+                    rules.screen(pool[(int) ((thread * 31L + i) % MULTI_ACCOUNTS)], 100) == null ? 1 : 0);
+        }
+    }
+
+    // Exporting every account and its history to a columnar file, with the export's own
+    // -Dbank.export.* settings; the rate is printed in transactions per second too
+    void columnarExport() throws Exception {
+        TransactionLedger ledger = TransactionLedger.inMemory();
+        List<BankAccount> accounts = new ArrayList<>(EXPORT_ACCOUNTS);
+        long timestamp = System.currentTimeMillis() - EXPORT_HISTORY * 86_400_000L;
+        for (int i = 0; i < EXPORT_ACCOUNTS; i++) {
+            BankAccount account = new BankAccount("Customer " + i, "ACC" + i, "1234", 0, ledger);
+            for (int j = 0; j < EXPORT_HISTORY; j++) {
+                account.addTransaction(j % 3 == 0 ? "Debit" : "Credit", 100 + (i * 31 + j) % 100_000, timestamp + j * 86_400_000L + i);
+            }
+            accounts.add(account);
+        }
+        long transactions = (long) EXPORT_ACCOUNTS * EXPORT_HISTORY;
+        Path file = Files.createTempFile("export", ".bcol");
+        ColumnarExport export = ColumnarExport.fromSystemProperties(ledger);
+        try {
+            run("columnar-export", "transactions=" + transactions, 1, 1, t -> (thread, i) -> {
+                try {
+                    export.export(accounts, file);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return 1;
+            });
+            System.out.printf(Locale.ROOT, "columnar-export: %,.0f transactions/s, %,d bytes%n",
+                    results.get(results.size() - 1).mean() * transactions, Files.size(file));
+        } finally {
+            export.shutdown();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    // Method to run one benchmark configuration; setup builds fresh state for each iteration
+    private void run(String benchmark, String params, int threads, long totalOps, IntFunction<Operation> setup) throws Exception {
+        double[] measured = new double[iterations];
+        for (int iteration = -warmup; iteration < iterations; iteration++) {
+            double opsPerSecond = iterate(setup.apply(threads), threads, totalOps / threads);
+            if (iteration >= 0) {
+                measured[iteration] = opsPerSecond;
+            }
+        }
+        Result result = new Result(benchmark, params, threads, measured);
+        results.add(result);
+        System.out.printf(Locale.ROOT, "%-22s %-18s threads=%-3d %,16.0f ops/s  +- %,.0f%n",
+                benchmark, params, threads, result.mean(), result.stdev());
+    }
+
+    private double iterate(Operation operation, int threads, long opsPerThread) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        CyclicBarrier end = new CyclicBarrier(threads + 1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(() -> {
+                long local = 0;
+                try {
+                    start.await();
+                    for (long i = 0; i < opsPerThread; i++) {
+                        local += operation.run(thread, i);
+                    }
+                    sink += local;
+                    end.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            workers[t].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        end.await();
+        long elapsed = System.nanoTime() - begin;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return opsPerThread * threads * 1e9 / elapsed;
+    }
+
+    private void writeJson(String file, String label) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            out.printf(Locale.ROOT, "{\"label\": \"%s\", \"java\": \"%s\", \"cpus\": %d, \"results\": [%n",
+                    label, System.getProperty("java.version"), Runtime.getRuntime().availableProcessors());
+            for (int r = 0; r < results.size(); r++) {
+                Result result = results.get(r);
+                StringBuilder values = new StringBuilder();
+                for (int i = 0; i < result.opsPerSecond.length; i++) {
+                    values.append(i > 0 ? ", " : "").append(String.format(Locale.ROOT, "%.1f", result.opsPerSecond[i]));
+                }
+                out.printf(Locale.ROOT, "  {\"benchmark\": \"%s\", \"params\": \"%s\", \"threads\": %d, \"unit\": \"ops/s\", "
+                                + "\"mean\": %.1f, \"stdev\": %.1f, \"iterations\": [%s]}%s%n",
+                        result.benchmark, result.params, result.threads, result.mean(), result.stdev(), values,
+                        r + 1 < results.size() ? "," : "");
+            }
+            out.println("]}");
+        }
+        System.out.println("Results written to " + file);
+    }
+
+    private static int[] parseList(String text) {
+        String[] parts = text.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+}